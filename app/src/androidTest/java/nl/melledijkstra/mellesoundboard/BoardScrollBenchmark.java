@@ -0,0 +1,151 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import nl.melledijkstra.mellesoundboard.ui.MainActivity;
+
+/**
+ * Flings the sound board down and up again while the FrameMetricsTracker records the frames.
+ * The frame report is written to the log. When the board is small synthetic sounds are added,
+ * these are removed again afterwards
+ */
+public class BoardScrollBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final String TAG = BoardScrollBenchmark.class.getSimpleName();
+
+    private static final int MIN_SOUNDS = 900;
+    private static final int FLINGS = 6;
+    private static final int FLING_VELOCITY = 8000;
+    private static final long TIMEOUT_MS = 30000;
+
+    /** More jank than this while scrolling fails the benchmark */
+    private static final float JANK_BUDGET_PERCENT = 10;
+
+    private MainActivity activity;
+    private RecyclerView board;
+    private final ArrayList<Sound> seeded = new ArrayList<>();
+
+    public BoardScrollBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        activity = getActivity();
+        board = (RecyclerView) activity.findViewById(R.id.theSoundBoard);
+        final SoundRepository repository = activity.getSoundManager().getRepository();
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return repository.isWarm();
+            }
+        });
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                int missing = MIN_SOUNDS - repository.getSnapshot().size();
+                for(int i = 0; i < missing; ++i) {
+                    Sound sound = new Sound("Scroll benchmark " + i);
+                    sound.setRemoteFileName("scroll_benchmark_" + i + ".mp3");
+                    seeded.add(sound);
+                }
+                if(!seeded.isEmpty()) repository.insertAll(new ArrayList<>(seeded));
+            }
+        });
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return board.getAdapter().getItemCount() >= MIN_SOUNDS;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final SoundRepository repository = activity.getSoundManager().getRepository();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for(Sound sound : seeded) {
+                    repository.delete(sound.id);
+                }
+            }
+        });
+        seeded.clear();
+        super.tearDown();
+    }
+
+    public void testScrollJank() throws Exception {
+        final FrameMetricsTracker frameMetrics = activity.getFrameMetrics();
+        if(frameMetrics == null) {
+            Log.w(TAG, "Frame metrics are only recorded in debug builds on API 16 and higher");
+            return;
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                frameMetrics.reset();
+            }
+        });
+
+        for(int i = 0; i < FLINGS; ++i) {
+            // down three times, then back up
+            final int velocity = (i < FLINGS / 2) ? FLING_VELOCITY : -FLING_VELOCITY;
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    board.fling(0, velocity);
+                }
+            });
+            waitFor(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return board.getScrollState() == RecyclerView.SCROLL_STATE_IDLE;
+                }
+            });
+        }
+
+        final FrameMetricsTracker.Summary[] scrolling = new FrameMetricsTracker.Summary[1];
+        final String[] report = new String[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                scrolling[0] = frameMetrics.summarize("scrolling", FrameMetricsTracker.SCROLLING, FrameMetricsTracker.SCROLLING);
+                report[0] = frameMetrics.getReport();
+            }
+        });
+        Log.i(TAG, "Frame times of " + FLINGS + " flings:\n" + report[0]);
+        assertTrue("No frames were recorded while scrolling", scrolling[0].frames > 0);
+        assertTrue("Too much jank while scrolling: " + scrolling[0], scrolling[0].getJankPercentage() <= JANK_BUDGET_PERCENT);
+    }
+
+    /**
+     * Checks the condition on the main thread until it's met
+     */
+    private void waitFor(final Condition condition) throws InterruptedException {
+        final boolean[] met = new boolean[1];
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        while(SystemClock.elapsedRealtime() < deadline) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    met[0] = condition.isMet();
+                }
+            });
+            if(met[0]) return;
+            Thread.sleep(100);
+        }
+        fail("Timed out waiting for the board");
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+}
@@ -0,0 +1,90 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Compares the heap footprint and load time of a board loaded as ArrayList&lt;Sound&gt; with the
+ * same board loaded as CompactSoundBoard. The results are written to the log
+ */
+public class CompactSoundBoardBenchmark extends AndroidTestCase {
+
+    private static final String TAG = CompactSoundBoardBenchmark.class.getSimpleName();
+
+    private static final String DB_NAME = "compact_benchmark.db";
+    private static final int BOARD_SIZE = 100000;
+
+    private SoundsDatabaseHelper soundsDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DB_NAME);
+        MediaFileIndex fileIndex = new MediaFileIndex(getContext().getCacheDir().getPath() + "/");
+        soundsDB = new SoundsDatabaseHelper(getContext(), fileIndex, DB_NAME);
+
+        ArrayList<Sound> sounds = new ArrayList<>(BOARD_SIZE);
+        for(int i = 0; i < BOARD_SIZE; ++i) {
+            Sound sound = new Sound("Benchmark sound " + i);
+            sound.remote_id = i + 1;
+            sound.setRemoteFileName("benchmark_sound_" + i + ".mp3");
+            sound.downloadLink = "http://soundapi.melledijkstra.nl/v1/sounds/" + (i + 1) + "/download";
+            sound.createdAt = 1476000000 + i;
+            sound.updatedAt = sound.createdAt;
+            sounds.add(sound);
+        }
+        soundsDB.createSounds(sounds);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        soundsDB.close();
+        getContext().deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    public void testCompactBoardFootprint() {
+        // load both once so the database pages are cached for both measurements
+        soundsDB.getAllSounds();
+        soundsDB.getCompactBoard();
+
+        long heapBefore = usedHeap();
+        long start = SystemClock.elapsedRealtime();
+        ArrayList<Sound> list = soundsDB.getAllSounds();
+        long listMs = SystemClock.elapsedRealtime() - start;
+        long listBytes = usedHeap() - heapBefore;
+        assertEquals(BOARD_SIZE, list.size());
+        list = null;
+
+        heapBefore = usedHeap();
+        start = SystemClock.elapsedRealtime();
+        CompactSoundBoard board = soundsDB.getCompactBoard();
+        long compactMs = SystemClock.elapsedRealtime() - start;
+        long compactBytes = usedHeap() - heapBefore;
+        assertEquals(BOARD_SIZE, board.size());
+
+        Log.i(TAG, String.format("%d sounds - ArrayList<Sound>: %d KB in %d ms, CompactSoundBoard: %d KB in %d ms",
+                BOARD_SIZE, listBytes / 1024, listMs, compactBytes / 1024, compactMs));
+        assertTrue("Compact board should use less heap than the list", compactBytes < listBytes);
+    }
+
+    public void testCompactBoardViews() {
+        CompactSoundBoard board = soundsDB.getCompactBoard();
+        Sound sound = board.get(42);
+        assertEquals("Benchmark sound 42", sound.name);
+        assertEquals(43, sound.remote_id);
+        assertEquals(42, board.indexOfId(sound.id));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; ++i) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
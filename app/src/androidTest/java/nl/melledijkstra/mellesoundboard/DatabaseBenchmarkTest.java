@@ -0,0 +1,51 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+
+import nl.melledijkstra.mellesoundboard.benchmark.BenchmarkReport;
+import nl.melledijkstra.mellesoundboard.benchmark.DatabaseBenchmarks;
+import nl.melledijkstra.mellesoundboard.benchmark.PlaybackBenchmarks;
+
+/**
+ * Runs the database and playback benchmarks on the device. The results are written to the log and as
+ * JSON to the benchmarks directory of the external files dir, pull them with adb to compare them
+ */
+public class DatabaseBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = DatabaseBenchmarkTest.class.getSimpleName();
+
+    private static final int[] CATALOG_SIZES = { 1000, 10000, 100000 };
+
+    public void testDatabase() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("database", environment());
+        DatabaseBenchmarks benchmarks = new DatabaseBenchmarks(getContext());
+        for(int size : CATALOG_SIZES) {
+            benchmarks.run(size, report);
+        }
+        write(report);
+        assertFalse(report.getResults().isEmpty());
+    }
+
+    public void testPlaybackStart() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("playback", environment());
+        new PlaybackBenchmarks(getContext()).run(report);
+        write(report);
+        assertFalse(report.getResults().isEmpty());
+    }
+
+    private void write(BenchmarkReport report) throws Exception {
+        Log.i(TAG, report.toString());
+        File dir = getContext().getExternalFilesDir(null);
+        File file = new File(new File(dir != null ? dir : getContext().getFilesDir(), "benchmarks"), report.getSuite() + ".json");
+        report.writeTo(file);
+        Log.i(TAG, "Results written to " + file.getPath());
+    }
+
+    private static String environment() {
+        return Build.MANUFACTURER + " " + Build.MODEL + ", API " + Build.VERSION.SDK_INT;
+    }
+}
@@ -0,0 +1,124 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import android.os.Debug;
+
+import java.lang.reflect.Method;
+
+/**
+ * Counts what the benchmark thread allocates. On a device the runtime counts the objects, on the JVM
+ * (Robolectric) the bytes are counted by the thread MX bean, which is looked up by reflection because
+ * it doesn't exist on Android. When neither works nothing is counted
+ */
+public abstract class AllocationCounter {
+
+    public static final String OBJECTS = "objects";
+    public static final String BYTES = "bytes";
+
+    /**
+     * Starts counting on the calling thread
+     */
+    public abstract void start();
+
+    /**
+     * @return What was allocated on the calling thread since {@link #start()}, -1 if unknown
+     */
+    public abstract long stop();
+
+    /**
+     * @return {@link #OBJECTS}, {@link #BYTES} or null when nothing is counted
+     */
+    public abstract String getUnit();
+
+    public static AllocationCounter create() {
+        String vm = System.getProperty("java.vm.name", "");
+        if(vm.contains("Dalvik")) return new RuntimeCounter();
+        AllocationCounter jvm = JvmCounter.create();
+        return (jvm != null) ? jvm : new NoCounter();
+    }
+
+    /**
+     * Dalvik and ART count the allocations of a thread when asked to
+     */
+    @SuppressWarnings("deprecation")
+    private static class RuntimeCounter extends AllocationCounter {
+        @Override
+        public void start() {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+        }
+
+        @Override
+        public long stop() {
+            Debug.stopAllocCounting();
+            return Debug.getThreadAllocCount();
+        }
+
+        @Override
+        public String getUnit() {
+            return OBJECTS;
+        }
+    }
+
+    /**
+     * com.sun.management.ThreadMXBean.getThreadAllocatedBytes of HotSpot and OpenJDK
+     */
+    private static class JvmCounter extends AllocationCounter {
+        private final Object bean;
+        private final Method allocatedBytes;
+        private long before;
+
+        private JvmCounter(Object bean, Method allocatedBytes) {
+            this.bean = bean;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        static JvmCounter create() {
+            try {
+                Object bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+                Method allocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+                return new JvmCounter(bean, allocatedBytes);
+            } catch(Exception e) {
+                return null;
+            }
+        }
+
+        private long allocated() {
+            try {
+                return (Long) allocatedBytes.invoke(bean, Thread.currentThread().getId());
+            } catch(Exception e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void start() {
+            before = allocated();
+        }
+
+        @Override
+        public long stop() {
+            long after = allocated();
+            return (before >= 0 && after >= 0) ? after - before : -1;
+        }
+
+        @Override
+        public String getUnit() {
+            return BYTES;
+        }
+    }
+
+    private static class NoCounter extends AllocationCounter {
+        @Override
+        public void start() {}
+
+        @Override
+        public long stop() {
+            return -1;
+        }
+
+        @Override
+        public String getUnit() {
+            return null;
+        }
+    }
+}
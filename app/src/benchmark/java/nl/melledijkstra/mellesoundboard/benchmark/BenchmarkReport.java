@@ -0,0 +1,70 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the results of a benchmark run and writes them as JSON, so runs on different
+ * devices and commits can be compared by a script
+ */
+public class BenchmarkReport {
+
+    private final String suite;
+    private final String environment;
+    private final List<BenchmarkResult> results = new ArrayList<>();
+
+    /**
+     * @param environment Where the benchmark ran, like the device model or "robolectric"
+     */
+    public BenchmarkReport(String suite, String environment) {
+        this.suite = suite;
+        this.environment = environment;
+    }
+
+    public void add(BenchmarkResult result) {
+        results.add(result);
+    }
+
+    public String getSuite() {
+        return suite;
+    }
+
+    public List<BenchmarkResult> getResults() {
+        return results;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"suite\":\"").append(suite).append("\",\"environment\":\"").append(environment.replace("\"", "'"))
+                .append("\",\"timestamp\":").append(System.currentTimeMillis()).append(",\"results\":[");
+        for(int i = 0; i < results.size(); ++i) {
+            if(i > 0) json.append(',');
+            json.append("\n  ").append(results.get(i).toJson());
+        }
+        return json.append("\n]}\n").toString();
+    }
+
+    public void writeTo(File file) throws IOException {
+        File dir = file.getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create "+dir);
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(suite).append(" on ").append(environment).append('\n');
+        for(BenchmarkResult result : results) {
+            text.append(result).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The timings of one benchmark at one catalog size
+ */
+public class BenchmarkResult {
+
+    public final String name;
+    public final int catalogSize;
+    public final int iterations;
+    public final long meanNs;
+    public final long medianNs;
+    public final long p90Ns;
+    public final long minNs;
+    public final long maxNs;
+    /** What one operation allocates in {@link #allocationUnit}, -1 when unknown */
+    public final long allocationsPerOp;
+    public final String allocationUnit;
+
+    /**
+     * @param timesNs The time of every timed iteration, sorted by this constructor
+     * @param allocations What all timed iterations allocated together
+     */
+    BenchmarkResult(String name, int catalogSize, long[] timesNs, long allocations, String allocationUnit) {
+        this.name = name;
+        this.catalogSize = catalogSize;
+        this.iterations = timesNs.length;
+        Arrays.sort(timesNs);
+        long total = 0;
+        for(long time : timesNs) {
+            total += time;
+        }
+        meanNs = total / timesNs.length;
+        medianNs = timesNs[timesNs.length / 2];
+        p90Ns = timesNs[Math.min((int) Math.ceil(timesNs.length * 0.9) - 1, timesNs.length - 1)];
+        minNs = timesNs[0];
+        maxNs = timesNs[timesNs.length - 1];
+        this.allocationsPerOp = (allocations >= 0) ? allocations / timesNs.length : -1;
+        this.allocationUnit = allocationUnit;
+    }
+
+    public String toJson() {
+        return String.format(Locale.US, "{\"name\":\"%s\",\"catalogSize\":%d,\"iterations\":%d,\"meanNs\":%d,\"medianNs\":%d,"
+                        + "\"p90Ns\":%d,\"minNs\":%d,\"maxNs\":%d,\"allocationsPerOp\":%d,\"allocationUnit\":%s}",
+                name, catalogSize, iterations, meanNs, medianNs, p90Ns, minNs, maxNs, allocationsPerOp,
+                (allocationUnit != null) ? "\"" + allocationUnit + "\"" : "null");
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%-20s %7d sounds  mean %9.1f us  median %9.1f us  p90 %9.1f us  alloc %d %s/op",
+                name, catalogSize, meanNs / 1000.0, medianNs / 1000.0, p90Ns / 1000.0, allocationsPerOp,
+                (allocationUnit != null) ? allocationUnit : "?");
+    }
+}
@@ -0,0 +1,95 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nl.melledijkstra.mellesoundboard.MediaFileIndex;
+import nl.melledijkstra.mellesoundboard.Sound;
+import nl.melledijkstra.mellesoundboard.SoundsDatabaseHelper;
+
+/**
+ * Times the operations of the SoundsDatabaseHelper on a table seeded with a synthetic catalog. The
+ * benchmarks use their own database, the sounds of the user are left alone. Runs on a device and
+ * with Robolectric, see DatabaseBenchmarkTest
+ */
+public class DatabaseBenchmarks {
+
+    private static final String DB_NAME = "benchmark.db";
+
+    private static final int WARMUPS = 20;
+    private static final int ITERATIONS = 200;
+    /** Loading the whole table takes long at the larger sizes */
+    private static final int LOAD_WARMUPS = 1;
+    private static final int LOAD_ITERATIONS = 5;
+
+    private final Context context;
+    private final MediaFileIndex fileIndex;
+
+    public DatabaseBenchmarks(Context context) {
+        this.context = context;
+        fileIndex = new MediaFileIndex(context.getCacheDir().getPath() + "/");
+    }
+
+    /**
+     * Seeds a fresh database with the catalog and runs every benchmark on it
+     */
+    public void run(final int catalogSize, BenchmarkReport report) throws Exception {
+        context.deleteDatabase(DB_NAME);
+        final SoundsDatabaseHelper soundsDB = new SoundsDatabaseHelper(context, fileIndex, DB_NAME);
+        try {
+            soundsDB.createSounds(SyntheticCatalog.sounds(catalogSize));
+            final Random random = new Random(catalogSize);
+            MicroBenchmark benchmark = new MicroBenchmark(WARMUPS, ITERATIONS);
+
+            final ArrayList<Long> created = new ArrayList<>();
+            report.add(benchmark.run("createSound", catalogSize, new MicroBenchmark.Operation() {
+                @Override
+                public void run(int iteration) {
+                    Sound sound = new Sound("Benchmark sound " + iteration);
+                    sound.setRemoteFileName("benchmark_sound_" + iteration + ".mp3");
+                    created.add(soundsDB.createSound(sound));
+                }
+            }));
+
+            report.add(benchmark.run("soundExists", catalogSize, new MicroBenchmark.Operation() {
+                @Override
+                public void run(int iteration) {
+                    soundsDB.soundExists(1 + random.nextInt(catalogSize));
+                }
+            }));
+
+            final Sound updated = new Sound("Updated benchmark sound");
+            report.add(benchmark.run("updateSound", catalogSize, new MicroBenchmark.Operation() {
+                @Override
+                public void run(int iteration) {
+                    updated.id = 1 + random.nextInt(catalogSize);
+                    updated.updatedAt = iteration;
+                    soundsDB.updateSound(updated);
+                }
+            }));
+
+            // deletes the sounds which were created, so every run deletes an existing row
+            report.add(benchmark.run("deleteSound", catalogSize, new MicroBenchmark.Operation() {
+                @Override
+                public void run(int iteration) {
+                    soundsDB.deleteSound(created.get(iteration));
+                }
+            }));
+
+            MicroBenchmark load = new MicroBenchmark(LOAD_WARMUPS, LOAD_ITERATIONS);
+            report.add(load.run("getAllSounds", catalogSize, new MicroBenchmark.Operation() {
+                @Override
+                public void run(int iteration) {
+                    List<Sound> sounds = soundsDB.getAllSounds();
+                    if(sounds.size() < catalogSize) throw new IllegalStateException("Loaded "+sounds.size()+" of "+catalogSize+" sounds");
+                }
+            }));
+        } finally {
+            soundsDB.close();
+            context.deleteDatabase(DB_NAME);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+/**
+ * Runs an operation a number of times without measuring so caches and the JIT are warm, then times
+ * every following run on its own. Allocations are counted over all timed runs together
+ */
+public class MicroBenchmark {
+
+    private final int warmups;
+    private final int iterations;
+    private final AllocationCounter allocations = AllocationCounter.create();
+
+    public MicroBenchmark(int warmups, int iterations) {
+        this.warmups = warmups;
+        this.iterations = iterations;
+    }
+
+    public BenchmarkResult run(String name, int catalogSize, Operation operation) throws Exception {
+        return run(name, catalogSize, iterations, operation);
+    }
+
+    /**
+     * @param iterations The number of timed runs, for operations which are too slow for the default
+     */
+    public BenchmarkResult run(String name, int catalogSize, int iterations, Operation operation) throws Exception {
+        for(int i = 0; i < warmups; ++i) {
+            operation.run(i);
+        }
+        long[] times = new long[iterations];
+        allocations.start();
+        for(int i = 0; i < iterations; ++i) {
+            long start = System.nanoTime();
+            operation.run(warmups + i);
+            times[i] = System.nanoTime() - start;
+        }
+        long allocated = allocations.stop();
+        return new BenchmarkResult(name, catalogSize, times, allocated, allocations.getUnit());
+    }
+
+    public interface Operation {
+        /**
+         * @param iteration Counts up over the warm up and timed runs, so every run can use other data
+         */
+        void run(int iteration) throws Exception;
+    }
+}
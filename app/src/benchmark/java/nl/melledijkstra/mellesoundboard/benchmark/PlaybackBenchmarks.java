@@ -0,0 +1,81 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Times how long it takes before a sound plays, the same steps SoundManager.play takes when a
+ * button is pressed: setting the data source, preparing and starting the MediaPlayer. The sound is a
+ * generated wav file so the benchmark doesn't depend on downloads. Needs a real MediaPlayer, so it
+ * only runs on a device or emulator
+ */
+public class PlaybackBenchmarks {
+
+    private static final int WARMUPS = 5;
+    private static final int ITERATIONS = 50;
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int DURATION_MS = 1000;
+
+    private final Context context;
+
+    public PlaybackBenchmarks(Context context) {
+        this.context = context;
+    }
+
+    public void run(BenchmarkReport report) throws Exception {
+        final File file = new File(context.getCacheDir(), "benchmark_tone.wav");
+        writeTone(file);
+        final MediaPlayer mp = new MediaPlayer();
+        try {
+            MicroBenchmark benchmark = new MicroBenchmark(WARMUPS, ITERATIONS);
+            report.add(benchmark.run("playbackStart", 1, new MicroBenchmark.Operation() {
+                @Override
+                public void run(int iteration) throws IOException {
+                    mp.reset();
+                    mp.setDataSource(context, Uri.fromFile(file));
+                    mp.prepare();
+                    mp.start();
+                }
+            }));
+            mp.stop();
+        } finally {
+            mp.release();
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes a 16 bit mono wav file with a quiet sine tone
+     */
+    private static void writeTone(File file) throws IOException {
+        int samples = SAMPLE_RATE * DURATION_MS / 1000;
+        int dataBytes = samples * 2;
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + dataBytes));
+            out.writeBytes("WAVEfmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE * 2));
+            out.writeShort(Short.reverseBytes((short) 2));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(dataBytes));
+            for(int i = 0; i < samples; ++i) {
+                out.writeShort(Short.reverseBytes((short) (Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * 2000)));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -12,8 +12,38 @@ public class App extends Application {
 
     private static final String TAG = App.class.getSimpleName();
 
+    /** Lives as long as the process, so activities which are recreated find their sounds and players warm */
+    private SoundManager soundManager;
+
     public App() {
+        StartupTimer.start();
         Log.d(TAG, "Application instantiated");
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        MainThreadIoMonitor.install();
+        // the Sound model lives in the core module which doesn't know the app
+        Sound.setMediaPath(SoundManager.MEDIA_PATH);
+        StartupTimer.mark(StartupTimer.APPLICATION);
+    }
+
+    /**
+     * @return The sound manager of the app, it's created the first time this is called
+     */
+    public SoundManager getSoundManager() {
+        if(soundManager == null) {
+            soundManager = new SoundManager(this);
+        }
+        return soundManager;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // the covers are dropped in the background as well, not only while the board is visible
+        if(soundManager != null) soundManager.getCoverLoader().trimMemory(level);
+    }
+
 }
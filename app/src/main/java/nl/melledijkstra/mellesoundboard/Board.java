@@ -0,0 +1,48 @@
+package nl.melledijkstra.mellesoundboard;
+
+/**
+ * The Board model is a category of sounds, like "Movies" or "Friends". A sound can be on many boards,
+ * the membership is stored in its own table.
+ */
+public class Board {
+
+    // TABLE NAMES
+    public static final String TABLE_NAME = "board";
+    public static final String SOUNDS_TABLE_NAME = "board_sound";
+
+    /** Not a stored board, the board with every sound */
+    public static final long ALL_SOUNDS = -1;
+
+    public class Columns {
+        /** The same as BaseColumns._ID */
+        public static final String ID = "_id";
+        public static final String NAME = "name";
+        /** The place of the tab, lower first */
+        public static final String POSITION = "position";
+    }
+
+    public class SoundColumns {
+        public static final String BOARD_ID = "board_id";
+        public static final String SOUND_ID = "sound_id";
+    }
+
+    /** The id of the board in the local database */
+    public long id;
+
+    public String name;
+
+    public int position;
+
+    /** The number of sounds on the board when it was loaded */
+    public int soundCount;
+
+    public Board(long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Board{id: %d, name: %s, position: %d, sounds: %d }", id, name, position, soundCount);
+    }
+}
@@ -0,0 +1,183 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The BoardStore keeps the list of boards, which is small, and changes the boards and their sounds
+ * in the user lane of the {@link TaskScheduler}. The sounds of a board are never held here, the {@link SoundPager} loads them
+ * when the board is shown. The listener hears about every change on the main thread, after it's written.
+ */
+public class BoardStore {
+
+    private static final String TAG = BoardStore.class.getSimpleName();
+
+    private final SoundsDatabaseHelper soundsDB;
+
+    /** The writes run one after another */
+    private final TaskScheduler.SerialQueue queue = TaskScheduler.serial("boards", TaskScheduler.USER);
+
+    /** Set by {@link #shutdown()}, work which is asked for later is ignored */
+    private boolean shutdown;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    private Listener listener;
+
+    /** The boards in the order of their tabs, only touched on the main thread */
+    private List<Board> boards = Collections.emptyList();
+
+    public BoardStore(SoundsDatabaseHelper soundsDB) {
+        this.soundsDB = soundsDB;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The boards as they were last loaded, empty until then
+     */
+    public List<Board> getBoards() {
+        return boards;
+    }
+
+    @Nullable
+    public Board getBoard(long id) {
+        for(Board board : boards) {
+            if(board.id == id) return board;
+        }
+        return null;
+    }
+
+    /**
+     * Loads the boards in the background, the listener is notified when they are there
+     */
+    public void load() {
+        run(null);
+    }
+
+    public void create(final String name) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                soundsDB.createBoard(name);
+            }
+        });
+    }
+
+    /**
+     * Deletes the board, its sounds stay in the library
+     */
+    public void delete(final long boardId) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                soundsDB.deleteBoard(boardId);
+            }
+        });
+    }
+
+    /**
+     * Puts a sound on a board or takes it off
+     */
+    public void setOnBoard(final long boardId, final long soundId, final boolean onBoard) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if(!soundsDB.setOnBoard(boardId, soundId, onBoard)) return;
+                final ArrayList<Board> loaded = soundsDB.getBoards();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the board reloads before the counts are shown
+                        if(listener != null) listener.onBoardSoundsChanged(boardId);
+                        publish(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Finds the boards a sound is on
+     * @param callback Gets the ids of the boards on the main thread
+     */
+    public void getBoardsOfSound(final long soundId, final BoardsOfSoundCallback callback) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final HashSet<Long> ids = soundsDB.getBoardsOfSound(soundId);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBoardsOfSound(ids);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops taking work, writes which are already requested still finish
+     */
+    public void shutdown() {
+        listener = null;
+        shutdown = true;
+    }
+
+    /**
+     * Runs the write in the background and reloads the boards afterwards
+     */
+    private void run(@Nullable final Runnable write) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if(write != null) write.run();
+                final ArrayList<Board> loaded = soundsDB.getBoards();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        publish(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    private void execute(Runnable work) {
+        if(shutdown) return;
+        queue.execute(work);
+    }
+
+    private void publish(List<Board> loaded) {
+        Log.d(TAG, "Loaded "+loaded.size()+" boards");
+        boards = Collections.unmodifiableList(loaded);
+        if(listener != null) listener.onBoardsChanged(boards);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread when boards were loaded, created or deleted, or their sounds changed
+         * @param boards The boards in the order of their tabs
+         */
+        void onBoardsChanged(List<Board> boards);
+
+        /**
+         * Called on the main thread when a sound was put on the board or taken off
+         */
+        void onBoardSoundsChanged(long boardId);
+    }
+
+    public interface BoardsOfSoundCallback {
+        void onBoardsOfSound(HashSet<Long> boardIds);
+    }
+}
@@ -0,0 +1,417 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.support.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The CompactSoundBoard stores a (very large) board in primitive arrays instead of one Sound object
+ * per sound. Numbers and flags live in parallel arrays and the strings are kept once in a
+ * {@link StringPool}. Sound objects are only created when {@link #get(int)} is called, so the
+ * adapter and playback get a Sound view of the position they need.
+ *
+ * The sounds are ordered by id. As a List this board is read only, {@link #append(Sound)},
+ * {@link #replace(int, Sound)} and {@link #removeAt(int)} are meant for the owner of the board,
+ * which should hand out a {@link #copy()} when others may still read the old state.
+ */
+public class CompactSoundBoard extends AbstractList<Sound> implements RandomAccess, SoundSyncDiff.Board {
+
+    private static final int MAGIC = 0x534e4150; // SNAP
+
+    private static final byte FLAG_DOWNLOADED = 1;
+    /** The local file is present in the media directory */
+    private static final byte FLAG_FILE_PRESENT = 1 << 1;
+    private static final byte FLAG_EVICTED = 1 << 2;
+
+    private final StringPool pool;
+
+    private int size;
+    private long[] ids;
+    private long[] remoteIds;
+    private int[] createdAt;
+    private int[] updatedAt;
+    private byte[] flags;
+    private int[] names;
+    private int[] localFileNames;
+    private int[] remoteFileNames;
+    private int[] downloadLinks;
+    private int[] trimStarts;
+    private int[] trimEnds;
+
+    /**
+     * Positions plus one by the hash of their remote id, 0 is an empty slot. Built on the first lookup after
+     * the board changed, null until then
+     */
+    @Nullable
+    private volatile int[] remoteIdSlots;
+
+    public CompactSoundBoard(int capacity) {
+        // usually a name, one file name and a download link per sound
+        this(capacity, new StringPool(capacity * 3));
+    }
+
+    private CompactSoundBoard(int capacity, StringPool pool) {
+        this.pool = pool;
+        capacity = Math.max(capacity, 16);
+        ids = new long[capacity];
+        remoteIds = new long[capacity];
+        createdAt = new int[capacity];
+        updatedAt = new int[capacity];
+        flags = new byte[capacity];
+        names = new int[capacity];
+        localFileNames = new int[capacity];
+        remoteFileNames = new int[capacity];
+        downloadLinks = new int[capacity];
+        trimStarts = new int[capacity];
+        trimEnds = new int[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Creates a Sound view of the given position, every call returns a new object
+     */
+    @Override
+    public Sound get(int position) {
+        checkPosition(position);
+        Sound sound = new Sound();
+        sound.id = ids[position];
+        sound.remote_id = remoteIds[position];
+        sound.name = pool.get(names[position]);
+        sound.setLocalFileName(pool.get(localFileNames[position]), (flags[position] & FLAG_FILE_PRESENT) != 0);
+        sound.setRemoteFileName(pool.get(remoteFileNames[position]));
+        sound.setDownloaded((flags[position] & FLAG_DOWNLOADED) != 0);
+        sound.setEvicted((flags[position] & FLAG_EVICTED) != 0);
+        sound.downloadLink = pool.get(downloadLinks[position]);
+        sound.createdAt = createdAt[position];
+        sound.updatedAt = updatedAt[position];
+        sound.trimStartMs = trimStarts[position];
+        sound.trimEndMs = trimEnds[position];
+        return sound;
+    }
+
+    public long getId(int position) {
+        checkPosition(position);
+        return ids[position];
+    }
+
+    public String getName(int position) {
+        checkPosition(position);
+        return pool.get(names[position]);
+    }
+
+    public boolean isDownloaded(int position) {
+        checkPosition(position);
+        return (flags[position] & FLAG_DOWNLOADED) != 0;
+    }
+
+    /**
+     * @return The position of the sound with this id or -1, uses a binary search because the board is ordered by id
+     */
+    public int indexOfId(long id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        return (position >= 0) ? position : -1;
+    }
+
+    /**
+     * @return The position of the sound with this remote id or -1, local sounds with remote id 0 are never found.
+     * The index is built on the first lookup after a change, so a sync which looks up many sounds builds it once
+     */
+    public int indexOfRemoteId(long remoteId) {
+        if(remoteId == 0) return -1;
+        int[] slots = remoteIdSlots;
+        if(slots == null) {
+            slots = indexRemoteIds();
+            remoteIdSlots = slots;
+        }
+        int mask = slots.length - 1;
+        int slot = hash(remoteId) & mask;
+        while(slots[slot] != 0) {
+            int position = slots[slot] - 1;
+            if(remoteIds[position] == remoteId) return position;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public Sound getByRemoteId(long remoteId) {
+        int position = indexOfRemoteId(remoteId);
+        return (position >= 0) ? get(position) : null;
+    }
+
+    /**
+     * Adds a sound at the end, its id must be higher than the ids on the board
+     */
+    public void append(Sound sound) {
+        if(size == ids.length) grow();
+        write(size++, sound);
+    }
+
+    /**
+     * Overwrites the sound at the given position, the id must stay the same
+     */
+    public void replace(int position, Sound sound) {
+        checkPosition(position);
+        write(position, sound);
+    }
+
+    public void removeAt(int position) {
+        checkPosition(position);
+        int moved = size - position - 1;
+        System.arraycopy(ids, position + 1, ids, position, moved);
+        System.arraycopy(remoteIds, position + 1, remoteIds, position, moved);
+        System.arraycopy(createdAt, position + 1, createdAt, position, moved);
+        System.arraycopy(updatedAt, position + 1, updatedAt, position, moved);
+        System.arraycopy(flags, position + 1, flags, position, moved);
+        System.arraycopy(names, position + 1, names, position, moved);
+        System.arraycopy(localFileNames, position + 1, localFileNames, position, moved);
+        System.arraycopy(remoteFileNames, position + 1, remoteFileNames, position, moved);
+        System.arraycopy(downloadLinks, position + 1, downloadLinks, position, moved);
+        System.arraycopy(trimStarts, position + 1, trimStarts, position, moved);
+        System.arraycopy(trimEnds, position + 1, trimEnds, position, moved);
+        --size;
+        remoteIdSlots = null;
+    }
+
+    /**
+     * @return A copy which can be changed without changing this board. The copy gets its own pool
+     * with only the strings which are still used, so replaced strings don't pile up
+     */
+    public CompactSoundBoard copy() {
+        CompactSoundBoard copy = new CompactSoundBoard(0, new StringPool(pool.size()));
+        copy.size = size;
+        copy.ids = Arrays.copyOf(ids, ids.length);
+        copy.remoteIds = Arrays.copyOf(remoteIds, ids.length);
+        copy.createdAt = Arrays.copyOf(createdAt, ids.length);
+        copy.updatedAt = Arrays.copyOf(updatedAt, ids.length);
+        copy.flags = Arrays.copyOf(flags, ids.length);
+        copy.names = new int[ids.length];
+        copy.localFileNames = new int[ids.length];
+        copy.remoteFileNames = new int[ids.length];
+        copy.downloadLinks = new int[ids.length];
+        for(int i = 0; i < size; ++i) {
+            copy.names[i] = copy.pool.add(pool.get(names[i]));
+            copy.localFileNames[i] = copy.pool.add(pool.get(localFileNames[i]));
+            copy.remoteFileNames[i] = copy.pool.add(pool.get(remoteFileNames[i]));
+            copy.downloadLinks[i] = copy.pool.add(pool.get(downloadLinks[i]));
+        }
+        copy.trimStarts = Arrays.copyOf(trimStarts, ids.length);
+        copy.trimEnds = Arrays.copyOf(trimEnds, ids.length);
+        return copy;
+    }
+
+    /**
+     * @return The sounds as a compact board, the list itself when it already is one
+     */
+    public static CompactSoundBoard of(List<Sound> sounds) {
+        if(sounds instanceof CompactSoundBoard) return (CompactSoundBoard) sounds;
+        CompactSoundBoard board = new CompactSoundBoard(sounds.size());
+        for(Sound sound : sounds) {
+            board.append(sound);
+        }
+        return board;
+    }
+
+    /**
+     * Writes the board to a stream, strings which were replaced in the pool are left out
+     * @param version Written with the board, reading with another version gives nothing
+     */
+    public void writeTo(DataOutputStream output, int version) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(version);
+        output.writeInt(size);
+        for(int i = 0; i < size; ++i) {
+            output.writeLong(ids[i]);
+            output.writeLong(remoteIds[i]);
+            output.writeInt(createdAt[i]);
+            output.writeInt(updatedAt[i]);
+            output.writeByte(flags[i]);
+            writeString(output, pool.get(names[i]));
+            writeString(output, pool.get(localFileNames[i]));
+            boolean sameFileName = localFileNames[i] != 0 && remoteFileNames[i] == localFileNames[i];
+            output.writeBoolean(sameFileName);
+            if(!sameFileName) writeString(output, pool.get(remoteFileNames[i]));
+            writeString(output, pool.get(downloadLinks[i]));
+            output.writeInt(trimStarts[i]);
+            output.writeInt(trimEnds[i]);
+        }
+    }
+
+    /**
+     * Reads a board which was written by {@link #writeTo(DataOutputStream, int)}
+     * @param version The version the board must have been written with
+     * @return The board or null if it was written in another format or version
+     */
+    @Nullable
+    public static CompactSoundBoard readFrom(DataInputStream input, int version) throws IOException {
+        if(input.readInt() != MAGIC || input.readInt() != version) return null;
+        int size = input.readInt();
+        CompactSoundBoard board = new CompactSoundBoard(size);
+        for(int i = 0; i < size; ++i) {
+            board.ids[i] = input.readLong();
+            board.remoteIds[i] = input.readLong();
+            board.createdAt[i] = input.readInt();
+            board.updatedAt[i] = input.readInt();
+            board.flags[i] = input.readByte();
+            board.names[i] = board.pool.add(readString(input));
+            board.localFileNames[i] = board.pool.add(readString(input));
+            board.remoteFileNames[i] = input.readBoolean() ? board.localFileNames[i] : board.pool.add(readString(input));
+            board.downloadLinks[i] = board.pool.add(readString(input));
+            board.trimStarts[i] = input.readInt();
+            board.trimEnds[i] = input.readInt();
+        }
+        board.size = size;
+        return board;
+    }
+
+    private static void writeString(DataOutputStream output, @Nullable String string) throws IOException {
+        output.writeBoolean(string != null);
+        if(string != null) output.writeUTF(string);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private void write(int position, Sound sound) {
+        ids[position] = sound.id;
+        remoteIds[position] = sound.remote_id;
+        createdAt[position] = sound.createdAt;
+        updatedAt[position] = sound.updatedAt;
+        byte flag = 0;
+        if(sound.isDownloaded()) flag |= FLAG_DOWNLOADED;
+        if(sound.isEvicted()) flag |= FLAG_EVICTED;
+        // a sound only keeps its local file name when the file is present
+        if(sound.getLocalFileName() != null) flag |= FLAG_FILE_PRESENT;
+        flags[position] = flag;
+        names[position] = pool.add(sound.name);
+        String localFileName = sound.getLocalFileName();
+        String remoteFileName = sound.getRemoteFileName();
+        localFileNames[position] = pool.add(localFileName);
+        // the downloaded file usually has the remote file name, the pool keeps that string only once
+        remoteFileNames[position] = pool.add(remoteFileName);
+        downloadLinks[position] = pool.add(sound.downloadLink);
+        trimStarts[position] = sound.trimStartMs;
+        trimEnds[position] = sound.trimEndMs;
+        remoteIdSlots = null;
+    }
+
+    /**
+     * When a remote id is on the board twice the first position is found, like a search through the list would
+     */
+    private int[] indexRemoteIds() {
+        int[] slots = new int[StringPool.tableSize(size)];
+        int mask = slots.length - 1;
+        for(int position = 0; position < size; ++position) {
+            if(remoteIds[position] == 0) continue;
+            int slot = hash(remoteIds[position]) & mask;
+            while(slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = position + 1;
+        }
+        return slots;
+    }
+
+    private static int hash(long remoteId) {
+        int h = (int) (remoteId ^ (remoteId >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        int capacity = ids.length + (ids.length >> 1);
+        ids = Arrays.copyOf(ids, capacity);
+        remoteIds = Arrays.copyOf(remoteIds, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        updatedAt = Arrays.copyOf(updatedAt, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        names = Arrays.copyOf(names, capacity);
+        localFileNames = Arrays.copyOf(localFileNames, capacity);
+        remoteFileNames = Arrays.copyOf(remoteFileNames, capacity);
+        downloadLinks = Arrays.copyOf(downloadLinks, capacity);
+        trimStarts = Arrays.copyOf(trimStarts, capacity);
+        trimEnds = Arrays.copyOf(trimEnds, capacity);
+    }
+
+    private void checkPosition(int position) {
+        if(position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position "+position+" on a board of "+size+" sounds");
+        }
+    }
+
+    /**
+     * Holds the strings of a board in one array so the board only stores int references, index 0 is null.
+     * Equal strings are stored once, they are found through an open addressing table of indexes
+     * so the lookup doesn't need an object per string. Strings which are replaced stay in the pool
+     * until the board is copied
+     */
+    static class StringPool {
+
+        private String[] strings;
+        private int size = 1;
+
+        /** Indexes into strings by hash, 0 is an empty slot, never more than half full */
+        private int[] slots;
+
+        StringPool(int capacity) {
+            strings = new String[Math.max(capacity + 1, 64)];
+            slots = new int[tableSize(strings.length)];
+        }
+
+        int add(String string) {
+            if(string == null) return 0;
+            int mask = slots.length - 1;
+            int slot = hash(string) & mask;
+            while(slots[slot] != 0) {
+                if(strings[slots[slot]].equals(string)) return slots[slot];
+                slot = (slot + 1) & mask;
+            }
+            if(size == strings.length) strings = Arrays.copyOf(strings, size + (size >> 1));
+            strings[size] = string;
+            slots[slot] = size;
+            if(++size * 2 > slots.length) rehash();
+            return size - 1;
+        }
+
+        String get(int index) {
+            return strings[index];
+        }
+
+        /**
+         * @return The number of strings in the pool
+         */
+        int size() {
+            return size - 1;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for(int index = 1; index < size; ++index) {
+                int slot = hash(strings[index]) & mask;
+                while(slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = index;
+            }
+        }
+
+        private static int hash(String string) {
+            int h = string.hashCode();
+            return h ^ (h >>> 16);
+        }
+
+        private static int tableSize(int capacity) {
+            int size = 64;
+            while(size < capacity * 2) size <<= 1;
+            return size;
+        }
+    }
+}
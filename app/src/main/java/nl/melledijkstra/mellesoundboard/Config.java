@@ -10,6 +10,9 @@ public class Config {
     public static final String API_URL = "http://soundapi.melledijkstra.nl/";
     public static final int API_VERSION = 1;
 
+    /** Boards with more sounds than this are kept in a CompactSoundBoard instead of Sound objects */
+    public static final int COMPACT_BOARD_THRESHOLD = 20000;
+
     private Config() throws Exception {
         throw new Exception("Don't create a Config instance, this class is only for configuration!");
     }
@@ -20,5 +23,9 @@ public class Config {
 
     public class Preferences {
         public static final String LAST_SYNC_TIME = "last_sync_time";
+        /** The last modified time of the media directory when it was last scanned */
+        public static final String MEDIA_DIR_MTIME = "media_dir_mtime";
+        /** The space downloads may take in megabytes, see StorageBudget */
+        public static final String STORAGE_BUDGET_MB = "storage_budget_mb";
     }
 }
@@ -0,0 +1,436 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The CoverLoader shows the cover of a sound in an ImageView without decoding on the main thread.
+ * Covers are decoded in the interactive lane of the {@link TaskScheduler} at the size of the view and kept in a memory cache
+ * which is bounded by bytes. The downsampled covers are also written to a disk cache, so the full
+ * image is only decoded once. Bitmaps which fall out of the memory cache and are not shown anymore
+ * are reused for the next decodes.
+ *
+ * Binding a view again cancels the load for the sound it showed before. All public methods must be
+ * called from the main thread.
+ */
+public class CoverLoader {
+
+    private static final String TAG = CoverLoader.class.getSimpleName();
+
+    /** Covers have no transparency, 565 takes half the memory of 8888 */
+    private static final Bitmap.Config CONFIG = Bitmap.Config.RGB_565;
+
+    /** The memory cache may use this part of the heap */
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+    private static final int DISK_CACHE_QUALITY = 85;
+
+    /** How many unused bitmaps are kept for reuse */
+    private static final int MAX_REUSABLE = 8;
+
+    private final MediaFileIndex coverIndex;
+    private final String coverPath;
+    private final File diskCacheDir;
+
+    private final LruCache<String, Bitmap> memoryCache;
+
+    /** How many views show a bitmap, a bitmap is only reused when no view shows it */
+    private final HashMap<Bitmap, Integer> shown = new HashMap<>();
+
+    /** Bitmaps which were evicted from the memory cache while a view still showed them */
+    private final HashSet<Bitmap> evictedWhileShown = new HashSet<>();
+
+    /** Mutable bitmaps which are not used anymore, the decode threads take them from here */
+    private final ArrayList<Bitmap> reusable = new ArrayList<>();
+
+    /** Set by {@link #shutdown()}, decodes which finish later are thrown away */
+    private boolean shutdown;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /** The number of covers being decoded or scaled right now, the frame metrics tag frames with it */
+    private final AtomicInteger activeDecodes = new AtomicInteger();
+
+    /** The size of the disk cache as counted by the last trim plus the thumbnails written since */
+    private final AtomicLong diskCacheBytes = new AtomicLong();
+
+    /**
+     * @param context The context to find the cache directory
+     * @param coverIndex The index of the covers directory
+     * @param coverPath The path of the covers directory, ending with a separator
+     */
+    public CoverLoader(Context context, MediaFileIndex coverIndex, String coverPath) {
+        this.coverIndex = coverIndex;
+        this.coverPath = coverPath;
+        diskCacheDir = new File(context.getCacheDir(), "covers");
+        int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / MEMORY_CACHE_DIVIDER);
+        memoryCache = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if(oldValue == newValue) return;
+                if(shown.containsKey(oldValue)) {
+                    evictedWhileShown.add(oldValue);
+                } else {
+                    addReusable(oldValue);
+                }
+            }
+        };
+        TaskScheduler.execute(this, TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                trimDiskCache();
+            }
+        });
+    }
+
+    /**
+     * Shows the cover of the sound in the view, or the default cover when the sound has no cover.
+     * The cover is loaded in the background when it's not in the memory cache
+     * @param view The view to show the cover in, its width is used as the size of the cover
+     * @param sound The sound to show the cover of, null shows the default cover
+     */
+    public void bind(final ImageView view, @Nullable Sound sound) {
+        cancel(view);
+        release(view);
+        view.setImageResource(R.drawable.default_cover);
+        String coverFileName = (sound != null) ? sound.getCoverFileName() : null;
+        if(!coverIndex.contains(coverFileName)) return;
+
+        final CoverRequest request = new CoverRequest(view, coverFileName);
+        view.setTag(R.id.cover_request, request);
+        if(view.getWidth() > 0) {
+            start(request, view.getWidth());
+        } else {
+            // the view isn't laid out yet, wait until its size is known
+            view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    view.getViewTreeObserver().removeOnPreDrawListener(this);
+                    if(!request.cancelled && view.getWidth() > 0) start(request, view.getWidth());
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Cancels the load for the view and lets go of its cover, call this when the view is recycled
+     */
+    public void unbind(ImageView view) {
+        cancel(view);
+        release(view);
+        view.setImageDrawable(null);
+    }
+
+    /**
+     * Gives memory back to the system, call this from onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            memoryCache.evictAll();
+        } else if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+        synchronized(reusable) {
+            reusable.clear();
+        }
+    }
+
+    /**
+     * Empties the memory cache, like when another board is shown. Covers on screen stay until their view is bound again
+     */
+    public void evictAll() {
+        memoryCache.evictAll();
+    }
+
+    /**
+     * @return The number of covers being decoded or scaled right now
+     */
+    public int getActiveDecodes() {
+        return activeDecodes.get();
+    }
+
+    /**
+     * Stops loading covers and empties the memory cache
+     */
+    public void shutdown() {
+        shutdown = true;
+        TaskScheduler.cancelAll(this);
+        memoryCache.evictAll();
+        synchronized(reusable) {
+            reusable.clear();
+        }
+        shown.clear();
+        evictedWhileShown.clear();
+    }
+
+    private void start(CoverRequest request, int size) {
+        request.size = size;
+        Bitmap cached = memoryCache.get(request.key());
+        if(cached != null) {
+            request.view.setTag(R.id.cover_request, null);
+            show(request.view, cached);
+            return;
+        }
+        if(shutdown) return;
+        request.future = TaskScheduler.execute(this, TaskScheduler.INTERACTIVE, request);
+    }
+
+    private void cancel(ImageView view) {
+        CoverRequest request = (CoverRequest) view.getTag(R.id.cover_request);
+        if(request == null) return;
+        request.cancelled = true;
+        if(request.future != null) request.future.cancel(false);
+        view.setTag(R.id.cover_request, null);
+    }
+
+    private void deliver(CoverRequest request, Bitmap bitmap) {
+        if(shutdown) return;
+        // cache it even when the view moved on, it will probably be scrolled back to
+        memoryCache.put(request.key(), bitmap);
+        if(request.cancelled || request.view.getTag(R.id.cover_request) != request) return;
+        request.view.setTag(R.id.cover_request, null);
+        show(request.view, bitmap);
+    }
+
+    private void show(ImageView view, Bitmap bitmap) {
+        view.setImageBitmap(bitmap);
+        view.setTag(R.id.cover_bitmap, bitmap);
+        Integer count = shown.get(bitmap);
+        shown.put(bitmap, (count == null) ? 1 : count + 1);
+    }
+
+    /**
+     * The view doesn't show its bitmap anymore, reuse the bitmap if it was evicted and no other view shows it
+     */
+    private void release(ImageView view) {
+        Bitmap bitmap = (Bitmap) view.getTag(R.id.cover_bitmap);
+        if(bitmap == null) return;
+        view.setTag(R.id.cover_bitmap, null);
+        Integer count = shown.get(bitmap);
+        if(count != null && count > 1) {
+            shown.put(bitmap, count - 1);
+        } else {
+            shown.remove(bitmap);
+            if(evictedWhileShown.remove(bitmap)) addReusable(bitmap);
+        }
+    }
+
+    private void addReusable(Bitmap bitmap) {
+        if(!bitmap.isMutable()) return;
+        synchronized(reusable) {
+            if(reusable.size() < MAX_REUSABLE) reusable.add(bitmap);
+        }
+    }
+
+    @Nullable
+    private Bitmap takeReusable(int size) {
+        synchronized(reusable) {
+            Iterator<Bitmap> iterator = reusable.iterator();
+            while(iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if(bitmap.getWidth() == size && bitmap.getHeight() == size && bitmap.getConfig() == CONFIG) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs on a decode thread, gets the cover from the disk cache or decodes the cover file
+     */
+    @Nullable
+    private Bitmap load(String coverFileName, int size) {
+        File source = new File(coverPath + coverFileName);
+        File thumbnail = new File(diskCacheDir, size + "_" + coverFileName);
+        long thumbnailModified = thumbnail.lastModified();
+        if(thumbnailModified != 0 && thumbnailModified >= source.lastModified()) {
+            Bitmap bitmap = decodeThumbnail(thumbnail, size);
+            if(bitmap != null) return bitmap;
+        }
+        Bitmap bitmap = decodeCover(source, size);
+        if(bitmap != null) writeThumbnail(bitmap, thumbnail);
+        return bitmap;
+    }
+
+    @Nullable
+    private Bitmap decodeThumbnail(File thumbnail, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = CONFIG;
+        options.inMutable = true;
+        // thumbnails have the exact size, so even before KitKat an evicted bitmap can be decoded into
+        options.inBitmap = takeReusable(size);
+        try {
+            return BitmapFactory.decodeFile(thumbnail.getPath(), options);
+        } catch(IllegalArgumentException e) {
+            Log.d(TAG, "Could not reuse bitmap for "+thumbnail.getName());
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(thumbnail.getPath(), options);
+        }
+    }
+
+    /**
+     * Decodes the cover downsampled and crops it to a square of the given size, like the grid shows it
+     */
+    @Nullable
+    private Bitmap decodeCover(File source, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if(options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.d(TAG, "Could not read cover "+source.getPath());
+            return null;
+        }
+        options.inSampleSize = sampleSize(Math.min(options.outWidth, options.outHeight), size);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = CONFIG;
+        Bitmap full = BitmapFactory.decodeFile(source.getPath(), options);
+        if(full == null) return null;
+
+        Bitmap cover = takeReusable(size);
+        if(cover == null) cover = Bitmap.createBitmap(size, size, CONFIG);
+        float scale = (float) size / Math.min(full.getWidth(), full.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((size - full.getWidth() * scale) / 2f, (size - full.getHeight() * scale) / 2f);
+        new Canvas(cover).drawBitmap(full, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        full.recycle();
+        return cover;
+    }
+
+    /**
+     * @return The largest power of two which keeps the shortest side at least the requested size
+     */
+    private static int sampleSize(int shortestSide, int size) {
+        int sampleSize = 1;
+        while(shortestSide / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private void writeThumbnail(Bitmap bitmap, File thumbnail) {
+        if(!diskCacheDir.isDirectory() && !diskCacheDir.mkdirs()) return;
+        // write to a temporary file so the other decode thread never reads half a thumbnail
+        File temp = new File(thumbnail.getPath() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, output);
+            output.close();
+            output = null;
+            if(!temp.renameTo(thumbnail)) {
+                temp.delete();
+            } else if(diskCacheBytes.addAndGet(thumbnail.length()) > DISK_CACHE_BYTES) {
+                trimDiskCache();
+            }
+        } catch(IOException e) {
+            Log.d(TAG, "Could not write thumbnail "+thumbnail.getName()+": "+e.getMessage());
+            temp.delete();
+        } finally {
+            if(output != null) {
+                try {
+                    output.close();
+                } catch(IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Deletes the oldest thumbnails until the disk cache fits its budget, runs when the loader is created
+     * and when the written thumbnails go over the budget. The decode threads and the background lane may call this
+     */
+    private synchronized void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if(files == null) return;
+        long total = 0;
+        for(File file : files) {
+            total += file.length();
+        }
+        diskCacheBytes.set(total);
+        if(total <= DISK_CACHE_BYTES) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return (a.lastModified() < b.lastModified()) ? -1 : (a.lastModified() == b.lastModified() ? 0 : 1);
+            }
+        });
+        for(File file : files) {
+            if(total <= DISK_CACHE_BYTES) break;
+            long length = file.length();
+            if(file.delete()) total -= length;
+        }
+        diskCacheBytes.set(total);
+        Log.d(TAG, "Trimmed thumbnail cache to "+(total / 1024)+" KB");
+    }
+
+    private class CoverRequest implements Runnable {
+        final ImageView view;
+        final String coverFileName;
+        int size;
+        volatile boolean cancelled;
+        @Nullable
+        Future<?> future;
+
+        CoverRequest(ImageView view, String coverFileName) {
+            this.view = view;
+            this.coverFileName = coverFileName;
+        }
+
+        String key() {
+            return size + "_" + coverFileName;
+        }
+
+        @Override
+        public void run() {
+            if(cancelled) return;
+            activeDecodes.incrementAndGet();
+            final Bitmap bitmap;
+            try {
+                bitmap = load(coverFileName, size);
+            } finally {
+                activeDecodes.decrementAndGet();
+            }
+            if(bitmap == null) return;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(CoverRequest.this, bitmap);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.database.Cursor;
+
+/**
+ * Reads the current row of a Cursor as a {@link Row}
+ */
+public class CursorRow implements Row {
+
+    private final Cursor cursor;
+
+    public CursorRow(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public int getColumnIndex(String column) {
+        return cursor.getColumnIndex(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return cursor.getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return cursor.getInt(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return cursor.getString(column);
+    }
+}
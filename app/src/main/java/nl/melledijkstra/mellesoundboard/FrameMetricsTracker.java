@@ -0,0 +1,227 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The FrameMetricsTracker times every frame with a Choreographer callback and tags it with what was
+ * going on at that moment (scrolling, syncing, downloads and cover decodes), see {@link #state(boolean, boolean, int, int)}.
+ * The frames are summarized as jank percentage and frame time percentiles, per situation.
+ * All methods have to be called on the main thread. Needs API 16, check {@link #isSupported()}
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class FrameMetricsTracker implements Choreographer.FrameCallback {
+
+    private static final String TAG = FrameMetricsTracker.class.getSimpleName();
+
+    // Flags of a frame state
+    public static final int SCROLLING = 1;
+    public static final int SYNCING = 1 << 1;
+    public static final int DOWNLOADING = 1 << 2;
+    public static final int DECODING_COVERS = 1 << 3;
+    private static final int FLAGS_MASK = 0xff;
+
+    // The counts are stored in the state as well
+    private static final int DOWNLOADS_SHIFT = 8;
+    private static final int DECODES_SHIFT = 16;
+    private static final int COUNT_MASK = 0xff;
+
+    /** Five minutes of frames at 60 fps, the oldest frames are overwritten after that */
+    public static final int CAPACITY = 5 * 60 * 60;
+
+    /** A frame which takes longer than this many refresh intervals missed at least one vsync */
+    private static final float JANK_FACTOR = 1.5f;
+
+    private final long frameIntervalNanos;
+    private final StateSource source;
+
+    // Ring buffer of the frame times and the state during each frame
+    private final int[] frameMicros = new int[CAPACITY];
+    private final int[] states = new int[CAPACITY];
+    private int next;
+    private int size;
+
+    private long lastFrameNanos = -1;
+    private boolean running;
+
+    /**
+     * @param refreshRate The refresh rate of the display in frames per second
+     * @param source Tells what is going on during a frame
+     */
+    public FrameMetricsTracker(float refreshRate, StateSource source) {
+        frameIntervalNanos = (long) (1000000000L / refreshRate);
+        this.source = source;
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * Makes the state of a frame
+     * @param downloads The number of active downloads, stored up to 255
+     * @param decodes The number of covers being decoded, stored up to 255
+     */
+    public static int state(boolean scrolling, boolean syncing, int downloads, int decodes) {
+        int flags = (scrolling ? SCROLLING : 0) | (syncing ? SYNCING : 0)
+                | (downloads > 0 ? DOWNLOADING : 0) | (decodes > 0 ? DECODING_COVERS : 0);
+        return flags | (Math.min(downloads, COUNT_MASK) << DOWNLOADS_SHIFT) | (Math.min(decodes, COUNT_MASK) << DECODES_SHIFT);
+    }
+
+    public void start() {
+        if(running) return;
+        running = true;
+        // the time between a stop and a start isn't a frame
+        lastFrameNanos = -1;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void stop() {
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Forgets all recorded frames
+     */
+    public void reset() {
+        next = 0;
+        size = 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if(!running) return;
+        if(lastFrameNanos >= 0) {
+            frameMicros[next] = (int) Math.min((frameTimeNanos - lastFrameNanos) / 1000, Integer.MAX_VALUE);
+            states[next] = source.getFrameState();
+            next = (next + 1) % CAPACITY;
+            size = Math.min(size + 1, CAPACITY);
+        }
+        lastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Summarizes the frames of which the flags in mask are equal to the flags in value
+     * @param label The name of the situation for the report
+     * @param mask The flags to look at, 0 for all frames
+     * @param value The values these flags should have
+     */
+    public Summary summarize(String label, int mask, int value) {
+        int[] times = new int[size];
+        int frames = 0;
+        long downloads = 0;
+        long decodes = 0;
+        for(int i = 0; i < size; ++i) {
+            int state = states[i];
+            if((state & FLAGS_MASK & mask) != value) continue;
+            times[frames++] = frameMicros[i];
+            downloads += (state >>> DOWNLOADS_SHIFT) & COUNT_MASK;
+            decodes += (state >>> DECODES_SHIFT) & COUNT_MASK;
+        }
+        times = Arrays.copyOf(times, frames);
+        Arrays.sort(times);
+        long jankMicros = (long) (frameIntervalNanos * JANK_FACTOR / 1000);
+        int jankFrames = 0;
+        // the times are sorted, count from the slowest frame
+        for(int i = frames - 1; i >= 0 && times[i] > jankMicros; --i) {
+            ++jankFrames;
+        }
+        return new Summary(label, times, jankFrames,
+                frames > 0 ? (float) downloads / frames : 0,
+                frames > 0 ? (float) decodes / frames : 0);
+    }
+
+    /**
+     * @return The summary of all frames and of the scrolling frames per situation
+     */
+    public List<Summary> getSummaries() {
+        ArrayList<Summary> summaries = new ArrayList<>();
+        summaries.add(summarize("all", 0, 0));
+        summaries.add(summarize("scrolling", SCROLLING, SCROLLING));
+        summaries.add(summarize("scrolling quiet", FLAGS_MASK, SCROLLING));
+        summaries.add(summarize("scrolling + sync", SCROLLING | SYNCING, SCROLLING | SYNCING));
+        summaries.add(summarize("scrolling + downloads", SCROLLING | DOWNLOADING, SCROLLING | DOWNLOADING));
+        summaries.add(summarize("scrolling + covers", SCROLLING | DECODING_COVERS, SCROLLING | DECODING_COVERS));
+        return summaries;
+    }
+
+    /**
+     * @return A readable report of {@link #getSummaries()}, one line each
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-22s %6s %6s %6s %6s %6s %6s %6s %5s %5s\n",
+                "frames", "count", "jank", "p50", "p90", "p95", "p99", "max", "dl", "cov"));
+        for(Summary summary : getSummaries()) {
+            report.append(summary).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Frame times of the frames in one situation
+     */
+    public static class Summary {
+        public final String label;
+        public final int frames;
+        public final int jankFrames;
+        public final float p50Ms;
+        public final float p90Ms;
+        public final float p95Ms;
+        public final float p99Ms;
+        public final float maxMs;
+        /** The average number of downloads and cover decodes during these frames */
+        public final float meanDownloads;
+        public final float meanDecodes;
+
+        Summary(String label, int[] sortedMicros, int jankFrames, float meanDownloads, float meanDecodes) {
+            this.label = label;
+            frames = sortedMicros.length;
+            this.jankFrames = jankFrames;
+            p50Ms = percentile(sortedMicros, 50);
+            p90Ms = percentile(sortedMicros, 90);
+            p95Ms = percentile(sortedMicros, 95);
+            p99Ms = percentile(sortedMicros, 99);
+            maxMs = (frames > 0) ? sortedMicros[frames - 1] / 1000f : 0;
+            this.meanDownloads = meanDownloads;
+            this.meanDecodes = meanDecodes;
+        }
+
+        public float getJankPercentage() {
+            return (frames > 0) ? 100f * jankFrames / frames : 0;
+        }
+
+        /**
+         * Nearest rank percentile
+         */
+        private static float percentile(int[] sortedMicros, int percentile) {
+            if(sortedMicros.length == 0) return 0;
+            int rank = (int) Math.ceil(percentile / 100.0 * sortedMicros.length);
+            return sortedMicros[Math.max(rank - 1, 0)] / 1000f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-22s %6d %5.1f%% %6.1f %6.1f %6.1f %6.1f %6.1f %5.1f %5.1f",
+                    label, frames, getJankPercentage(), p50Ms, p90Ms, p95Ms, p99Ms, maxMs, meanDownloads, meanDecodes);
+        }
+    }
+
+    public interface StateSource {
+        /**
+         * @return What is going on right now, made by {@link #state(boolean, boolean, int, int)}
+         */
+        int getFrameState();
+    }
+}
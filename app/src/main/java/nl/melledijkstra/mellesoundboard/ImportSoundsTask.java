@@ -0,0 +1,221 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This Task imports local audio files into the media directory. It accepts files and folders, folders
+ * are searched for files with one of the {@link SoundManager#allowedExtensions}. The files are copied
+ * in chunks so the progress is known and the import can be cancelled in between. The copied files are
+ * returned as new sounds, storing them in the database is left to the listener so it's one transaction
+ */
+public class ImportSoundsTask extends AsyncTask<File, ImportSoundsTask.Progress, List<Sound>> {
+
+    private static final String TAG = ImportSoundsTask.class.getSimpleName();
+
+    /** Bytes transferred at once, progress and cancellation are checked after every chunk */
+    private static final long CHUNK_BYTES = 512 * 1024;
+
+    /** Folders nested deeper than this aren't searched */
+    private static final int MAX_DEPTH = 8;
+
+    private final String mediaPath;
+    private final importListener listener;
+
+    private int failed;
+
+    public ImportSoundsTask(String mediaPath, importListener listener) {
+        this.mediaPath = mediaPath;
+        this.listener = listener;
+    }
+
+    @Override
+    protected List<Sound> doInBackground(File... sources) {
+        ArrayList<File> files = new ArrayList<>();
+        for(File source : sources) {
+            collect(source, files, 0);
+        }
+        long totalBytes = 0;
+        for(File file : files) {
+            totalBytes += file.length();
+        }
+        Log.d(TAG, "Importing "+files.size()+" files, "+(totalBytes / 1024)+" KB");
+
+        File mediaDir = new File(mediaPath);
+        if(!mediaDir.isDirectory()) mediaDir.mkdirs();
+
+        ArrayList<Sound> imported = new ArrayList<>(files.size());
+        Progress progress = new Progress(files.size(), totalBytes);
+        for(File file : files) {
+            if(isCancelled()) break;
+            File destination = uniqueDestination(mediaDir, file.getName());
+            try {
+                if(!copy(file, destination, progress)) {
+                    // cancelled halfway
+                    destination.delete();
+                    break;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not import "+file.getPath()+": "+e.getMessage());
+                destination.delete();
+                failed++;
+                continue;
+            }
+            Sound sound = new Sound(Utils.stripExtension(file.getName()));
+            sound.setLocalFileName(destination.getName(), true);
+            sound.setDownloaded(true);
+            sound.fileMtime = destination.lastModified();
+            sound.fileSize = destination.length();
+            int now = (int) (System.currentTimeMillis() / 1000L);
+            sound.createdAt = now;
+            sound.updatedAt = now;
+            imported.add(sound);
+            progress.filesDone++;
+            publishProgress(progress.copy());
+        }
+        return imported;
+    }
+
+    /**
+     * Copies one file with FileChannel.transferTo, the streams are always closed
+     * @return false if the task was cancelled before the file was copied completely
+     */
+    private boolean copy(File source, File destination, Progress progress) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long position = 0;
+                progress.currentFile = source.getName();
+                while(position < size) {
+                    if(isCancelled()) return false;
+                    long transferred = inChannel.transferTo(position, Math.min(CHUNK_BYTES, size - position), outChannel);
+                    if(transferred <= 0) throw new IOException("No bytes transferred at "+position+" of "+size);
+                    position += transferred;
+                    progress.bytesDone += transferred;
+                    publishProgress(progress.copy());
+                }
+                return true;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void collect(File source, List<File> files, int depth) {
+        // files which are already in the media directory don't need to be imported
+        if(isCancelled() || source.getAbsolutePath().startsWith(mediaPath)) return;
+        if(source.isDirectory()) {
+            if(depth > MAX_DEPTH) return;
+            File[] children = source.listFiles();
+            if(children == null) return;
+            Arrays.sort(children);
+            for(File child : children) {
+                collect(child, files, depth + 1);
+            }
+        } else if(source.isFile() && isAllowed(source.getName())) {
+            files.add(source);
+        }
+    }
+
+    /**
+     * @return true if the file has one of the allowed extensions
+     */
+    public static boolean isAllowed(String fileName) {
+        String lowerName = fileName.toLowerCase(Locale.US);
+        for(String extension : SoundManager.allowedExtensions) {
+            if(lowerName.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Files which are already in the media directory aren't overwritten, a number is added instead
+     */
+    private static File uniqueDestination(File mediaDir, String fileName) {
+        File destination = new File(mediaDir, fileName);
+        String base = Utils.stripExtension(fileName);
+        String extension = fileName.substring(base.length());
+        for(int i = 2; destination.exists(); ++i) {
+            destination = new File(mediaDir, base+"_"+i+extension);
+        }
+        return destination;
+    }
+
+    @Override
+    protected void onProgressUpdate(Progress... values) {
+        listener.onImportProgress(values[0]);
+    }
+
+    @Override
+    protected void onPostExecute(List<Sound> sounds) {
+        listener.onImportDone(sounds, failed, false);
+    }
+
+    @Override
+    protected void onCancelled(List<Sound> sounds) {
+        // the files which were copied completely are kept
+        listener.onImportDone(sounds != null ? sounds : new ArrayList<Sound>(), failed, true);
+    }
+
+    /**
+     * The progress of all files together
+     */
+    public static class Progress {
+        public final int totalFiles;
+        public final long totalBytes;
+        public int filesDone;
+        public long bytesDone;
+        public String currentFile;
+
+        Progress(int totalFiles, long totalBytes) {
+            this.totalFiles = totalFiles;
+            this.totalBytes = totalBytes;
+        }
+
+        Progress copy() {
+            Progress copy = new Progress(totalFiles, totalBytes);
+            copy.filesDone = filesDone;
+            copy.bytesDone = bytesDone;
+            copy.currentFile = currentFile;
+            return copy;
+        }
+
+        /**
+         * @return The progress of all bytes in percent
+         */
+        public int getPercentage() {
+            return (totalBytes > 0) ? (int) (bytesDone * 100 / totalBytes) : 100;
+        }
+    }
+
+    public interface importListener {
+        /**
+         * Runs on the main thread every time a chunk or file is done
+         */
+        void onImportProgress(Progress progress);
+
+        /**
+         * Runs when all files are imported or when the import is cancelled
+         * @param sounds The new sounds of the files which were copied, not stored in the database yet
+         * @param failed The number of files which couldn't be copied
+         * @param cancelled true if the import was cancelled before all files were copied
+         */
+        void onImportDone(List<Sound> sounds, int failed, boolean cancelled);
+    }
+}
@@ -0,0 +1,240 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.Looper;
+import android.os.StrictMode;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The MainThreadIoMonitor finds disk work and parsing which is done on the main thread in debug builds.
+ * Instrumented methods surround their work with {@link #enter(String, String)} and {@link #exit(Probe)}, every
+ * hit on the main thread is counted per call site. The stack is only walked when a call is the slowest of its
+ * site so far, that finds the component which made the slowest call without a stack trace for every call.
+ * Network on the main thread is already refused by Android, so {@link #NETWORK} work is counted on every
+ * thread instead, that shows which tasks wait on the server. StrictMode logs the disk access in code
+ * which isn't instrumented.
+ */
+public class MainThreadIoMonitor {
+
+    private static final String TAG = MainThreadIoMonitor.class.getSimpleName();
+
+    public static final String DISK = "disk";
+    public static final String PARSE = "parse";
+    /** Requests to the server, measured on every thread */
+    public static final String NETWORK = "network";
+
+    /** Main thread work that takes longer than this is logged as a warning */
+    private static final long SLOW_NANOS = 16 * 1000000L;
+
+    private static final boolean ENABLED = BuildConfig.DEBUG;
+
+    /** Call sites by kind and instrumented method */
+    private static final HashMap<String, CallSite> callSites = new HashMap<>();
+
+    private MainThreadIoMonitor() throws Exception {
+        throw new Exception("Don't create a MainThreadIoMonitor instance, use the static methods!");
+    }
+
+    /**
+     * Turns on StrictMode for the code which isn't instrumented, call this from Application.onCreate
+     */
+    public static void install() {
+        if(!ENABLED) return;
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedSqlLiteObjects()
+                .detectLeakedClosableObjects()
+                .penaltyLog()
+                .build());
+    }
+
+    /**
+     * Starts measuring work in the calling method
+     * @param kind {@link #DISK}, {@link #PARSE} or {@link #NETWORK}
+     * @param site The instrumented method, like "SoundsDatabaseHelper.getAllSounds"
+     * @return The probe to pass to {@link #exit(Probe)}, null when not on the main thread or in a release build
+     */
+    @Nullable
+    public static Probe enter(String kind, String site) {
+        if(!ENABLED) return null;
+        boolean mainThread = Looper.myLooper() == Looper.getMainLooper();
+        if(!mainThread && !NETWORK.equals(kind)) return null;
+        return new Probe(kind, site, mainThread);
+    }
+
+    /**
+     * Records the work which was started with {@link #enter(String, String)}, call this in a finally block
+     * of the instrumented method
+     */
+    public static void exit(@Nullable Probe probe) {
+        if(probe == null) return;
+        long duration = System.nanoTime() - probe.start;
+        String key = probe.kind + " " + probe.site;
+        boolean slowest;
+        synchronized(callSites) {
+            CallSite callSite = callSites.get(key);
+            if(callSite == null) {
+                callSite = new CallSite(probe.kind, probe.site);
+                callSites.put(key, callSite);
+            }
+            callSite.count++;
+            callSite.totalNanos += duration;
+            slowest = callSite.count == 1 || duration > callSite.maxNanos;
+            if(slowest) callSite.maxNanos = duration;
+        }
+        boolean slow = duration >= SLOW_NANOS && !NETWORK.equals(probe.kind);
+        if(!slowest && !slow) return;
+        // off the main thread the stack is only the thread pool, the thread tells more
+        String caller = probe.mainThread ? findCaller() : Thread.currentThread().getName();
+        if(slowest) {
+            synchronized(callSites) {
+                CallSite callSite = callSites.get(key);
+                if(callSite.maxNanos == duration) callSite.slowestCaller = caller;
+            }
+        }
+        // waiting on the server is expected off the main thread, only slow main thread work is a problem
+        if(slow) {
+            Log.w(TAG, String.format("%s on main thread took %.1f ms in %s, called from %s", probe.kind, duration / 1e6, probe.site, caller));
+        }
+    }
+
+    /**
+     * Walks the stack of a call to {@link #exit(Probe)}, the first frame outside this class is in the
+     * instrumented class. The caller is the first frame outside that class, nested classes count as part of it
+     */
+    private static String findCaller() {
+        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+        int i = 0;
+        // skip the frames of getStackTrace itself
+        while(i < stack.length && !stack[i].getClassName().equals(MainThreadIoMonitor.class.getName())) ++i;
+        while(i < stack.length && stack[i].getClassName().equals(MainThreadIoMonitor.class.getName())) ++i;
+        if(i >= stack.length) return "?";
+        String instrumented = outerClass(stack[i].getClassName());
+        for(int j = i + 1; j < stack.length; ++j) {
+            if(!outerClass(stack[j].getClassName()).equals(instrumented)) return describe(stack[j]);
+        }
+        return "?";
+    }
+
+    private static String outerClass(String className) {
+        int nested = className.indexOf('$');
+        return (nested >= 0) ? className.substring(0, nested) : className;
+    }
+
+    /**
+     * @return A copy of every call site, the most time spent first
+     */
+    public static List<CallSite> getCallSites() {
+        ArrayList<CallSite> result = new ArrayList<>();
+        synchronized(callSites) {
+            for(CallSite callSite : callSites.values()) {
+                result.add(new CallSite(callSite));
+            }
+        }
+        Collections.sort(result, new Comparator<CallSite>() {
+            @Override
+            public int compare(CallSite a, CallSite b) {
+                if(a.totalNanos != b.totalNanos) return (a.totalNanos > b.totalNanos) ? -1 : 1;
+                return b.count - a.count;
+            }
+        });
+        return result;
+    }
+
+    public static void reset() {
+        synchronized(callSites) {
+            callSites.clear();
+        }
+    }
+
+    /**
+     * @return A readable report of all call sites, one line each
+     */
+    public static String getReport() {
+        List<CallSite> sites = getCallSites();
+        if(sites.isEmpty()) return "No disk work or parsing on the main thread and no network\n";
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-7s %6s %10s %9s  %s\n", "kind", "count", "total", "max", "site <- slowest caller"));
+        for(CallSite site : sites) {
+            report.append(String.format("%-7s %6d %8.2fms %7.2fms  %s <- %s\n",
+                    site.kind, site.count, site.totalNanos / 1e6, site.maxNanos / 1e6, site.site, site.slowestCaller));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the report to a file, don't call this on the main thread
+     */
+    public static void dump(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(getReport());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String describe(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+    }
+
+    /**
+     * Work which is being measured, made by {@link #enter(String, String)}
+     */
+    public static class Probe {
+        final String kind;
+        final String site;
+        final boolean mainThread;
+        final long start;
+
+        Probe(String kind, String site, boolean mainThread) {
+            this.kind = kind;
+            this.site = site;
+            this.mainThread = mainThread;
+            start = System.nanoTime();
+        }
+    }
+
+    /**
+     * How often and how long an instrumented method was called, on the main thread unless it's network
+     */
+    public static class CallSite {
+        public final String kind;
+        /** The instrumented method */
+        public final String site;
+        /** The method which made the slowest call with its line number, or the thread for network */
+        public String slowestCaller = "?";
+        public int count;
+        public long totalNanos;
+        public long maxNanos;
+
+        CallSite(String kind, String site) {
+            this.kind = kind;
+            this.site = site;
+        }
+
+        CallSite(CallSite other) {
+            this(other.kind, other.site);
+            slowestCaller = other.slowestCaller;
+            count = other.count;
+            totalNanos = other.totalNanos;
+            maxNanos = other.maxNanos;
+        }
+    }
+}
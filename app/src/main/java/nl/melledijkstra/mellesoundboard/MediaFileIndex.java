@@ -0,0 +1,137 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.FileObserver;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The MediaFileIndex knows which files are present in a media directory without asking the
+ * filesystem for every single file. It is built from one directory listing and is kept up to date
+ * by the code that downloads and deletes files, and by a FileObserver for changes from outside.
+ * The index can be read from any thread.
+ */
+public class MediaFileIndex implements SoundRowMapper.FilePresence {
+
+    private static final String TAG = MediaFileIndex.class.getSimpleName();
+
+    /** Events which change the presence of a file, CREATE is left out because the file isn't written yet */
+    private static final int WATCH_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO
+            | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.DELETE_SELF;
+
+    private final String directory;
+
+    private final Set<String> files = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Nullable
+    private FileObserver observer;
+
+    @Nullable
+    private volatile OnFileChangedListener changeListener;
+
+    /**
+     * @param directory The path of the directory to index, ending with a separator
+     */
+    public MediaFileIndex(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Rebuilds the index with a single listing of the directory
+     */
+    public void rebuild() {
+        String[] names = new File(directory).list();
+        files.clear();
+        if(names != null) {
+            Collections.addAll(files, names);
+        }
+        Log.d(TAG, "Indexed "+files.size()+" files in "+directory);
+    }
+
+    /**
+     * @param fileName The name of the file relative to the indexed directory
+     * @return true if the file is present in the directory
+     */
+    @Override
+    public boolean contains(@Nullable String fileName) {
+        return fileName != null && files.contains(fileName);
+    }
+
+    /**
+     * Marks a file as present, call this after writing a file into the directory
+     */
+    public void add(@Nullable String fileName) {
+        if(fileName != null) files.add(fileName);
+    }
+
+    /**
+     * Marks a file as not present, call this after deleting a file from the directory
+     */
+    public void remove(@Nullable String fileName) {
+        if(fileName != null) files.remove(fileName);
+    }
+
+    /**
+     * @return The number of files in the index
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * @param changeListener Gets the changes from outside the app, and from this app itself
+     */
+    public void setOnFileChangedListener(@Nullable OnFileChangedListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Start keeping the index up to date with changes made by other apps
+     */
+    public void startWatching() {
+        if(observer != null) return;
+        observer = new FileObserver(directory, WATCH_EVENTS) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                switch(event & FileObserver.ALL_EVENTS) {
+                    case FileObserver.CLOSE_WRITE:
+                    case FileObserver.MOVED_TO:
+                        add(path);
+                        break;
+                    case FileObserver.DELETE:
+                    case FileObserver.MOVED_FROM:
+                        remove(path);
+                        break;
+                    case FileObserver.DELETE_SELF:
+                        files.clear();
+                        path = null;
+                        break;
+                    default:
+                        return;
+                }
+                OnFileChangedListener listener = changeListener;
+                if(listener != null) listener.onFileChanged(path);
+            }
+        };
+        observer.startWatching();
+    }
+
+    public void stopWatching() {
+        if(observer != null) {
+            observer.stopWatching();
+            observer = null;
+        }
+    }
+
+    public interface OnFileChangedListener {
+        /**
+         * Runs on the thread of the FileObserver
+         * @param fileName The file which was written, moved or deleted, null when the whole directory is gone
+         */
+        void onFileChanged(@Nullable String fileName);
+    }
+}
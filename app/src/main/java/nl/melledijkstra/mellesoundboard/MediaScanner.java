@@ -0,0 +1,167 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The MediaScanner reconciles the media directory with the sound table, so files which were put there
+ * by other means show up on the board. It does as little as possible:
+ * - when the directory wasn't modified since the last scan and no file changed it does nothing at all
+ * - otherwise the directory is listed once, only files which aren't in the sound table yet are checked
+ * - files reported by the FileObserver are checked against the modified time and size stored with the sound
+ * Overwriting a file while the app isn't running doesn't modify the directory, that is found when the file is
+ * reported again. New files become local sounds, local sounds of which the file is gone are removed.
+ * Sounds from the server stay, they can be downloaded again.
+ */
+public class MediaScanner implements MediaFileIndex.OnFileChangedListener {
+
+    private static final String TAG = MediaScanner.class.getSimpleName();
+
+    private final File directory;
+    private final SoundsDatabaseHelper soundsDB;
+    private final SharedPreferences prefs;
+
+    /** Files reported by the FileObserver since the last scan */
+    private final Set<String> changedFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Whether the directory has to be listed no matter its modified time */
+    private volatile boolean invalidated;
+
+    public MediaScanner(Context context, String directory, SoundsDatabaseHelper soundsDB) {
+        this.directory = new File(directory);
+        this.soundsDB = soundsDB;
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    @Override
+    public void onFileChanged(@Nullable String fileName) {
+        if(fileName == null) {
+            invalidated = true;
+        } else if(ImportSoundsTask.isAllowed(fileName)) {
+            changedFiles.add(fileName);
+        }
+    }
+
+    /**
+     * @return true if the FileObserver reported changes since the last scan
+     */
+    public boolean hasReportedChanges() {
+        return invalidated || !changedFiles.isEmpty();
+    }
+
+    /**
+     * Finds the differences between the directory and the sound table, the changed modified times and sizes
+     * are stored right away. Call this on the database thread and {@link #commit(Result)} after the result is stored
+     */
+    public Result scan() {
+        long start = SystemClock.elapsedRealtime();
+        Result result = new Result(directory.lastModified());
+        boolean listing = invalidated || result.directoryMtime != prefs.getLong(Config.Preferences.MEDIA_DIR_MTIME, -1);
+        // changes reported during the scan are kept for the next one
+        HashSet<String> check = new HashSet<>();
+        Iterator<String> it = changedFiles.iterator();
+        while(it.hasNext()) {
+            check.add(it.next());
+            it.remove();
+        }
+        if(!listing && check.isEmpty()) return result;
+        invalidated = false;
+
+        HashMap<String, SoundsDatabaseHelper.FileWatermark> known = soundsDB.getFileWatermarks();
+        if(listing) {
+            result.listed = true;
+            String[] names = directory.list();
+            HashSet<String> present = new HashSet<>();
+            if(names != null) {
+                for(String name : names) {
+                    if(!ImportSoundsTask.isAllowed(name)) continue;
+                    present.add(name);
+                    // known files are only checked when they're reported
+                    if(!known.containsKey(name)) check.add(name);
+                }
+            }
+            for(String name : known.keySet()) {
+                if(!present.contains(name)) check.add(name);
+            }
+        }
+
+        int now = (int) (System.currentTimeMillis() / 1000L);
+        for(String name : check) {
+            SoundsDatabaseHelper.FileWatermark watermark = known.get(name);
+            File file = new File(directory, name);
+            if(file.isFile()) {
+                long mtime = file.lastModified();
+                long size = file.length();
+                if(watermark == null) {
+                    Sound sound = new Sound(Utils.stripExtension(name));
+                    sound.setLocalFileName(name, true);
+                    sound.setDownloaded(true);
+                    sound.fileMtime = mtime;
+                    sound.fileSize = size;
+                    sound.createdAt = now;
+                    sound.updatedAt = now;
+                    result.added.add(sound);
+                } else if(watermark.mtime != mtime || watermark.size != size) {
+                    soundsDB.updateFileWatermark(watermark.soundId, mtime, size);
+                    result.changed.add(watermark.soundId);
+                }
+            } else if(watermark != null && watermark.remoteId == 0) {
+                // a local sound without its file is nothing
+                result.removed.add(watermark.soundId);
+            }
+        }
+        Log.d(TAG, String.format("Scanned %s in %d ms, listed: %b, checked: %d, added: %d, changed: %d, removed: %d",
+                directory, SystemClock.elapsedRealtime() - start, result.listed, check.size(),
+                result.added.size(), result.changed.size(), result.removed.size()));
+        return result;
+    }
+
+    /**
+     * Remembers the scanned state of the directory, call this on the database thread after the result is stored
+     */
+    public void commit(Result result) {
+        if(result.listed) {
+            prefs.edit().putLong(Config.Preferences.MEDIA_DIR_MTIME, result.directoryMtime).apply();
+        }
+    }
+
+    /**
+     * The next scan lists the directory again, even when it wasn't modified
+     */
+    public void invalidate() {
+        invalidated = true;
+    }
+
+    public static class Result {
+        final long directoryMtime;
+        /** Whether the directory was listed */
+        boolean listed;
+        /** Sounds for the new files, not inserted yet */
+        public final ArrayList<Sound> added = new ArrayList<>();
+        /** Sounds of which the file was modified */
+        public final ArrayList<Long> changed = new ArrayList<>();
+        /** Local sounds of which the file is gone */
+        public final ArrayList<Long> removed = new ArrayList<>();
+
+        Result(long directoryMtime) {
+            this.directoryMtime = directoryMtime;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package nl.melledijkstra.mellesoundboard;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The MetricsRegistry collects the numbers of all parts of the app in one place: counters, gauges and
+ * timers with percentiles. Metrics are looked up once by name and kept in a static field by the code
+ * which reports into them, recording is an atomic add or a short synchronized write and nothing runs
+ * when nothing is recorded. The numbers are shown in the DebugActivity and can be exported as JSON.
+ */
+public class MetricsRegistry {
+
+    private static final String TAG = MetricsRegistry.class.getSimpleName();
+
+    /** All metrics by name, sorted so related metrics end up next to each other in the report */
+    private static final TreeMap<String, Metric> metrics = new TreeMap<>();
+
+    private MetricsRegistry() throws Exception {
+        throw new Exception("Don't create a MetricsRegistry instance, use the static methods!");
+    }
+
+    /**
+     * @return The counter with this name, created the first time it's asked for
+     */
+    public static Counter counter(String name) {
+        return get(name, Counter.class);
+    }
+
+    /**
+     * @return The gauge with this name, created the first time it's asked for
+     */
+    public static Gauge gauge(String name) {
+        return get(name, Gauge.class);
+    }
+
+    /**
+     * Registers a gauge which reads its value when the metrics are shown, for values which are kept elsewhere
+     */
+    public static void gauge(String name, Gauge.Source source) {
+        get(name, Gauge.class).source = source;
+    }
+
+    /**
+     * @return The timer with this name, created the first time it's asked for
+     */
+    public static Timer timer(String name) {
+        return get(name, Timer.class);
+    }
+
+    private static synchronized <M extends Metric> M get(String name, Class<M> type) {
+        Metric metric = metrics.get(name);
+        if(metric == null) {
+            if(type == Counter.class) metric = new Counter(name);
+            else if(type == Gauge.class) metric = new Gauge(name);
+            else metric = new Timer(name);
+            metrics.put(name, metric);
+        } else if(!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name+" is already a "+metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    private static synchronized Metric[] all() {
+        return metrics.values().toArray(new Metric[metrics.size()]);
+    }
+
+    /**
+     * Clears the counters and timers, gauges keep their value because it's a value of right now
+     */
+    public static void reset() {
+        for(Metric metric : all()) {
+            metric.reset();
+        }
+    }
+
+    /**
+     * @return One line per metric
+     */
+    public static String getReport() {
+        Metric[] all = all();
+        if(all.length == 0) return "Nothing recorded yet\n";
+        StringBuilder report = new StringBuilder();
+        for(Metric metric : all) {
+            report.append(String.format("%-28s ", metric.name));
+            metric.describe(report);
+            report.append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return All metrics as one JSON object, times are in milliseconds
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp\":").append(System.currentTimeMillis()).append(",\"metrics\":{");
+        Metric[] all = all();
+        for(int i = 0; i < all.length; ++i) {
+            if(i > 0) json.append(',');
+            json.append("\n  \"").append(all[i].name).append("\":");
+            all[i].appendJson(json);
+        }
+        return json.append("\n}}\n").toString();
+    }
+
+    /**
+     * Writes the metrics as JSON to a file, don't call this on the main thread
+     */
+    public static void dump(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static abstract class Metric {
+        public final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        abstract void reset();
+
+        abstract void describe(StringBuilder out);
+
+        abstract void appendJson(StringBuilder json);
+    }
+
+    /**
+     * A number which only goes up, like the number of plays or bytes downloaded
+     */
+    public static class Counter extends Metric {
+        private final AtomicLong count = new AtomicLong();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        public void inc() {
+            count.incrementAndGet();
+        }
+
+        public void add(long amount) {
+            count.addAndGet(amount);
+        }
+
+        public long get() {
+            return count.get();
+        }
+
+        @Override
+        void reset() {
+            count.set(0);
+        }
+
+        @Override
+        void describe(StringBuilder out) {
+            out.append(get());
+        }
+
+        @Override
+        void appendJson(StringBuilder json) {
+            json.append("{\"type\":\"counter\",\"count\":").append(get()).append('}');
+        }
+    }
+
+    /**
+     * A value of right now, like the number of sounds on the board, set by the code that knows it
+     * or read from a {@link Source}
+     */
+    public static class Gauge extends Metric {
+        private volatile long value;
+        private volatile Source source;
+
+        Gauge(String name) {
+            super(name);
+        }
+
+        public void set(long value) {
+            this.value = value;
+        }
+
+        public long get() {
+            Source source = this.source;
+            return (source != null) ? source.read() : value;
+        }
+
+        @Override
+        void reset() {}
+
+        @Override
+        void describe(StringBuilder out) {
+            out.append(get());
+        }
+
+        @Override
+        void appendJson(StringBuilder json) {
+            json.append("{\"type\":\"gauge\",\"value\":").append(get()).append('}');
+        }
+
+        public interface Source {
+            long read();
+        }
+    }
+
+    /**
+     * Measures how long something takes. The count, mean and max are over everything which was recorded,
+     * the percentiles over the last {@link #WINDOW} times so they follow what the app does now
+     */
+    public static class Timer extends Metric {
+        private static final int WINDOW = 512;
+
+        private final long[] window = new long[WINDOW];
+        private int next;
+        private long count;
+        private long totalNs;
+        private long maxNs;
+
+        Timer(String name) {
+            super(name);
+        }
+
+        /**
+         * @return The start time to give to {@link #stop(long)}
+         */
+        public static long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Records the time since start
+         * @return The recorded time in nanoseconds
+         */
+        public long stop(long start) {
+            long ns = System.nanoTime() - start;
+            record(ns);
+            return ns;
+        }
+
+        public synchronized void record(long ns) {
+            window[next] = ns;
+            next = (next + 1) % WINDOW;
+            ++count;
+            totalNs += ns;
+            if(ns > maxNs) maxNs = ns;
+        }
+
+        public synchronized Summary getSummary() {
+            int size = (int) Math.min(count, WINDOW);
+            long[] sorted = Arrays.copyOf(window, size);
+            Arrays.sort(sorted);
+            return new Summary(count, (count > 0) ? totalNs / count : 0,
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), maxNs);
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            if(sorted.length == 0) return 0;
+            return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+        }
+
+        @Override
+        synchronized void reset() {
+            next = 0;
+            count = 0;
+            totalNs = 0;
+            maxNs = 0;
+        }
+
+        @Override
+        void describe(StringBuilder out) {
+            out.append(getSummary());
+        }
+
+        @Override
+        void appendJson(StringBuilder json) {
+            Summary summary = getSummary();
+            json.append("{\"type\":\"timer\",\"count\":").append(summary.count)
+                    .append(",\"mean_ms\":").append(toMs(summary.meanNs))
+                    .append(",\"p50_ms\":").append(toMs(summary.p50Ns))
+                    .append(",\"p90_ms\":").append(toMs(summary.p90Ns))
+                    .append(",\"p99_ms\":").append(toMs(summary.p99Ns))
+                    .append(",\"max_ms\":").append(toMs(summary.maxNs)).append('}');
+        }
+    }
+
+    /**
+     * The numbers of a timer at one moment, in nanoseconds
+     */
+    public static class Summary {
+        public final long count;
+        public final long meanNs;
+        public final long p50Ns;
+        public final long p90Ns;
+        public final long p99Ns;
+        public final long maxNs;
+
+        Summary(long count, long meanNs, long p50Ns, long p90Ns, long p99Ns, long maxNs) {
+            this.count = count;
+            this.meanNs = meanNs;
+            this.p50Ns = p50Ns;
+            this.p90Ns = p90Ns;
+            this.p99Ns = p99Ns;
+            this.maxNs = maxNs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n %d, mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, max %.1f ms",
+                    count, toMs(meanNs), toMs(p50Ns), toMs(p90Ns), toMs(p99Ns), toMs(maxNs));
+        }
+    }
+
+    private static double toMs(long ns) {
+        return Math.round(ns / 10000.0) / 100.0;
+    }
+}
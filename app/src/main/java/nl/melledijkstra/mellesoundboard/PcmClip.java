@@ -0,0 +1,163 @@
+package nl.melledijkstra.mellesoundboard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * A sound decoded into memory for the {@link Sequencer}: interleaved 16 bit stereo at the rate of the
+ * sequencer, cut to the audible part found by the {@link SilenceDetector}. Other rates are converted with
+ * linear interpolation, mono is played on both channels and only the first two channels of other layouts are kept.
+ */
+public class PcmClip {
+
+    /** Interleaved left and right samples */
+    final short[] samples;
+
+    /** The number of stereo frames in samples */
+    final int frames;
+
+    /** What was decoded, a sound which changed since then is decoded again */
+    private final String fileName;
+    private final int trimStartMs;
+    private final int trimEndMs;
+
+    private PcmClip(Sound sound, short[] samples, int frames) {
+        this.samples = samples;
+        this.frames = frames;
+        fileName = sound.getLocalFileName();
+        trimStartMs = sound.trimStartMs;
+        trimEndMs = sound.trimEndMs;
+    }
+
+    /**
+     * Decodes the file of the sound on the calling thread
+     * @param sampleRate The rate of the output
+     * @return The clip or null if the file has no audio
+     */
+    public static PcmClip decode(PcmDecoder decoder, Sound sound, int sampleRate) throws IOException {
+        File file = sound.getSoundFile();
+        if(file == null) throw new IOException("Sound "+sound.id+" has no file");
+        final Converter converter = new Converter(sampleRate, sound.trimStartMs, sound.trimEndMs);
+        boolean complete = decoder.decode(file, converter, new PcmDecoder.Checkpoint() {
+            @Override
+            public boolean shouldStop() {
+                // the rest is trailing silence
+                return converter.isFull();
+            }
+        });
+        if(!complete && !converter.isFull()) return null;
+        short[] samples = (converter.samples.length > converter.frames * 2)
+                ? Arrays.copyOf(converter.samples, converter.frames * 2) : converter.samples;
+        return new PcmClip(sound, samples, converter.frames);
+    }
+
+    /**
+     * @return true if this is still the audible part of the file of the sound
+     */
+    public boolean matches(Sound sound) {
+        return trimStartMs == sound.trimStartMs && trimEndMs == sound.trimEndMs
+                && (fileName == null ? sound.getLocalFileName() == null : fileName.equals(sound.getLocalFileName()));
+    }
+
+    public int getSizeInBytes() {
+        return samples.length * 2;
+    }
+
+    public long getDurationMs(int sampleRate) {
+        return frames * 1000L / sampleRate;
+    }
+
+    /**
+     * Converts the decoded samples to stereo at the output rate and keeps the frames between the trims
+     */
+    private static class Converter implements PcmDecoder.SampleSink {
+
+        private final int outputRate;
+        private final long firstFrame;
+        private final long endFrame;
+
+        short[] samples = new short[0];
+        int frames;
+
+        private int channels = 1;
+        private double step = 1;
+
+        /** Where the next output frame is, between the previous and the current input frame */
+        private double offset;
+        private boolean started;
+        private short previousLeft;
+        private short previousRight;
+        private int channel;
+        private short left;
+        private short right;
+
+        /** Output frames made so far, including the ones before the trim start */
+        private long outputFrames;
+
+        Converter(int outputRate, int trimStartMs, int trimEndMs) {
+            this.outputRate = outputRate;
+            firstFrame = trimStartMs * (long) outputRate / 1000;
+            endFrame = (trimEndMs > 0) ? trimEndMs * (long) outputRate / 1000 : Long.MAX_VALUE;
+        }
+
+        @Override
+        public void onFormat(int sampleRate, int channels, long durationUs) {
+            this.channels = Math.max(channels, 1);
+            step = (double) Math.max(sampleRate, 1) / outputRate;
+            channel = 0;
+            if(durationUs > 0) {
+                long expected = Math.min(durationUs * outputRate / 1000000, endFrame) - firstFrame;
+                ensureCapacity((int) Math.max(expected, 0) + 1);
+            }
+        }
+
+        @Override
+        public void onSamples(ShortBuffer input) {
+            while(input.hasRemaining() && !isFull()) {
+                short sample = input.get();
+                if(channel == 0) left = sample;
+                if(channel == 1) right = sample;
+                if(++channel < channels) continue;
+                channel = 0;
+                if(channels == 1) right = left;
+                if(!started) {
+                    previousLeft = left;
+                    previousRight = right;
+                    started = true;
+                    continue;
+                }
+                // output frames between the previous and this input frame
+                while(offset < 1 && !isFull()) {
+                    if(outputFrames >= firstFrame) {
+                        append((short) (previousLeft + (left - previousLeft) * offset),
+                                (short) (previousRight + (right - previousRight) * offset));
+                    }
+                    ++outputFrames;
+                    offset += step;
+                }
+                offset -= 1;
+                previousLeft = left;
+                previousRight = right;
+            }
+        }
+
+        boolean isFull() {
+            return outputFrames >= endFrame;
+        }
+
+        private void append(short leftSample, short rightSample) {
+            ensureCapacity(frames + 1);
+            samples[frames * 2] = leftSample;
+            samples[frames * 2 + 1] = rightSample;
+            ++frames;
+        }
+
+        private void ensureCapacity(int neededFrames) {
+            if(neededFrames * 2 <= samples.length) return;
+            int capacity = Math.max(neededFrames, Math.max(frames * 2, outputRate / 4));
+            samples = Arrays.copyOf(samples, capacity * 2);
+        }
+    }
+}
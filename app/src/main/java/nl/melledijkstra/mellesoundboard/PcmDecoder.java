@@ -0,0 +1,134 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * The PcmDecoder decodes the first audio track of a sound file to 16 bit PCM and streams the
+ * samples to a sink, so a sound never has to be in memory as a whole. It uses MediaCodec which
+ * is available from Jelly Bean, check {@link #isSupported()} first.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class PcmDecoder {
+
+    private static final String TAG = PcmDecoder.class.getSimpleName();
+
+    private static final long TIMEOUT_US = 10000;
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * Decodes the file on the calling thread
+     * @param file The sound file
+     * @param sink Gets the format and the decoded samples
+     * @param checkpoint Asked between buffers whether decoding should stop
+     * @return true if the whole file was decoded, false if it has no audio or decoding was stopped
+     */
+    public boolean decode(File file, SampleSink sink, Checkpoint checkpoint) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(file.getPath());
+            MediaFormat format = null;
+            String mime = null;
+            for(int i = 0; i < extractor.getTrackCount(); ++i) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String trackMime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if(trackMime != null && trackMime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    mime = trackMime;
+                    break;
+                }
+            }
+            if(format == null) {
+                Log.d(TAG, "No audio track in "+file.getName());
+                return false;
+            }
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+            sink.onFormat(format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), durationUs);
+
+            codec = MediaCodec.createDecoderByType(mime);
+            codec.configure(format, null, null, 0);
+            codec.start();
+            ByteBuffer[] inputBuffers = codec.getInputBuffers();
+            ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            while(true) {
+                if(checkpoint.shouldStop()) return false;
+                if(!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if(inputIndex >= 0) {
+                        int size = extractor.readSampleData(inputBuffers[inputIndex], 0);
+                        if(size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if(outputIndex >= 0) {
+                    if(info.size > 0) {
+                        ByteBuffer buffer = outputBuffers[outputIndex];
+                        buffer.position(info.offset);
+                        buffer.limit(info.offset + info.size);
+                        sink.onSamples(buffer.slice().order(ByteOrder.nativeOrder()).asShortBuffer());
+                        buffer.clear();
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    if((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) return true;
+                } else if(outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputBuffers = codec.getOutputBuffers();
+                } else if(outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    sink.onFormat(outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE), outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT), durationUs);
+                }
+            }
+        } finally {
+            if(codec != null) {
+                try {
+                    codec.stop();
+                } catch(IllegalStateException ignored) {}
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    public interface SampleSink {
+        /**
+         * Called before the first samples, and again when the decoder changes the output format
+         * @param durationUs The duration of the sound or 0 if unknown
+         */
+        void onFormat(int sampleRate, int channels, long durationUs);
+
+        /**
+         * @param samples Interleaved 16 bit samples, only valid during this call
+         */
+        void onSamples(ShortBuffer samples);
+    }
+
+    public interface Checkpoint {
+        /**
+         * Called between buffers, may block to pause decoding
+         * @return true if decoding should stop
+         */
+        boolean shouldStop();
+    }
+}
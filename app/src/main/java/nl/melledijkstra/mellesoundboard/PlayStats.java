@@ -0,0 +1,45 @@
+package nl.melledijkstra.mellesoundboard;
+
+/**
+ * The PlayStats model holds how often and when a sound was played
+ */
+public class PlayStats {
+
+    // TABLE NAME
+    public static final String TABLE_NAME = "sound_stats";
+
+    public class Columns {
+        public static final String SOUND_ID = "sound_id";
+        public static final String PLAY_COUNT = "play_count";
+        public static final String LAST_PLAYED_AT = "last_played_at";
+        public static final String TOTAL_PREPARE_MS = "total_prepare_ms";
+    }
+
+    /** The id of the sound in the local database */
+    public long soundId;
+
+    /** How many times the sound was played */
+    public int playCount;
+
+    /** When the sound was played for the last time in milliseconds since epoch */
+    public long lastPlayedAt;
+
+    /** The total time spent preparing the player for this sound */
+    public long totalPrepareMs;
+
+    public PlayStats(long soundId) {
+        this.soundId = soundId;
+    }
+
+    /**
+     * @return The average time it took to prepare the player, 0 if never played
+     */
+    public long getAveragePrepareMs() {
+        return (playCount > 0) ? totalPrepareMs / playCount : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PlayStats{soundId: %d, playCount: %d, lastPlayedAt: %d, avgPrepareMs: %d }", soundId, playCount, lastPlayedAt, getAveragePrepareMs());
+    }
+}
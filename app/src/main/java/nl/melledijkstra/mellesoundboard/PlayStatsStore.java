@@ -0,0 +1,146 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The PlayStatsStore collects play events without touching the disk. Events are added to a
+ * lock-free queue and written to the stats table in one transaction in the background lane of the {@link TaskScheduler},
+ * periodically and when {@link #flush()} is called (like when the app goes to the background).
+ */
+public class PlayStatsStore {
+
+    private static final String TAG = PlayStatsStore.class.getSimpleName();
+
+    /** How long events are buffered before they are written */
+    private static final long FLUSH_INTERVAL_MS = 30 * 1000;
+
+    private final SoundsDatabaseHelper soundsDB;
+
+    /** The play events which are not written yet */
+    private final ConcurrentLinkedQueue<PlayEvent> pending = new ConcurrentLinkedQueue<>();
+
+    /** The writes run one after another */
+    private final TaskScheduler.SerialQueue queue = TaskScheduler.serial("play_stats", TaskScheduler.BACKGROUND);
+
+    /** Set by {@link #shutdown()}, flushes which are asked for later are ignored */
+    private boolean shutdown;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean flushScheduled;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    public PlayStatsStore(SoundsDatabaseHelper soundsDB) {
+        this.soundsDB = soundsDB;
+    }
+
+    /**
+     * Records that a sound was played, this never touches the disk
+     * @param soundId The id of the played sound
+     * @param prepareMs How long it took before the sound could start playing
+     */
+    public void recordPlay(long soundId, long prepareMs) {
+        pending.add(new PlayEvent(soundId, System.currentTimeMillis(), prepareMs));
+        if(!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Writes the buffered events to the database in the background
+     */
+    public void flush() {
+        flush(null);
+    }
+
+    /**
+     * Writes the buffered events to the database in the background
+     * @param done Runs on the main thread when everything which was buffered is written
+     */
+    public void flush(@Nullable final Runnable done) {
+        if(shutdown) return;
+        // queued even when nothing is buffered, a write which is already running has to finish first
+        queue.execute(writeRunnable);
+        if(done != null) {
+            queue.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handler.post(done);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the last buffered events and stops taking work, this doesn't wait for the write
+     */
+    public void shutdown() {
+        handler.removeCallbacks(flushRunnable);
+        flush();
+        shutdown = true;
+    }
+
+    /**
+     * Runs in the background, takes all pending events and writes them in one transaction
+     */
+    private void write() {
+        ArrayList<PlayEvent> events = new ArrayList<>();
+        PlayEvent event;
+        while((event = pending.poll()) != null) {
+            events.add(event);
+        }
+        if(events.isEmpty()) return;
+        soundsDB.addPlayStats(aggregate(events).values());
+        Log.d(TAG, "Wrote "+events.size()+" play events");
+    }
+
+    private static HashMap<Long, PlayStats> aggregate(List<PlayEvent> events) {
+        HashMap<Long, PlayStats> deltas = new HashMap<>();
+        for(PlayEvent event : events) {
+            PlayStats delta = deltas.get(event.soundId);
+            if(delta == null) {
+                delta = new PlayStats(event.soundId);
+                deltas.put(event.soundId, delta);
+            }
+            delta.playCount++;
+            delta.lastPlayedAt = Math.max(delta.lastPlayedAt, event.playedAt);
+            delta.totalPrepareMs += event.prepareMs;
+        }
+        return deltas;
+    }
+
+    private static class PlayEvent {
+        final long soundId;
+        final long playedAt;
+        final long prepareMs;
+
+        PlayEvent(long soundId, long playedAt, long prepareMs) {
+            this.soundId = soundId;
+            this.playedAt = playedAt;
+            this.prepareMs = prepareMs;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.util.Log;
+
+/**
+ * The PlaybackFocus asks for the audio focus before a sound plays and gives it back when nothing plays
+ * anymore. Sounds are short, so the focus is asked for as transient: music of other apps ducks or pauses
+ * for a moment. When another app takes the focus, or the headphones are unplugged, the listener stops
+ * the sounds. When the focus is lost for a moment the listener can duck instead.
+ * All methods must be called from the main thread.
+ */
+public class PlaybackFocus implements AudioManager.OnAudioFocusChangeListener {
+
+    private static final String TAG = PlaybackFocus.class.getSimpleName();
+
+    private final Context context;
+    private final AudioManager audioManager;
+    private final Listener listener;
+
+    private boolean held;
+
+    /** Stops playback when the audio would suddenly come out of the speaker */
+    private final BroadcastReceiver noisyReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if(AudioManager.ACTION_AUDIO_BECOMING_NOISY.equals(intent.getAction())) {
+                Log.d(TAG, "Audio becomes noisy");
+                listener.onFocusLost();
+            }
+        }
+    };
+
+    public PlaybackFocus(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+    }
+
+    /**
+     * @return true if a sound may play, false if another app holds the focus like during a call
+     */
+    public boolean acquire() {
+        if(held) return true;
+        int result = audioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK);
+        if(result != AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+            Log.d(TAG, "Audio focus refused");
+            return false;
+        }
+        held = true;
+        context.registerReceiver(noisyReceiver, new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY));
+        return true;
+    }
+
+    /**
+     * Gives the focus back, call this when nothing plays anymore
+     */
+    public void release() {
+        if(!held) return;
+        held = false;
+        audioManager.abandonAudioFocus(this);
+        context.unregisterReceiver(noisyReceiver);
+    }
+
+    public boolean isHeld() {
+        return held;
+    }
+
+    @Override
+    public void onAudioFocusChange(int focusChange) {
+        switch(focusChange) {
+            case AudioManager.AUDIOFOCUS_LOSS:
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                Log.d(TAG, "Audio focus lost: "+focusChange);
+                listener.onFocusLost();
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                listener.onDuck(true);
+                break;
+            case AudioManager.AUDIOFOCUS_GAIN:
+                listener.onDuck(false);
+                break;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Another app plays now or the headphones were unplugged, stop the sounds and call {@link #release()}
+         */
+        void onFocusLost();
+
+        /**
+         * @param duck true to play softer for a moment, false to play at full volume again
+         */
+        void onDuck(boolean duck);
+    }
+}
@@ -0,0 +1,84 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import nl.melledijkstra.mellesoundboard.ui.MainActivity;
+
+/**
+ * Keeps the process in the foreground while sounds play, download or import without the board on screen,
+ * so Android doesn't kill it halfway. The {@link SoundManager} lives in the {@link App} and does the work,
+ * this service only holds the notification. It's started and stopped by the SoundManager.
+ */
+public class PlaybackService extends Service {
+
+    private static final String TAG = PlaybackService.class.getSimpleName();
+
+    private static final String ACTION_STOP = "nl.melledijkstra.mellesoundboard.action.STOP";
+    private static final String EXTRA_TEXT = "text";
+
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Shows the notification, or updates its text when the service already runs
+     */
+    public static void start(Context context, String text) {
+        Intent intent = new Intent(context, PlaybackService.class);
+        intent.putExtra(EXTRA_TEXT, text);
+        context.startService(intent);
+    }
+
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, PlaybackService.class));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if(intent == null) {
+            // restarted after the process was killed, the sound manager which needed this is gone
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        if(ACTION_STOP.equals(intent.getAction())) {
+            Log.d(TAG, "Stopped from the notification");
+            // the sound manager stops this service when nothing else is going on
+            ((App) getApplication()).getSoundManager().stopAllSounds();
+            return START_NOT_STICKY;
+        }
+        startForeground(NOTIFICATION_ID, buildNotification(intent.getStringExtra(EXTRA_TEXT)));
+        return START_NOT_STICKY;
+    }
+
+    private Notification buildNotification(String text) {
+        Intent open = new Intent(this, MainActivity.class)
+                .setAction(Intent.ACTION_MAIN)
+                .addCategory(Intent.CATEGORY_LAUNCHER);
+        Intent stop = new Intent(this, PlaybackService.class).setAction(ACTION_STOP);
+        return new NotificationCompat.Builder(this)
+                .setSmallIcon(R.drawable.soundboard_icon)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(text)
+                .setOngoing(true)
+                .setContentIntent(PendingIntent.getActivity(this, 0, open, 0))
+                .addAction(android.R.drawable.ic_menu_close_clear_cancel, getString(R.string.action_stop),
+                        PendingIntent.getService(this, 0, stop, 0))
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        stopForeground(true);
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,51 @@
+package nl.melledijkstra.mellesoundboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A timeline of sounds for the {@link Sequencer}, like a drum hit, a voice line 250 ms later and then a stinger.
+ * Every step starts at its own offset from the start of the sequence, steps may overlap.
+ */
+public class Sequence {
+
+    private final ArrayList<Step> steps = new ArrayList<>();
+
+    /**
+     * Adds a sound at an offset from the start of the sequence
+     */
+    public Sequence add(Sound sound, long offsetMs) {
+        steps.add(new Step(sound, Math.max(offsetMs, 0)));
+        return this;
+    }
+
+    /**
+     * Adds a sound a while after the start of the last step
+     */
+    public Sequence then(Sound sound, long delayMs) {
+        long last = steps.isEmpty() ? 0 : steps.get(steps.size() - 1).offsetMs;
+        return add(sound, last + delayMs);
+    }
+
+    /**
+     * @return The steps in the order they were added
+     */
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    public static class Step {
+        public final Sound sound;
+        public final long offsetMs;
+
+        Step(Sound sound, long offsetMs) {
+            this.sound = sound;
+            this.offsetMs = offsetMs;
+        }
+    }
+}
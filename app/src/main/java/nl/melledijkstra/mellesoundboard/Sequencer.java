@@ -0,0 +1,400 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Sequencer plays sounds on a timeline, mixed into one AudioTrack so they overlap instead of cutting each
+ * other off like the MediaPlayer does. The sounds of a {@link Sequence} are decoded into {@link PcmClip}s first
+ * and then placed on exact frames of the output, so the time between them is accurate to the sample no matter
+ * when the mixer thread gets to run. The output only runs while there is something to play.
+ *
+ * The timing is checked against the playback head of the AudioTrack: for every sound after the first of a
+ * sequence the time it was heard is compared with the time it should have been heard, see the
+ * "sequencer.jitter" timer of the {@link MetricsRegistry}. When the mixer can't keep up, like under a heavy
+ * UI load, the output runs dry and the jitter goes up. The head position is only read after each buffer and
+ * some devices move it in steps, so a few milliseconds of jitter is the measurement itself.
+ */
+public class Sequencer {
+
+    private static final String TAG = Sequencer.class.getSimpleName();
+
+    public static final int SAMPLE_RATE = 44100;
+
+    private static final int CHANNELS = 2;
+
+    /** Frames mixed at once, about 6 ms */
+    private static final int BUFFER_FRAMES = 256;
+
+    /** The output stops after this much silence */
+    private static final int IDLE_FRAMES = SAMPLE_RATE * 2;
+
+    private static final int CLIP_CACHE_BYTES = 16 * 1024 * 1024;
+
+    private static final MetricsRegistry.Timer JITTER = MetricsRegistry.timer("sequencer.jitter");
+    private static final MetricsRegistry.Timer MIX_TIME = MetricsRegistry.timer("sequencer.mix");
+    private static final MetricsRegistry.Timer DECODE_TIME = MetricsRegistry.timer("sequencer.decode");
+    private static final MetricsRegistry.Counter VOICES = MetricsRegistry.counter("sequencer.voices");
+
+    private final PcmDecoder decoder = new PcmDecoder();
+
+    /** Decoded sounds by id, sounds played in a row aren't decoded again */
+    private final LruCache<Long, PcmClip> clips = new LruCache<Long, PcmClip>(CLIP_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(Long id, PcmClip clip) {
+            return clip.getSizeInBytes();
+        }
+    };
+
+    private final Object lock = new Object();
+
+    /** Sequences which are decoded and wait for the mixer, guarded by lock */
+    private final ArrayList<Voice[]> pending = new ArrayList<>();
+
+    /** The running mixer, null when the output is stopped, guarded by lock */
+    @Nullable
+    private Mixer mixer;
+
+    private volatile boolean released;
+
+    /** Sequences which are being decoded */
+    private final AtomicInteger decoding = new AtomicInteger();
+
+    /** The volume of the output from 0 to 1, applied by the mixer */
+    private volatile float volume = 1;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    private Runnable idleListener;
+
+    private final Runnable idleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(idleListener != null && !released) idleListener.run();
+        }
+    };
+
+    /**
+     * Plays a sequence, it starts as soon as its sounds are decoded. Can be called while other sequences play
+     */
+    public void play(final Sequence sequence) {
+        if(sequence.isEmpty() || released) return;
+        final List<Sequence.Step> steps = new ArrayList<>(sequence.getSteps());
+        decoding.incrementAndGet();
+        TaskScheduler.execute(this, TaskScheduler.INTERACTIVE, new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<Voice> voices = new ArrayList<>(steps.size());
+                try {
+                    for(Sequence.Step step : steps) {
+                        PcmClip clip = getClip(step.sound);
+                        if(clip == null || clip.frames == 0) continue;
+                        voices.add(new Voice(clip, step.offsetMs * SAMPLE_RATE / 1000));
+                    }
+                    if(!voices.isEmpty()) schedule(voices.toArray(new Voice[voices.size()]));
+                } finally {
+                    decoding.decrementAndGet();
+                    // nothing to play, the mixer won't report it
+                    if(voices.isEmpty()) mainHandler.post(idleRunnable);
+                }
+            }
+        });
+    }
+
+    /**
+     * Plays one sound on top of what is playing
+     */
+    public void play(Sound sound) {
+        play(new Sequence().add(sound, 0));
+    }
+
+    /**
+     * Stops everything which plays or waits to play, sequences which are still being decoded play anyway
+     */
+    public void stop() {
+        synchronized(lock) {
+            pending.clear();
+            if(mixer != null) mixer.clear = true;
+        }
+    }
+
+    /**
+     * @param volume From 0 to 1, like {@link android.media.MediaPlayer#setVolume(float, float)}
+     */
+    public void setVolume(float volume) {
+        this.volume = volume;
+    }
+
+    /**
+     * @return true while sequences are being decoded or the output runs
+     */
+    public boolean isActive() {
+        if(decoding.get() > 0) return true;
+        synchronized(lock) {
+            return mixer != null || !pending.isEmpty();
+        }
+    }
+
+    /**
+     * @param listener Runs on the main thread when the output stopped or a sequence had nothing to play,
+     *                 check {@link #isActive()} because another sequence may have started since
+     */
+    public void setOnIdleListener(@Nullable Runnable listener) {
+        idleListener = listener;
+    }
+
+    /**
+     * Frees the decoded sounds, sounds which play keep playing
+     */
+    public void evictClips() {
+        clips.evictAll();
+    }
+
+    /**
+     * Stops the output and frees the decoded sounds, the sequencer can't be used afterwards
+     */
+    public void release() {
+        mainHandler.removeCallbacks(idleRunnable);
+        TaskScheduler.cancelAll(this);
+        synchronized(lock) {
+            released = true;
+            pending.clear();
+        }
+        clips.evictAll();
+    }
+
+    /**
+     * Runs on a background thread
+     */
+    @Nullable
+    private PcmClip getClip(Sound sound) {
+        PcmClip clip = clips.get(sound.id);
+        if(clip != null && clip.matches(sound)) return clip;
+        long started = MetricsRegistry.Timer.start();
+        try {
+            clip = PcmClip.decode(decoder, sound, SAMPLE_RATE);
+        } catch(IOException | RuntimeException e) {
+            // MediaCodec throws runtime exceptions for files it can't handle
+            Log.e(TAG, "Could not decode "+sound.getLocalFileName()+": "+e.getMessage());
+            return null;
+        } finally {
+            DECODE_TIME.stop(started);
+        }
+        if(clip != null) clips.put(sound.id, clip);
+        return clip;
+    }
+
+    private void schedule(Voice[] voices) {
+        synchronized(lock) {
+            if(released) return;
+            pending.add(voices);
+            if(mixer == null) {
+                mixer = new Mixer();
+                new Thread(mixer, "Sequencer").start();
+            }
+        }
+    }
+
+    /**
+     * A sound on the timeline of the output
+     */
+    private static class Voice {
+        final PcmClip clip;
+        final long offsetFrames;
+
+        /** The frame of the output where the clip starts, set when the mixer takes the voice */
+        long startFrame;
+
+        /** The voices of the same sequence, the one heard first is what the others are measured against */
+        Voice[] sequence;
+
+        /** When the start was heard, -1 until then */
+        long heardNs = -1;
+
+        Voice(PcmClip clip, long offsetFrames) {
+            this.clip = clip;
+            this.offsetFrames = offsetFrames;
+        }
+    }
+
+    /**
+     * Writes the mix to the AudioTrack until nothing played for a while, writing blocks when the buffer
+     * of the track is full so that keeps the pace
+     */
+    private class Mixer implements Runnable {
+
+        /** Stops the voices which play, set with the lock held */
+        boolean clear;
+
+        private final ArrayList<Voice> voices = new ArrayList<>();
+
+        /** Voices of which the start wasn't heard yet */
+        private final ArrayList<Voice> unheard = new ArrayList<>();
+
+        private final int[] mix = new int[BUFFER_FRAMES * CHANNELS];
+        private final short[] output = new short[BUFFER_FRAMES * CHANNELS];
+
+        /** The frame of the output which is written next */
+        private long position;
+
+        private long headFrame;
+        private long headNs;
+
+        private float appliedVolume = 1;
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            int minBuffer = AudioTrack.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+            AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO,
+                    AudioFormat.ENCODING_PCM_16BIT, Math.max(minBuffer, BUFFER_FRAMES * CHANNELS * 2 * 2), AudioTrack.MODE_STREAM);
+            try {
+                if(track.getState() != AudioTrack.STATE_INITIALIZED) {
+                    Log.e(TAG, "Could not open the output");
+                    return;
+                }
+                track.play();
+                headNs = System.nanoTime();
+                int idleFrames = 0;
+                while(true) {
+                    synchronized(lock) {
+                        if(released) {
+                            mixer = null;
+                            return;
+                        }
+                        if(clear) {
+                            voices.clear();
+                            unheard.clear();
+                            clear = false;
+                        }
+                        for(Voice[] sequence : pending) {
+                            start(sequence);
+                        }
+                        pending.clear();
+                        if(voices.isEmpty() && unheard.isEmpty() && idleFrames >= IDLE_FRAMES) {
+                            // in the same lock as the check, so new sequences start a new mixer
+                            mixer = null;
+                            return;
+                        }
+                    }
+                    if(appliedVolume != volume) {
+                        appliedVolume = volume;
+                        track.setStereoVolume(appliedVolume, appliedVolume);
+                    }
+                    long started = MetricsRegistry.Timer.start();
+                    mix();
+                    MIX_TIME.stop(started);
+                    if(!write(track)) return;
+                    position += BUFFER_FRAMES;
+                    idleFrames = voices.isEmpty() ? idleFrames + BUFFER_FRAMES : 0;
+                    checkHead(track);
+                }
+            } finally {
+                synchronized(lock) {
+                    // the output failed, what waits is dropped and the next sequence tries again
+                    if(mixer == this) {
+                        mixer = null;
+                        pending.clear();
+                    }
+                }
+                if(track.getState() == AudioTrack.STATE_INITIALIZED) track.stop();
+                track.release();
+                mainHandler.post(idleRunnable);
+            }
+        }
+
+        /**
+         * Puts the voices of a sequence on the timeline, the sequence starts at the next buffer
+         */
+        private void start(Voice[] sequence) {
+            for(Voice voice : sequence) {
+                voice.startFrame = position + voice.offsetFrames;
+                voice.sequence = sequence;
+                voices.add(voice);
+                unheard.add(voice);
+                VOICES.inc();
+            }
+        }
+
+        private void mix() {
+            Arrays.fill(mix, 0);
+            long end = position + BUFFER_FRAMES;
+            Iterator<Voice> it = voices.iterator();
+            while(it.hasNext()) {
+                Voice voice = it.next();
+                long clipEnd = voice.startFrame + voice.clip.frames;
+                long from = Math.max(voice.startFrame, position);
+                long to = Math.min(clipEnd, end);
+                short[] samples = voice.clip.samples;
+                int out = (int) (from - position) * CHANNELS;
+                int in = (int) (from - voice.startFrame) * CHANNELS;
+                for(long frame = from; frame < to; ++frame) {
+                    mix[out++] += samples[in++];
+                    mix[out++] += samples[in++];
+                }
+                if(clipEnd <= end) it.remove();
+            }
+            for(int i = 0; i < mix.length; ++i) {
+                output[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            }
+        }
+
+        private boolean write(AudioTrack track) {
+            int offset = 0;
+            while(offset < output.length) {
+                int written = track.write(output, offset, output.length - offset);
+                if(written < 0) {
+                    Log.e(TAG, "Could not write to the output: "+written);
+                    return false;
+                }
+                offset += written;
+            }
+            return true;
+        }
+
+        /**
+         * Finds the voices which started since the last time the head was read and measures when they were heard
+         */
+        private void checkHead(AudioTrack track) {
+            long frame = track.getPlaybackHeadPosition() & 0xffffffffL;
+            long now = System.nanoTime();
+            if(frame <= headFrame) return;
+            Iterator<Voice> it = unheard.iterator();
+            while(it.hasNext()) {
+                Voice voice = it.next();
+                if(voice.startFrame > frame) continue;
+                // somewhere between the previous and this reading of the head
+                voice.heardNs = headNs + (voice.startFrame - headFrame) * (now - headNs) / (frame - headFrame);
+                measure(voice);
+                it.remove();
+            }
+            headFrame = frame;
+            headNs = now;
+        }
+
+        private void measure(Voice voice) {
+            Voice first = null;
+            for(Voice other : voice.sequence) {
+                if(other != voice && other.heardNs >= 0 && (first == null || other.startFrame < first.startFrame)) first = other;
+            }
+            if(first == null) return;
+            long expectedNs = (voice.startFrame - first.startFrame) * 1000000000L / SAMPLE_RATE;
+            JITTER.record(Math.abs(voice.heardNs - first.heardNs - expectedNs));
+        }
+    }
+}
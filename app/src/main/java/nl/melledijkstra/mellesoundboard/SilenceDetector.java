@@ -0,0 +1,81 @@
+package nl.melledijkstra.mellesoundboard;
+
+import java.nio.ShortBuffer;
+
+/**
+ * The SilenceDetector finds the silence at the start and end of a sound while it's decoded, so playback
+ * can skip it and a sound is heard the moment its button is pressed. A frame is silent when every channel
+ * stays below {@link #THRESHOLD}, about -50 dBFS. A bit of the silence is kept around the audible part
+ * so soft attacks and fade outs aren't cut off. The file itself is never changed.
+ */
+public class SilenceDetector implements PcmDecoder.SampleSink {
+
+    /** Samples below this amplitude are silent, 32768 is full scale */
+    private static final int THRESHOLD = 100;
+
+    /** Kept before the first audible frame */
+    private static final long LEAD_US = 10000;
+
+    /** Kept after the last audible frame */
+    private static final long TAIL_US = 50000;
+
+    private int sampleRate;
+    private int channels = 1;
+
+    private int channel;
+    private boolean frameAudible;
+
+    /** The position in microseconds, frames are counted per format because the sample rate may change */
+    private long formatStartUs;
+    private long formatFrames;
+
+    private long firstAudibleUs = -1;
+    private long lastAudibleUs = -1;
+
+    @Override
+    public void onFormat(int sampleRate, int channels, long durationUs) {
+        formatStartUs = positionUs();
+        formatFrames = 0;
+        this.sampleRate = Math.max(sampleRate, 1);
+        this.channels = Math.max(channels, 1);
+    }
+
+    @Override
+    public void onSamples(ShortBuffer samples) {
+        while(samples.hasRemaining()) {
+            if(Math.abs((int) samples.get()) >= THRESHOLD) frameAudible = true;
+            if(++channel == channels) {
+                if(frameAudible) {
+                    long position = positionUs();
+                    if(firstAudibleUs < 0) firstAudibleUs = position;
+                    lastAudibleUs = position;
+                }
+                channel = 0;
+                frameAudible = false;
+                ++formatFrames;
+            }
+        }
+    }
+
+    /**
+     * @return Where playback should start in milliseconds
+     */
+    public int getTrimStartMs() {
+        if(firstAudibleUs < 0) return 0;
+        return (int) (Math.max(firstAudibleUs - LEAD_US, 0) / 1000);
+    }
+
+    /**
+     * @return Where playback should stop in milliseconds, the end of the sound when it's silent as a whole
+     */
+    public int getTrimEndMs() {
+        long endUs = positionUs();
+        if(lastAudibleUs >= 0) endUs = Math.min(lastAudibleUs + TAIL_US, endUs);
+        // at least 1 ms, 0 means the sound wasn't analyzed
+        return (int) Math.max(endUs / 1000, 1);
+    }
+
+    private long positionUs() {
+        return (sampleRate > 0) ? formatStartUs + formatFrames * 1000000L / sampleRate : 0;
+    }
+}
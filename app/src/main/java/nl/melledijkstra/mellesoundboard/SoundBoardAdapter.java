@@ -1,71 +1,183 @@
 package nl.melledijkstra.mellesoundboard;
 
 import android.content.Context;
-import android.util.Log;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import java.util.List;
+
+import nl.melledijkstra.mellesoundboard.ui.WaveformView;
 
 /**
- * The SoundBoardAdapter fills the GridView and creates the communication between the view and the data
+ * The SoundBoardAdapter fills the RecyclerView and creates the communication between the view and the data.
+ * The item ids are the ids of the sounds, so the RecyclerView keeps the identity of a cell when the board changes
  */
-public class SoundBoardAdapter extends BaseAdapter {
+public class SoundBoardAdapter extends RecyclerView.Adapter<SoundBoardAdapter.SoundViewHolder> {
 
     private static final String TAG = SoundBoardAdapter.class.getSimpleName();
+
+    /** The only type of cell on the board, used to size the view pool */
+    public static final int VIEW_TYPE_SOUND = 0;
+
+    /**
+     * Payload for cells of which the sound changed but not its position, only the parts
+     * which differ from the bound sound are updated (like the downloaded badge)
+     */
+    public static final Object PAYLOAD_SOUND_CHANGED = new Object();
+
+    /** Payload for cells of which the waveform was generated, only the waveform is bound */
+    public static final Object PAYLOAD_WAVEFORM_READY = new Object();
+
     private Context mContext;
-    private ArrayList<Sound> sounds;
+    private SoundPager sounds;
+    private final CoverLoader covers;
+    private final WaveformGenerator waveforms;
     private final LayoutInflater inflater;
 
-    public SoundBoardAdapter(Context mContext, ArrayList<Sound> sounds) {
+    @Nullable
+    private OnSoundClickListener clickListener;
+
+    public SoundBoardAdapter(Context mContext, SoundPager sounds, CoverLoader covers, WaveformGenerator waveforms) {
         this.mContext = mContext;
         inflater = LayoutInflater.from(mContext);
         this.sounds = sounds;
+        this.covers = covers;
+        this.waveforms = waveforms;
+        setHasStableIds(true);
+    }
+
+    public void setOnSoundClickListener(@Nullable OnSoundClickListener clickListener) {
+        this.clickListener = clickListener;
     }
 
     @Override
-    public int getCount() {
-        return sounds.size();
+    public int getItemCount() {
+        return sounds.getCount();
     }
 
     /**
-     * Get Sound object at specified position or null if not exists
+     * Get Sound object at specified position or null if not exists (or not loaded yet)
      */
-    @Override
-    public Object getItem(int position) {
-        return (position >= 0 && position < sounds.size()) ? sounds.get(position) : null;
+    @Nullable
+    public Sound getItem(int position) {
+        return sounds.getSound(position);
     }
 
+    /**
+     * The id of the sound, cells which are still loading get a negative id based on their position
+     */
     @Override
     public long getItemId(int position) {
-        return 0;
+        long id = sounds.getSoundId(position);
+        return (id >= 0) ? id : -2 - position;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return VIEW_TYPE_SOUND;
+    }
+
+    @Override
+    public SoundViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new SoundViewHolder(inflater.inflate(R.layout.soundboard_item, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(SoundViewHolder holder, int position) {
+        Sound sound = getItem(position);
+        // The sound is null while its page is still loading, show an empty cell until then
+        holder.soundName.setText(sound != null ? sound.name : "");
+        holder.downloadedBadge.setVisibility(sound != null && !sound.isDownloaded() ? View.VISIBLE : View.GONE);
+        // The cover is loaded in the background, the default cover is shown until then
+        covers.bind(holder.soundPicture, sound);
+        holder.coverFileName = (sound != null) ? sound.getCoverFileName() : null;
+        waveforms.bind(holder.waveform, sound);
+    }
+
+    @Override
+    public void onBindViewHolder(SoundViewHolder holder, int position, List<Object> payloads) {
+        Sound sound = getItem(position);
+        if(sound == null || payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        if(!payloads.contains(PAYLOAD_SOUND_CHANGED)) {
+            // only waveforms are ready
+            waveforms.bind(holder.waveform, sound);
+            return;
+        }
+        if(!TextUtils.equals(holder.soundName.getText(), sound.name)) {
+            holder.soundName.setText(sound.name);
+        }
+        holder.downloadedBadge.setVisibility(sound.isDownloaded() ? View.GONE : View.VISIBLE);
+        String coverFileName = sound.getCoverFileName();
+        if(!TextUtils.equals(holder.coverFileName, coverFileName)) {
+            covers.bind(holder.soundPicture, sound);
+            holder.coverFileName = coverFileName;
+        }
+        // a download makes a waveform possible
+        waveforms.bind(holder.waveform, sound);
     }
 
+    /**
+     * The cell scrolled out of view, stop loading its cover
+     */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        View v = convertView;
-        ImageView soundPicture;
-        TextView soundName;
-
-        if(v == null) {
-            v = inflater.inflate(R.layout.soundboard_item,parent,false);
-            v.setTag(R.id.picture, v.findViewById(R.id.picture));
-            v.setTag(R.id.text, v.findViewById(R.id.text));
+    public void onViewRecycled(SoundViewHolder holder) {
+        covers.unbind(holder.soundPicture);
+        holder.coverFileName = null;
+    }
+
+    public class SoundViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener, View.OnLongClickListener {
+
+        final ImageView soundPicture;
+        final TextView soundName;
+        final ImageView downloadedBadge;
+        final WaveformView waveform;
+
+        /** The cover which is bound, so a partial bind only reloads the cover when it changed */
+        @Nullable
+        String coverFileName;
+
+        SoundViewHolder(View itemView) {
+            super(itemView);
+            soundPicture = (ImageView) itemView.findViewById(R.id.picture);
+            soundName = (TextView) itemView.findViewById(R.id.text);
+            downloadedBadge = (ImageView) itemView.findViewById(R.id.downloaded_badge);
+            waveform = (WaveformView) itemView.findViewById(R.id.waveform);
+            itemView.setOnClickListener(this);
+            itemView.setOnLongClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            int position = getAdapterPosition();
+            if(clickListener != null && position != RecyclerView.NO_POSITION) {
+                clickListener.onSoundClick(position);
+            }
         }
 
-        soundPicture = (ImageView) v.getTag(R.id.picture);
-        soundName = (TextView) v.getTag(R.id.text);
+        @Override
+        public boolean onLongClick(View v) {
+            int position = getAdapterPosition();
+            return clickListener != null && position != RecyclerView.NO_POSITION
+                    && clickListener.onSoundLongClick(position);
+        }
+    }
 
-        Sound sound = (Sound) getItem(position);
-        // TODO: set to sound cover
-        soundPicture.setImageResource(R.drawable.default_cover);
-        soundName.setText(sound.name);
+    public interface OnSoundClickListener {
+        void onSoundClick(int position);
 
-        return v;
+        /**
+         * @return true if the long click was handled
+         */
+        boolean onSoundLongClick(int position);
     }
 
 }
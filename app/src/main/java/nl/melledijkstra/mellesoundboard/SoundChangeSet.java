@@ -0,0 +1,83 @@
+package nl.melledijkstra.mellesoundboard;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A SoundChangeSet describes which sounds were inserted, removed or changed (by id) since the
+ * last time the board was notified. Changes can be added one by one, so a burst of changes
+ * (like a bulk download) ends up as one change set.
+ */
+public class SoundChangeSet {
+
+    private final Set<Long> inserted = new HashSet<>();
+    private final Set<Long> removed = new HashSet<>();
+    private final Set<Long> changed = new HashSet<>();
+
+    public void addInserted(long id) {
+        // a sound which was removed and inserted again is just a change
+        if(removed.remove(id)) {
+            changed.add(id);
+        } else {
+            inserted.add(id);
+        }
+    }
+
+    public void addRemoved(long id) {
+        changed.remove(id);
+        // a sound which is inserted and removed in the same change set never existed for the board
+        if(!inserted.remove(id)) {
+            removed.add(id);
+        }
+    }
+
+    public void addChanged(long id) {
+        // inserted sounds are bound completely anyway
+        if(!inserted.contains(id) && !removed.contains(id)) {
+            changed.add(id);
+        }
+    }
+
+    public Set<Long> getInserted() {
+        return Collections.unmodifiableSet(inserted);
+    }
+
+    public Set<Long> getRemoved() {
+        return Collections.unmodifiableSet(removed);
+    }
+
+    public Set<Long> getChanged() {
+        return Collections.unmodifiableSet(changed);
+    }
+
+    public boolean isChanged(long id) {
+        return changed.contains(id);
+    }
+
+    /**
+     * @return true if sounds were inserted or removed, which moves the positions of other sounds
+     */
+    public boolean isStructural() {
+        return !inserted.isEmpty() || !removed.isEmpty();
+    }
+
+    /**
+     * @return The lowest id of all inserted and removed sounds, or Long.MAX_VALUE if there are none
+     */
+    public long getLowestStructuralId() {
+        long lowest = Long.MAX_VALUE;
+        for(long id : inserted) lowest = Math.min(lowest, id);
+        for(long id : removed) lowest = Math.min(lowest, id);
+        return lowest;
+    }
+
+    public boolean isEmpty() {
+        return inserted.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SoundChangeSet{inserted: %d, removed: %d, changed: %d }", inserted.size(), removed.size(), changed.size());
+    }
+}
@@ -1,6 +1,8 @@
 package nl.melledijkstra.mellesoundboard;
 
+import android.app.Activity;
 import android.app.AlertDialog;
+import android.app.Dialog;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -8,17 +10,17 @@ import android.content.SharedPreferences;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import android.widget.Toast;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import nl.melledijkstra.mellesoundboard.network.DeleteSoundTask;
 import nl.melledijkstra.mellesoundboard.network.DownloadSoundTask;
@@ -27,211 +29,895 @@ import nl.melledijkstra.mellesoundboard.network.GetChangesTask;
 /**
  * The SoundManager knows all about the sounds.
  * All the sound functionality is done with this class (like CRUD operations)
+ * There is one for the whole app, see {@link App#getSoundManager()}. It outlives the activities, which
+ * {@link #attach(Activity, onSoundsArrayUpdateListener)} to show the board and the dialogs.
  * Created by melle on 5-10-2016.
  */
 public class SoundManager implements MediaPlayer.OnPreparedListener, MediaPlayer.OnCompletionListener,
+        MediaPlayer.OnSeekCompleteListener,
         DeleteSoundTask.OnDeletedListener,
         GetChangesTask.onChangesListener,
-        DownloadSoundTask.downloadTaskListener {
+        DownloadSoundTask.downloadTaskListener,
+        ImportSoundsTask.importListener,
+        SoundPager.OnPageLoadedListener,
+        SoundRepository.Observer {
 
     /** The Place where sounds are stored */
     public static final String MEDIA_PATH = Environment.getExternalStorageDirectory().getPath() + "/mellesoundboard/";
+    /** Time to wait for more file changes before scanning the media directory */
+    private static final long SCAN_DELAY_MS = 2000;
+
+    /** The Place where the covers of the sounds are stored, see {@link Sound#getCoverFileName()} */
+    public static final String COVER_PATH = MEDIA_PATH + "covers/";
     public static String[] allowedExtensions = new String[] {".mp3", ".wav", ".3gp", ".aac"};
 
     private static final String TAG = SoundManager.class.getSimpleName();
 
+    private static final MetricsRegistry.Timer PREPARE_TIME = MetricsRegistry.timer("playback.prepare");
+    private static final MetricsRegistry.Counter PLAYS = MetricsRegistry.counter("playback.plays");
+    private static final MetricsRegistry.Counter PLAY_ERRORS = MetricsRegistry.counter("playback.errors");
+    private static final MetricsRegistry.Timer SYNC_TIME = MetricsRegistry.timer("sync.total");
+    private static final MetricsRegistry.Counter SYNC_SOUNDS = MetricsRegistry.counter("sync.sounds_received");
+    private static final MetricsRegistry.Counter SYNC_FAILURES = MetricsRegistry.counter("sync.failures");
+    private static final MetricsRegistry.Gauge BOARD_SIZE = MetricsRegistry.gauge("board.sounds");
+    private static final MetricsRegistry.Gauge ACTIVE_DOWNLOADS = MetricsRegistry.gauge("download.active");
+
+    /** The volume while another app talks over the sounds, like the navigation */
+    private static final float DUCK_VOLUME = 0.2f;
+
+    /** The board which shows the sounds, null while no activity is attached */
+    @Nullable
     private onSoundsArrayUpdateListener listener;
 
+    /** The application context, it outlives the activities */
     private Context context;
 
+    /** The activity which shows the dialogs, null while none is attached */
+    @Nullable
+    private Activity activity;
+
+    /** The dialogs which are shown on the activity, dismissed when it's detached */
+    private final ArrayList<Dialog> dialogs = new ArrayList<>();
+
+    /** true while the attached activity is on screen */
+    private boolean visible;
+
+    /** true while the {@link PlaybackService} keeps the app in the foreground */
+    private boolean foreground;
+    private int foregroundText;
+
+    private PlaybackFocus focus;
+    private boolean ducked;
+
     /** The Android MediaPlayer to play the sounds */
     private MediaPlayer mp;
 
     private SoundsDatabaseHelper soundsDB;
 
-    /** The sounds for the soundboard */
-    public ArrayList<Sound> sounds;
+    /** The files which are present in MEDIA_PATH */
+    private MediaFileIndex fileIndex;
+
+    /** Finds the files which were put in MEDIA_PATH by other apps */
+    private MediaScanner scanner;
+
+    /** Keeps the downloads within the space the user allows */
+    private StorageBudget storageBudget;
+
+    /** The evicted sound which is played as soon as it's downloaded again, -1 for none */
+    private long playWhenDownloaded = -1;
+
+    /** The files which are present in COVER_PATH */
+    private MediaFileIndex coverIndex;
+
+    /** Loads the covers for the board in the background */
+    private CoverLoader coverLoader;
+
+    /** Generates the waveforms of the downloaded sounds in the background */
+    private WaveformGenerator waveforms;
+
+    /** Buffers play statistics so playing a sound never waits on the database */
+    private PlayStatsStore playStats;
+
+    /** Plays sequences of sounds mixed together, next to the MediaPlayer */
+    private Sequencer sequencer;
+
+    /** The sequence which is being recorded, null when not recording. Kept here so it survives a rotation */
+    @Nullable
+    private Sequence recording;
+    private long recordingStart;
+
+    /** The last recorded sequence */
+    @Nullable
+    private Sequence sequence;
+
+    /** The boards the sounds can be put on */
+    private BoardStore boards;
+
+    /** All sounds, the single source of truth */
+    private SoundRepository repository;
+
+    /** The sounds for the soundboard, serves the repository snapshot or loads pages when needed */
+    private SoundPager pager;
+
+    /** What is going on in the background, only touched on the main thread */
+    private boolean syncing;
+    private long syncStarted;
+    private int activeDownloads;
+
+    /** The running import of local files, only one runs at a time */
+    @Nullable
+    private ImportSoundsTask importTask;
+    @Nullable
+    private ProgressDialog importDialog;
+
+    private final Handler handler = new Handler();
+
+    /** The audible part of the sound which plays, see {@link SilenceDetector} */
+    private int playingTrimStartMs;
+    private int playingTrimEndMs;
+
+    /** The player seeks to the trim start, it starts playing when the seek is done */
+    private boolean seeking;
+
+    /** Stops playback at the end of the audible part, the trailing silence isn't played */
+    private final Runnable trimEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(!mp.isPlaying()) return;
+            int remaining = playingTrimEndMs - mp.getCurrentPosition();
+            if(remaining > 0) {
+                handler.postDelayed(this, remaining);
+            } else {
+                stopPlaying();
+            }
+        }
+    };
+
+    private final Runnable scanRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(importTask != null || activeDownloads > 0) {
+                // files which are being written are added by the import or download itself
+                handler.postDelayed(this, SCAN_DELAY_MS);
+                return;
+            }
+            repository.scanMediaDirectory(scanner);
+        }
+    };
 
-    public SoundManager(Context context, onSoundsArrayUpdateListener listener) {
+    public SoundManager(Context context) {
+        context = context.getApplicationContext();
         this.context = context;
-        this.listener = listener;
         mp = new MediaPlayer();
         mp.setOnPreparedListener(this);
         mp.setOnCompletionListener(this);
-        sounds = new ArrayList<>();
-        soundsDB = new SoundsDatabaseHelper(context);
-        checkIfAppStorageExists();
+        mp.setOnSeekCompleteListener(this);
+        fileIndex = new MediaFileIndex(MEDIA_PATH);
+        soundsDB = new SoundsDatabaseHelper(context, fileIndex);
+        repository = new SoundRepository(soundsDB, new File(context.getCacheDir(), "board.snapshot"));
+        repository.addObserver(this);
+        scanner = new MediaScanner(context, MEDIA_PATH, soundsDB);
+        fileIndex.setOnFileChangedListener(new MediaFileIndex.OnFileChangedListener() {
+            @Override
+            public void onFileChanged(@Nullable String fileName) {
+                scanner.onFileChanged(fileName);
+                // scan when the changes stop coming in
+                handler.removeCallbacks(scanRunnable);
+                handler.postDelayed(scanRunnable, SCAN_DELAY_MS);
+            }
+        });
+        pager = new SoundPager(soundsDB, this);
+        boards = new BoardStore(soundsDB);
+        boards.setListener(new BoardStore.Listener() {
+            @Override
+            public void onBoardsChanged(List<Board> boardList) {
+                if(pager.getBoard() != Board.ALL_SOUNDS && boards.getBoard(pager.getBoard()) == null) {
+                    // the shown board was deleted
+                    setBoard(Board.ALL_SOUNDS);
+                } else {
+                    preloadNeighbours();
+                }
+                if(listener != null) listener.boardsChanged(boardList);
+            }
+
+            @Override
+            public void onBoardSoundsChanged(long boardId) {
+                pager.onBoardChanged(boardId);
+            }
+        });
+        boards.load();
+        playStats = new PlayStatsStore(soundsDB);
+        sequencer = new Sequencer();
+        sequencer.setOnIdleListener(new Runnable() {
+            @Override
+            public void run() {
+                onPlaybackStopped();
+            }
+        });
+        focus = new PlaybackFocus(context, new PlaybackFocus.Listener() {
+            @Override
+            public void onFocusLost() {
+                stopAllSounds();
+            }
+
+            @Override
+            public void onDuck(boolean duck) {
+                ducked = duck;
+                applyVolume();
+            }
+        });
+        coverIndex = new MediaFileIndex(COVER_PATH);
+        coverLoader = new CoverLoader(context, coverIndex, COVER_PATH);
+        waveforms = new WaveformGenerator(context);
+        waveforms.setOnTrimDetectedListener(new WaveformGenerator.OnTrimDetectedListener() {
+            @Override
+            public void onTrimDetected(long soundId, int startMs, int endMs) {
+                repository.setTrim(soundId, startMs, endMs);
+            }
+        });
+        // The storage is prepared on the database thread, the snapshot of the last run is shown
+        // right after that and the database is loaded in the background
+        repository.warmUp(new Runnable() {
+            @Override
+            public void run() {
+                checkIfAppStorageExists();
+                fileIndex.rebuild();
+                fileIndex.startWatching();
+                coverIndex.rebuild();
+                coverIndex.startWatching();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // Without snapshot the first pages are shown while the repository loads everything
+                pager.reset();
+            }
+        });
+        // files added while the app wasn't running
+        repository.scanMediaDirectory(scanner);
+        storageBudget = new StorageBudget(context, MEDIA_PATH, soundsDB, fileIndex);
+        enforceStorageBudget();
+    }
+
+    /**
+     * Shows the board on the activity, the dialogs of the SoundManager are shown on it as well
+     */
+    public void attach(Activity activity, onSoundsArrayUpdateListener listener) {
+        this.activity = activity;
+        this.listener = listener;
+    }
+
+    /**
+     * Call this when the activity is destroyed, the SoundManager and what it does keep going
+     */
+    public void detach(Activity activity) {
+        if(this.activity != activity) return;
+        for(Dialog dialog : new ArrayList<>(dialogs)) {
+            dialog.dismiss();
+        }
+        dialogs.clear();
+        importDialog = null;
+        this.activity = null;
+        listener = null;
+    }
+
+    /**
+     * Should be called when the attached activity starts and stops, the app goes into the foreground
+     * while sounds play or download without it
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        updateForeground();
+    }
+
+    /**
+     * Keeps track of a dialog on the attached activity until it's dismissed
+     */
+    private void track(Dialog dialog) {
+        dialogs.add(dialog);
+        dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+                dialogs.remove(dialog);
+            }
+        });
+    }
+
+    private void show(Dialog dialog) {
+        track(dialog);
+        dialog.show();
     }
 
     private void checkIfAppStorageExists() {
         if(Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)){
-            File directory = new File(MEDIA_PATH);
+            File directory = new File(COVER_PATH);
             directory.mkdirs();
         }
     }
 
     /**
-     * This method synchronizes the SoundManager with the local files
-     * It reads the directory and checks for sounds
-     * After this method you can work with the sounds
+     * This method synchronizes the SoundManager with the local database
+     * The repository is reloaded in the background, the listener gets notified when that's done.
+     * The media directory is listed again to find files which weren't reported
      */
     public void syncLocalSounds() {
-        // Clear the sounds ArrayList otherwise it would add duplicate sounds with every sync
-        sounds.clear();
-        sounds.addAll(soundsDB.getAllSounds());
-        listener.soundsRenewed();
+        repository.warmUp();
+        scanner.invalidate();
+        handler.removeCallbacks(scanRunnable);
+        scanRunnable.run();
     }
 
-    public Sound getSound(int id) {
-        return sounds.get(id);
+    @Nullable
+    public Sound getSound(int position) {
+        return pager.getSound(position);
     }
 
-    public ArrayList<Sound> getSounds() {
-        return sounds;
+    public SoundPager getPager() {
+        return pager;
     }
 
-    public void playSound(int position) {
-        final Sound sound = sounds.get(position);
-        if(sound.getSoundFile() != null && sound.getSoundFile().exists()) {
-            Uri uri = Uri.fromFile(sound.getSoundFile());
-            try {
-                Log.d(TAG,"playing: "+uri.getPath());
-                if(mp.isPlaying()) {
-                    mp.stop();
-                    mp.reset();
-                }
-                mp.setDataSource(context,uri);
-                mp.prepare();
-            } catch (IOException e) {
-                Log.e(TAG, "Could not play sound: "+e.getMessage());
-                e.printStackTrace();
+    public CoverLoader getCoverLoader() {
+        return coverLoader;
+    }
+
+    public WaveformGenerator getWaveforms() {
+        return waveforms;
+    }
+
+    public Sequencer getSequencer() {
+        return sequencer;
+    }
+
+    public PlayStatsStore getPlayStats() {
+        return playStats;
+    }
+
+    public BoardStore getBoards() {
+        return boards;
+    }
+
+    /**
+     * Shows the sounds of a board. The covers and decoded sounds of the previous board are let go of,
+     * the first pages of the boards next to it are preloaded
+     * @param boardId The id of the board or {@link Board#ALL_SOUNDS}
+     */
+    public void setBoard(long boardId) {
+        if(pager.getBoard() == boardId) return;
+        pager.setBoard(boardId);
+        coverLoader.evictAll();
+        sequencer.evictClips();
+        preloadNeighbours();
+    }
+
+    /**
+     * Preloads the boards of the tabs left and right of the shown board, the first tab has all sounds
+     */
+    private void preloadNeighbours() {
+        List<Board> list = boards.getBoards();
+        long current = pager.getBoard();
+        // all sounds is the tab before the first board
+        int index = -1;
+        for(int i = 0; i < list.size(); ++i) {
+            if(list.get(i).id == current) index = i;
+        }
+        long previous = (index == 0) ? Board.ALL_SOUNDS : (index > 0) ? list.get(index - 1).id : current;
+        long next = (index + 1 < list.size()) ? list.get(index + 1).id : current;
+        pager.preloadBoards(previous, next);
+    }
+
+    /**
+     * Orders the board, buffered play statistics are written first so the order includes them
+     * @param order One of the SoundsDatabaseHelper.ORDER_ constants
+     */
+    public void setBoardOrder(final int order) {
+        playStats.flush(new Runnable() {
+            @Override
+            public void run() {
+                pager.setOrder(order);
             }
-        } else {
-            new AlertDialog.Builder(context)
+        });
+    }
+
+    /**
+     * Should be called when the app goes to the background
+     */
+    public void onPause() {
+        playStats.flush();
+        repository.saveSnapshot();
+    }
+
+    public SoundRepository getRepository() {
+        return repository;
+    }
+
+    @Override
+    public void onPageLoaded() {
+        if(listener != null) listener.soundsRenewed();
+    }
+
+    @Override
+    public void onSoundsChanged(List<Sound> snapshot, @Nullable SoundChangeSet changes) {
+        pager.setSnapshot(snapshot);
+        BOARD_SIZE.set(snapshot.size());
+        if(changes == null) {
+            // sounds may have left the boards
+            boards.load();
+            waveforms.generateMissing(snapshot);
+            // reset notifies the listener when the visible sounds are available
+            pager.reset();
+            return;
+        }
+        for(long id : changes.getChanged()) {
+            Sound sound = repository.getById(id);
+            if(sound != null) {
+                pager.updateLoadedSound(sound);
+                waveforms.generate(sound);
+            }
+        }
+        for(long id : changes.getInserted()) {
+            // imported and scanned sounds arrive with their file
+            Sound sound = repository.getById(id);
+            if(sound != null) waveforms.generate(sound);
+        }
+        for(long id : changes.getRemoved()) {
+            waveforms.delete(id);
+        }
+        // the counts of the boards the removed sounds were on
+        if(!changes.getRemoved().isEmpty()) boards.load();
+        pager.applyChanges(changes);
+        if(listener != null) listener.soundsChanged(changes);
+    }
+
+    /**
+     * @return The space downloads may take in megabytes, 0 when unlimited
+     */
+    public int getStorageBudgetMb() {
+        return storageBudget.getBudgetMb();
+    }
+
+    public void setStorageBudgetMb(int budgetMb) {
+        storageBudget.setBudgetMb(budgetMb);
+        enforceStorageBudget();
+    }
+
+    /**
+     * Evicts downloads when they take too much space, the play statistics are written first so the
+     * latest plays count
+     */
+    private void enforceStorageBudget() {
+        playStats.flush(new Runnable() {
+            @Override
+            public void run() {
+                repository.enforceStorageBudget(storageBudget);
+            }
+        });
+    }
+
+    public void playSound(int position) {
+        Sound visibleSound = pager.getSound(position);
+        if(visibleSound == null) {
+            // The sound isn't loaded yet, nothing to play
+            return;
+        }
+        // Copy the sound because the pager reuses it when its page is recycled
+        final Sound sound = new Sound(visibleSound);
+        if(!fileIndex.contains(sound.getLocalFileName()) && sound.isEvicted() && sound.downloadLink != null) {
+            // the user downloaded this sound before, get it back without asking
+            playWhenDownloaded = sound.id;
+            downloadSound(sound, false);
+        } else if(fileIndex.contains(sound.getLocalFileName())) {
+            play(sound);
+        } else if(activity != null) {
+            show(new AlertDialog.Builder(activity)
                     .setTitle("Download Sound")
                     .setMessage("This sound is not yet downloaded.\nDo you want to download \""+sound.name+"\"?")
                     .setPositiveButton("Hell Ya!", new DialogInterface.OnClickListener() {
                         @Override
                         public void onClick(DialogInterface dialog, int which) {
-                            downloadSound(sound);
+                            downloadSound(sound, true);
                         }
                     })
                     .setIcon(R.drawable.ic_action_download)
-                    .show();
+                    .create());
         }
     }
 
-    private void downloadSound(Sound sound) {
+    private void play(Sound sound) {
+        if(!focus.acquire()) {
+            Toast.makeText(context, R.string.msg_audio_focus_refused, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Uri uri = Uri.fromFile(sound.getSoundFile());
+        try {
+            Log.d(TAG,"playing: "+uri.getPath());
+            handler.removeCallbacks(trimEndRunnable);
+            if(mp.isPlaying() || seeking) {
+                mp.stop();
+                mp.reset();
+            }
+            seeking = false;
+            playingTrimStartMs = sound.trimStartMs;
+            playingTrimEndMs = sound.trimEndMs;
+            long prepareStart = MetricsRegistry.Timer.start();
+            MainThreadIoMonitor.Probe probe = MainThreadIoMonitor.enter(MainThreadIoMonitor.DISK, "SoundManager.play");
+            try {
+                mp.setDataSource(context,uri);
+                waveforms.setPlaying(true);
+                mp.prepare();
+            } finally {
+                MainThreadIoMonitor.exit(probe);
+            }
+            long prepareNs = PREPARE_TIME.stop(prepareStart);
+            PLAYS.inc();
+            playStats.recordPlay(sound.id, prepareNs / 1000000);
+        } catch (IOException e) {
+            PLAY_ERRORS.inc();
+            waveforms.setPlaying(false);
+            Log.e(TAG, "Could not play sound: "+e.getMessage());
+            e.printStackTrace();
+            mp.reset();
+            onPlaybackStopped();
+        }
+    }
+
+    /**
+     * Plays a sequence with the {@link Sequencer}, on top of what plays already
+     */
+    public void playSequence(Sequence sequence) {
+        if(sequence.isEmpty()) return;
+        if(!focus.acquire()) {
+            Toast.makeText(context, R.string.msg_audio_focus_refused, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        sequencer.play(sequence);
+        updateForeground();
+    }
+
+    public boolean isRecording() {
+        return recording != null;
+    }
+
+    /**
+     * Starts recording a sequence, the sounds passed to {@link #record(Sound)} are added at the time they are tapped
+     */
+    public void startRecording() {
+        recording = new Sequence();
+    }
+
+    /**
+     * Stops recording, the recorded sequence becomes the sequence returned by {@link #getSequence()}
+     * @return The recorded sequence, null when nothing was recorded
+     */
+    @Nullable
+    public Sequence stopRecording() {
+        Sequence recorded = recording;
+        recording = null;
+        if(recorded == null || recorded.isEmpty()) return null;
+        sequence = recorded;
+        return recorded;
+    }
+
+    /**
+     * Adds the sound to the sequence being recorded and plays it on top of what plays already
+     * @param sound A sound which won't change anymore, the sequence keeps it
+     */
+    public void record(Sound sound) {
+        if(recording == null) return;
+        long now = SystemClock.uptimeMillis();
+        if(recording.isEmpty()) recordingStart = now;
+        recording.add(sound, now - recordingStart);
+        playSequence(new Sequence().add(sound, 0));
+    }
+
+    /**
+     * @return The last recorded sequence, null when nothing was recorded yet
+     */
+    @Nullable
+    public Sequence getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Stops the MediaPlayer and the Sequencer, like when another app starts playing
+     */
+    public void stopAllSounds() {
+        sequencer.stop();
+        stopPlaying();
+        // the sequencer drains for a while, the focus is given back right away
+        releaseFocus();
+    }
+
+    private void releaseFocus() {
+        focus.release();
+        ducked = false;
+        applyVolume();
+    }
+
+    private void applyVolume() {
+        float volume = ducked ? DUCK_VOLUME : 1;
+        mp.setVolume(volume, volume);
+        sequencer.setVolume(volume);
+    }
+
+    /**
+     * The MediaPlayer or the Sequencer stopped, the focus is given back when neither plays anymore
+     */
+    private void onPlaybackStopped() {
+        if(!isPlaying() && !sequencer.isActive()) releaseFocus();
+        updateForeground();
+    }
+
+    /**
+     * Starts the {@link PlaybackService} while sounds play, download or import without the activity on screen
+     * and stops it when that's done
+     */
+    private void updateForeground() {
+        boolean busy = importTask != null || activeDownloads > 0 || isPlaying() || sequencer.isActive();
+        if(busy && !visible) {
+            int text = (importTask != null) ? R.string.notification_importing
+                    : (activeDownloads > 0) ? R.string.notification_downloading
+                    : R.string.notification_playing;
+            if(foreground && text == foregroundText) return;
+            PlaybackService.start(context, context.getString(text));
+            foreground = true;
+            foregroundText = text;
+        } else if(foreground) {
+            PlaybackService.stop(context);
+            foreground = false;
+        }
+    }
+
+    /**
+     * @param showProgress false to download without a dialog, like an evicted sound which is played again
+     */
+    private void downloadSound(Sound sound, boolean showProgress) {
         Log.d(TAG, "Sound to be downloaded - " + sound.downloadLink);
         if(Utils.deviceHasInternet(context)) {
-            ProgressDialog downloadDialog = new ProgressDialog(context);
-            downloadDialog.setMessage("Downloading "+sound.name);
-            downloadDialog.setIndeterminate(true);
-            downloadDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-            downloadDialog.setCancelable(true);
+            ProgressDialog downloadDialog = null;
+            if(showProgress && activity != null) {
+                downloadDialog = new ProgressDialog(activity);
+                downloadDialog.setMessage("Downloading "+sound.name);
+                downloadDialog.setIndeterminate(true);
+                downloadDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+                downloadDialog.setCancelable(true);
+            }
 
             final DownloadSoundTask downloadSoundTask = new DownloadSoundTask(context, this, downloadDialog);
 
-            downloadDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            if(downloadDialog != null) {
+                downloadDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+                    @Override
+                    public void onCancel(DialogInterface dialog) {
+                        downloadSoundTask.cancel(true);
+                        // a cancelled task doesn't report back
+                        ACTIVE_DOWNLOADS.set(--activeDownloads);
+                        updateForeground();
+                    }
+                });
+                // the task shows it, this way it's dismissed when the activity goes
+                track(downloadDialog);
+            }
+
+            ACTIVE_DOWNLOADS.set(++activeDownloads);
+            TaskScheduler.execute(this, TaskScheduler.USER, downloadSoundTask, sound);
+            updateForeground();
+        } else {
+            Toast.makeText(context, R.string.msg_no_wifi_connection, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Copies local files into the media directory in the background and adds them to the board
+     * @param sources Files and folders, folders are searched for sound files
+     */
+    public void importSounds(File... sources) {
+        if(importTask != null) {
+            Toast.makeText(context, R.string.msg_import_running, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final ImportSoundsTask task = new ImportSoundsTask(MEDIA_PATH, this);
+        if(activity != null) {
+            importDialog = new ProgressDialog(activity);
+            importDialog.setMessage(context.getString(R.string.msg_importing));
+            importDialog.setIndeterminate(true);
+            importDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            importDialog.setMax(100);
+            importDialog.setCancelable(true);
+            importDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
                 @Override
                 public void onCancel(DialogInterface dialog) {
-                    downloadSoundTask.cancel(true);
+                    // stops after the current chunk, the files which are done are kept
+                    task.cancel(false);
                 }
             });
+            show(importDialog);
+        }
+        importTask = task;
+        TaskScheduler.execute(this, TaskScheduler.USER, task, sources);
+        updateForeground();
+    }
 
-            downloadSoundTask.execute(sound);
+    @Override
+    public void onImportProgress(ImportSoundsTask.Progress progress) {
+        if(importDialog == null) return;
+        importDialog.setIndeterminate(false);
+        importDialog.setProgress(progress.getPercentage());
+        if(progress.currentFile != null) {
+            importDialog.setMessage(context.getString(R.string.msg_importing_file,
+                    Math.min(progress.filesDone + 1, progress.totalFiles), progress.totalFiles, progress.currentFile));
+        }
+    }
+
+    @Override
+    public void onImportDone(List<Sound> sounds, int failed, boolean cancelled) {
+        importTask = null;
+        if(importDialog != null && importDialog.isShowing()) importDialog.dismiss();
+        importDialog = null;
+        updateForeground();
+        for(Sound sound : sounds) {
+            fileIndex.add(sound.getLocalFileName());
+        }
+        // all new sounds in one transaction
+        if(!sounds.isEmpty()) repository.insertAll(sounds);
+        Log.d(TAG, "Imported "+sounds.size()+" sounds, "+failed+" failed, cancelled: "+cancelled);
+        if(cancelled) {
+            Toast.makeText(context, context.getString(R.string.msg_import_cancelled, sounds.size()), Toast.LENGTH_SHORT).show();
+        } else if(failed > 0) {
+            Toast.makeText(context, context.getString(R.string.msg_import_failed, sounds.size(), failed), Toast.LENGTH_LONG).show();
+        } else if(sounds.isEmpty()) {
+            Toast.makeText(context, R.string.msg_import_nothing, Toast.LENGTH_SHORT).show();
         } else {
-            Toast.makeText(context, R.string.msg_no_wifi_connection, Toast.LENGTH_SHORT).show();
+            Toast.makeText(context, context.getString(R.string.msg_import_done, sounds.size()), Toast.LENGTH_SHORT).show();
         }
     }
 
     public void syncWithServer() {
         if(Utils.deviceHasInternet(context)) {
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            int timestamp = (prefs.getInt(Config.Preferences.LAST_SYNC_TIME, 0));
+            // the preferences are read from disk the first time
+            MainThreadIoMonitor.Probe probe = MainThreadIoMonitor.enter(MainThreadIoMonitor.DISK, "SoundManager.syncWithServer");
+            int timestamp;
+            try {
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+                timestamp = (prefs.getInt(Config.Preferences.LAST_SYNC_TIME, 0));
+            } finally {
+                MainThreadIoMonitor.exit(probe);
+            }
             Log.d(TAG, "Latest sync time: "+timestamp);
             Log.d(TAG, "Starting synchronization");
-            new GetChangesTask(this).execute(timestamp);
+            syncing = true;
+            syncStarted = MetricsRegistry.Timer.start();
+            TaskScheduler.execute(this, TaskScheduler.BACKGROUND, new GetChangesTask(this), timestamp);
         } else {
             Toast.makeText(context, R.string.msg_no_internet, Toast.LENGTH_SHORT).show();
         }
     }
 
     public void destroy() {
+        handler.removeCallbacks(scanRunnable);
+        handler.removeCallbacks(trimEndRunnable);
+        if(importTask != null) importTask.cancel(false);
+        // downloads, syncs and deletes don't report back anymore
+        TaskScheduler.cancelAll(this);
+        TaskScheduler.cancelAll(pager);
+        if(activity != null) detach(activity);
         if(mp != null) {
             mp.stop();
             mp.release();
         }
+        focus.release();
+        if(foreground) PlaybackService.stop(context);
+        repository.removeObserver(this);
+        repository.shutdown();
+        fileIndex.stopWatching();
+        coverIndex.stopWatching();
+        coverLoader.shutdown();
+        waveforms.shutdown();
+        playStats.shutdown();
+        boards.shutdown();
+        sequencer.release();
+        soundsDB.close();
     }
 
     public void deleteSound(int position) {
+        Sound sound = pager.getSound(position);
+        if(sound == null) return;
         // Make DELETE request to server to delete the sound, and if server deleted then handle onDeleted
-        new DeleteSoundTask(this, context).execute(sounds.get(position));
+        TaskScheduler.execute(this, TaskScheduler.USER, new DeleteSoundTask(this, context), new Sound(sound));
     }
 
     @Override
     public void onPrepared(MediaPlayer mp) {
+        if(playingTrimStartMs > 0) {
+            // the leading silence is skipped, the file stays as it is. Seeking is asynchronous,
+            // starting right away would play the first bit of silence
+            seeking = true;
+            mp.seekTo(playingTrimStartMs);
+        } else {
+            startPlayback();
+        }
+    }
+
+    @Override
+    public void onSeekComplete(MediaPlayer mp) {
+        if(!seeking) return;
+        seeking = false;
+        startPlayback();
+    }
+
+    private void startPlayback() {
+        applyVolume();
         mp.start();
+        if(playingTrimEndMs > playingTrimStartMs) {
+            handler.postDelayed(trimEndRunnable, playingTrimEndMs - playingTrimStartMs);
+        }
+        updateForeground();
     }
 
     @Override
     public void onCompletion(MediaPlayer mp) {
+        handler.removeCallbacks(trimEndRunnable);
+        seeking = false;
         mp.reset();
+        waveforms.setPlaying(false);
+        onPlaybackStopped();
     }
 
     @Override
     public void onDeleted(Sound sound) {
         // The sound is deleted on server. Now delete locally from db and the file itself
-        soundsDB.deleteSound(sound.id);
+        repository.delete(sound.id);
         sound.deleteFileIfExists();
-        syncLocalSounds();
+        fileIndex.remove(sound.getLocalFileName());
         Toast.makeText(context, "Deleted "+sound.name, Toast.LENGTH_SHORT).show();
-        soundsDB.close();
     }
 
     @Override
     public void onDownloadDone(Sound sound) {
         Log.d(TAG, "sound finished downloading - Sound{ downloaded: "+sound.isDownloaded()+", localfilename: "+sound.getLocalFileName()+" }");
-        soundsDB.updateSound(sound);
-        syncLocalSounds();
+        ACTIVE_DOWNLOADS.set(--activeDownloads);
+        updateForeground();
+        fileIndex.add(sound.getLocalFileName());
+        sound.setEvicted(false);
+        // the new file is analyzed again, the task stored its modified time and size so the scanner
+        // doesn't see the download as a changed file
+        sound.trimStartMs = 0;
+        sound.trimEndMs = 0;
+        repository.update(sound);
+        if(sound.id == playWhenDownloaded) {
+            playWhenDownloaded = -1;
+            play(sound);
+        }
+        enforceStorageBudget();
     }
 
     @Override
     public void onDownloadFailed(int status) {
+        ACTIVE_DOWNLOADS.set(--activeDownloads);
+        updateForeground();
+        playWhenDownloaded = -1;
         Toast.makeText(context, R.string.mdg_could_not_download_sound, Toast.LENGTH_SHORT).show();
     }
 
     @Override
     public void onSoundNotFound(Sound sound) {
+        ACTIVE_DOWNLOADS.set(--activeDownloads);
+        updateForeground();
         Toast.makeText(context, R.string.sound_deleted_on_server, Toast.LENGTH_SHORT).show();
-        soundsDB.deleteSound(sound.id);
+        repository.delete(sound.id);
         sound.deleteFileIfExists();
-        syncLocalSounds();
+        fileIndex.remove(sound.getLocalFileName());
     }
 
     @Override
-    public void onHttpSuccess(JSONArray json_sounds) {
-        // request was done and JSONArray could be made
-        if(json_sounds.length() > 0) {
-            try {
-                // Go through all sounds and store in array
-                for(int i = 0; i < json_sounds.length(); ++i) {
-                    JSONObject sound_info = json_sounds.getJSONObject(i);
-                    Sound sound = new Sound();
-                    sound.remote_id     = sound_info.getInt("id");
-                    sound.name          = sound_info.getString("name");
-                    sound.setRemoteFileName(sound_info.getString("filename"));
-                    sound.downloadLink  = sound_info.getString("download_link");
-                    sound.createdAt     = sound_info.getInt("created_at");
-                    sound.updatedAt     = sound_info.getInt("updated_at");
-                    long new_id = soundsDB.createSound(sound);
-                    Log.d(TAG, "Sound with id ["+new_id+"] added to database - "+sound);
-                }
-                syncLocalSounds();
-            } catch(JSONException e) {
-                Log.d(TAG, "Could not retrieve JSONObject: "+e.getMessage());
-                e.printStackTrace();
-            }
+    public void onHttpSuccess(List<Sound> newSounds) {
+        syncing = false;
+        SYNC_TIME.stop(syncStarted);
+        SYNC_SOUNDS.add(newSounds.size());
+        // request was done and the sounds were parsed in the background
+        if(newSounds.size() > 0) {
+            // Known sounds are updated, new sounds are inserted in one transaction
+            repository.sync(newSounds);
+            Log.d(TAG, newSounds.size()+" sounds received from server");
         } else {
             Toast.makeText(context, "Already synced with server!", Toast.LENGTH_SHORT).show();
         }
@@ -244,33 +930,101 @@ public class SoundManager implements MediaPlayer.OnPreparedListener, MediaPlayer
 
     @Override
     public void onHttpFailed(int status, String result) {
+        syncing = false;
+        SYNC_FAILURES.inc();
         Toast.makeText(context, "HTTP Request failed with status: "+status, Toast.LENGTH_SHORT).show();
         Log.d(TAG, "onHttpFailed: "+result);
     }
 
-    public boolean deleteAllSounds(String yesiamsure) {
-        if(yesiamsure.equals("yesiamsure")) {
-            // Make sure we delete every file before deleting database data
-            for (Sound sound : sounds) {
-                sound.deleteFileIfExists();
+    /**
+     * Deletes every sound file in the background and empties the database afterwards,
+     * the listener hears {@link onSoundsArrayUpdateListener#allSoundsDeleted()} when it's done
+     */
+    public void deleteAllSounds(String yesiamsure) {
+        if(!yesiamsure.equals("yesiamsure")) return;
+        repository.whenWarm(new Runnable() {
+            @Override
+            public void run() {
+                final List<Sound> sounds = repository.getSnapshot();
+                TaskScheduler.execute(SoundManager.this, TaskScheduler.BACKGROUND, new Runnable() {
+                    @Override
+                    public void run() {
+                        // Make sure we delete every file before deleting database data
+                        for (Sound sound : sounds) {
+                            sound.deleteFileIfExists();
+                            fileIndex.remove(sound.getLocalFileName());
+                        }
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onFilesDeleted();
+                            }
+                        });
+                    }
+                });
             }
-            if(soundsDB.deleteAllSounds(true)) {
-                syncLocalSounds();
-                return true;
+        });
+    }
+
+    private void onFilesDeleted() {
+        repository.deleteAll();
+        waveforms.deleteAll();
+        repository.afterPendingWrites(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "All sounds deleted");
+                if(listener != null) listener.allSoundsDeleted();
             }
-        }
-        return false;
+        });
+    }
+
+    /**
+     * @return true while the changes of the server are being fetched
+     */
+    public boolean isSyncing() {
+        return syncing;
+    }
+
+    /**
+     * @return The number of sounds being downloaded right now
+     */
+    public int getActiveDownloads() {
+        return activeDownloads;
     }
 
     public boolean isPlaying() {
-        return mp.isPlaying();
+        return mp.isPlaying() || seeking;
     }
 
     public void stopPlaying() {
+        handler.removeCallbacks(trimEndRunnable);
+        seeking = false;
         mp.reset();
+        waveforms.setPlaying(false);
+        onPlaybackStopped();
     }
 
     public interface onSoundsArrayUpdateListener {
+        /**
+         * The whole board changed, every visible cell needs to be bound again
+         */
         void soundsRenewed();
+
+        /**
+         * Only the sounds in the change set were inserted, removed or changed
+         * @param changes The sounds which changed, by id
+         */
+        void soundsChanged(SoundChangeSet changes);
+
+        /**
+         * The boards were loaded, created or deleted, or the number of sounds on one changed
+         * @param boards The boards in the order of their tabs, without the board with all sounds
+         */
+        void boardsChanged(List<Board> boards);
+
+        /**
+         * Every sound file is deleted and the database is empty
+         */
+        void allSoundsDeleted();
     }
 }
@@ -0,0 +1,584 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.AsyncTask;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * The SoundPager is the data source of the soundboard. Instead of loading every sound up front it
+ * only keeps the pages of sounds around the visible part of the grid in memory. Pages are loaded
+ * in the background, the pages ahead of the scroll direction are prefetched and pages far away
+ * from the visible part are recycled together with their Sound objects.
+ * Because of this a Sound handed out by the pager can be overwritten once it scrolls out of view,
+ * copy it with {@link Sound#Sound(Sound)} when it needs to live longer.
+ * Once the {@link SoundRepository} is warm the unfiltered board is served straight from its
+ * snapshot, pages are then only loaded for search results and boards ordered by statistics.
+ * The sounds of a {@link Board} are always loaded as pages, only the shown board is in memory. The first
+ * page of the boards next to it can be preloaded, so switching to them shows sounds right away.
+ */
+public class SoundPager {
+
+    private static final String TAG = SoundPager.class.getSimpleName();
+
+    /** Number of sounds in one page, a multiple of the number of grid columns */
+    public static final int PAGE_SIZE = 48;
+
+    /** Number of pages which are prefetched in the direction of scrolling */
+    private static final int PREFETCH_AHEAD = 2;
+
+    /** Number of pages which are kept behind the visible part */
+    private static final int PREFETCH_BEHIND = 1;
+
+    /** The maximum number of pages which are kept in memory */
+    private static final int MAX_PAGES = 6;
+
+    private final SoundsDatabaseHelper soundsDB;
+
+    private final OnPageLoadedListener listener;
+
+    /** The loaded pages by page index */
+    private final SparseArray<Page> pages = new SparseArray<>();
+
+    /** The pages which are currently being loaded by page index */
+    private final SparseArray<LoadPageTask> loading = new SparseArray<>();
+
+    /** Pages which are not used anymore, their Sound objects are reused for the next load */
+    private final ArrayDeque<Page> recycled = new ArrayDeque<>();
+
+    /** The total number of sounds, stays the old count until a reload knows the new count */
+    private int count;
+
+    /** Increased with every reset so results of stale loads can be ignored */
+    private int generation;
+
+    /** The full text search query the board is filtered with, null to show all sounds */
+    @Nullable
+    private String filter;
+
+    /** The text the user searched for, so a recreated search box shows it again */
+    @Nullable
+    private String filterInput;
+
+    /** The order of the board, one of the SoundsDatabaseHelper.ORDER_ constants */
+    private int order = SoundsDatabaseHelper.ORDER_DEFAULT;
+
+    /** The board which is shown, {@link Board#ALL_SOUNDS} for every sound */
+    private long board = Board.ALL_SOUNDS;
+
+    /** The first pages of other boards by board id, with the number of sounds on them */
+    private final LongSparseArray<Preload> preloaded = new LongSparseArray<>();
+    private final LongSparseArray<LoadPageTask> preloading = new LongSparseArray<>();
+
+    /** Increased when the preloaded pages went stale */
+    private int preloadGeneration;
+
+    /** The snapshot of the repository, null while the repository isn't warm */
+    @Nullable
+    private List<Sound> snapshot;
+
+    private int firstVisible;
+    private int lastVisible;
+    private boolean scrollingForward = true;
+
+    public SoundPager(SoundsDatabaseHelper soundsDB, OnPageLoadedListener listener) {
+        this.soundsDB = soundsDB;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the snapshot of the warm repository, the unfiltered board is served from it
+     */
+    public void setSnapshot(List<Sound> snapshot) {
+        this.snapshot = snapshot;
+        if(usesSnapshot()) count = snapshot.size();
+    }
+
+    /**
+     * @return true if the board is served from the repository snapshot instead of loaded pages
+     */
+    private boolean usesSnapshot() {
+        return snapshot != null && filter == null && order == SoundsDatabaseHelper.ORDER_DEFAULT && board == Board.ALL_SOUNDS;
+    }
+
+    /**
+     * @return The total number of sounds on the board
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the sound at the given position. When the page of this sound isn't loaded yet it gets
+     * scheduled for loading and null is returned, the listener is notified when it's available
+     * @param position The position on the board
+     * @return The sound or null if not (yet) loaded
+     */
+    @Nullable
+    public Sound getSound(int position) {
+        if(position < 0 || position >= count) return null;
+        if(usesSnapshot()) return snapshot.get(position);
+        int index = position / PAGE_SIZE;
+        Page page = pages.get(index);
+        if(page == null) {
+            loadPage(index, false);
+            return null;
+        }
+        int offset = position % PAGE_SIZE;
+        return (offset < page.size) ? page.sounds[offset] : null;
+    }
+
+    /**
+     * Get the id of the sound at the given position, for compact boards without creating a Sound
+     * @param position The position on the board
+     * @return The id or -1 if not (yet) loaded
+     */
+    public long getSoundId(int position) {
+        if(position < 0 || position >= count) return -1;
+        if(usesSnapshot() && snapshot instanceof CompactSoundBoard) {
+            return ((CompactSoundBoard) snapshot).getId(position);
+        }
+        Sound sound = getSound(position);
+        return (sound != null) ? sound.id : -1;
+    }
+
+    /**
+     * Should be called when the visible part of the grid changes, this loads the pages around the
+     * visible positions and recycles the pages which are too far away
+     * @param firstPosition The first visible position
+     * @param visibleCount The number of visible positions
+     */
+    public void onVisibleRangeChanged(int firstPosition, int visibleCount) {
+        if(firstPosition != firstVisible) {
+            scrollingForward = firstPosition > firstVisible;
+        }
+        firstVisible = firstPosition;
+        lastVisible = firstPosition + Math.max(visibleCount - 1, 0);
+        if(usesSnapshot()) return;
+
+        int first = firstWantedPage();
+        int last = lastWantedPage();
+        for(int index = first; index <= last; ++index) {
+            if(pages.get(index) == null) loadPage(index, false);
+        }
+        trimPages(first, last);
+    }
+
+    /**
+     * Updates the loaded copy of a sound in place, so the cell can be rebound without reloading
+     * @param updated The sound with the new data
+     * @return true if the sound was loaded
+     */
+    public boolean updateLoadedSound(Sound updated) {
+        for(int i = 0; i < pages.size(); ++i) {
+            Page page = pages.valueAt(i);
+            for(int j = 0; j < page.size; ++j) {
+                if(page.sounds[j].id == updated.id) {
+                    if(page.sounds[j] != updated) page.sounds[j].copyFrom(updated);
+                    return true;
+                }
+            }
+        }
+        // the sound may be on a preloaded page as well
+        for(int i = 0; i < preloaded.size(); ++i) {
+            Page page = preloaded.valueAt(i).page;
+            for(int j = 0; j < page.size; ++j) {
+                if(page.sounds[j].id == updated.id && page.sounds[j] != updated) page.sounds[j].copyFrom(updated);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the position of a sound on the board, as far as it's known
+     * @param id The id of the sound
+     * @return The position or -1 if the sound isn't on the board or its page isn't loaded
+     */
+    public int getPosition(long id) {
+        if(usesSnapshot()) {
+            if(snapshot instanceof CompactSoundBoard) return ((CompactSoundBoard) snapshot).indexOfId(id);
+            // the snapshot is ordered by id
+            int low = 0;
+            int high = snapshot.size() - 1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                long midId = snapshot.get(mid).id;
+                if(midId < id) {
+                    low = mid + 1;
+                } else if(midId > id) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+        for(int i = 0; i < pages.size(); ++i) {
+            Page page = pages.valueAt(i);
+            for(int j = 0; j < page.size; ++j) {
+                if(page.sounds[j].id == id) return pages.keyAt(i) * PAGE_SIZE + j;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Applies sounds which were inserted or removed. When the board is ordered by id, pages which
+     * only hold sounds with a lower id than every inserted or removed sound keep their positions and
+     * stay loaded, only the pages after them are reloaded
+     * @param changes The changes which were made to the database
+     */
+    public void applyChanges(SoundChangeSet changes) {
+        if(!changes.isStructural()) return;
+        dropPreloads();
+        if(usesSnapshot()) {
+            count = snapshot.size();
+            return;
+        }
+        if(filter != null || order != SoundsDatabaseHelper.ORDER_DEFAULT || board != Board.ALL_SOUNDS) {
+            // search results are ranked, statistics can move any position and boards only hold some of the sounds
+            reset();
+            return;
+        }
+        ++generation;
+        for(int i = 0; i < loading.size(); ++i) {
+            loading.valueAt(i).cancel(false);
+        }
+        loading.clear();
+
+        long lowestId = changes.getLowestStructuralId();
+        for(int i = pages.size() - 1; i >= 0; --i) {
+            Page page = pages.valueAt(i);
+            boolean unaffected = page.size == PAGE_SIZE && page.sounds[page.size - 1].id < lowestId;
+            if(!unaffected) {
+                recycled.push(page);
+                pages.removeAt(i);
+            }
+        }
+        count = Math.max(count + changes.getInserted().size() - changes.getRemoved().size(), 0);
+
+        int first = firstWantedPage();
+        int last = lastWantedPage();
+        for(int index = first; index <= last; ++index) {
+            loadPage(index, false);
+        }
+    }
+
+    /**
+     * Filters the board on sound name, the pages are reloaded with the search results.
+     * Loads for the previous filter which didn't run yet are cancelled
+     * @param input The text the user searched for, null or empty to show all sounds
+     */
+    public void setFilter(@Nullable String input) {
+        String query = SoundsDatabaseHelper.buildSearchQuery(input);
+        filterInput = (query != null) ? input : null;
+        if(query == null ? filter == null : query.equals(filter)) return;
+        filter = query;
+        // results are shown from the top
+        firstVisible = 0;
+        lastVisible = 0;
+        reset();
+    }
+
+    /**
+     * Changes the order of the board, the pages are reloaded from the top.
+     * Search results keep their ranking
+     * @param order One of the SoundsDatabaseHelper.ORDER_ constants
+     */
+    public void setOrder(int order) {
+        this.order = order;
+        dropPreloads();
+        firstVisible = 0;
+        lastVisible = 0;
+        reset();
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * Shows the sounds of another board from the top, with the search and the order which are set.
+     * The pages of the previous board are recycled
+     * @param board The id of the board or {@link Board#ALL_SOUNDS}
+     */
+    public void setBoard(long board) {
+        if(this.board == board) return;
+        this.board = board;
+        firstVisible = 0;
+        lastVisible = 0;
+        reset();
+    }
+
+    public long getBoard() {
+        return board;
+    }
+
+    /**
+     * Should be called when sounds were put on a board or taken off, or the board was deleted
+     */
+    public void onBoardChanged(long boardId) {
+        Preload preload = preloaded.get(boardId);
+        if(preload != null) {
+            recycled.push(preload.page);
+            preloaded.remove(boardId);
+        }
+        LoadPageTask task = preloading.get(boardId);
+        if(task != null) {
+            task.cancel(false);
+            preloading.remove(boardId);
+        }
+        if(boardId == board) reset();
+    }
+
+    /**
+     * Loads the first page of other boards in the background, like the boards next to the shown one.
+     * Preloaded pages of boards which aren't asked for anymore are recycled. Nothing is preloaded while
+     * the board is searched, the search would have to run for every board
+     * @param boards The ids of the boards
+     */
+    public void preloadBoards(long... boards) {
+        for(int i = preloaded.size() - 1; i >= 0; --i) {
+            if(filter == null && contains(boards, preloaded.keyAt(i))) continue;
+            recycled.push(preloaded.valueAt(i).page);
+            preloaded.removeAt(i);
+        }
+        for(int i = preloading.size() - 1; i >= 0; --i) {
+            if(filter == null && contains(boards, preloading.keyAt(i))) continue;
+            preloading.valueAt(i).cancel(false);
+            preloading.removeAt(i);
+        }
+        if(filter != null) return;
+        for(long id : boards) {
+            if(id == board || preloaded.get(id) != null || preloading.get(id) != null) continue;
+            // every sound is in the snapshot already
+            if(id == Board.ALL_SOUNDS && snapshot != null && order == SoundsDatabaseHelper.ORDER_DEFAULT) continue;
+            Page page = recycled.isEmpty() ? new Page() : recycled.pop();
+            LoadPageTask task = new LoadPageTask(0, page, true, preloadGeneration, null, order, id, true);
+            preloading.put(id, task);
+            TaskScheduler.execute(this, TaskScheduler.BACKGROUND, task);
+        }
+    }
+
+    private static boolean contains(long[] values, long value) {
+        for(long v : values) {
+            if(v == value) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Recycles the preloaded pages, they don't match the database anymore
+     */
+    private void dropPreloads() {
+        ++preloadGeneration;
+        for(int i = 0; i < preloaded.size(); ++i) {
+            recycled.push(preloaded.valueAt(i).page);
+        }
+        preloaded.clear();
+        for(int i = 0; i < preloading.size(); ++i) {
+            preloading.valueAt(i).cancel(false);
+        }
+        preloading.clear();
+    }
+
+    /**
+     * @return true if the board is filtered with a search query
+     */
+    public boolean isFiltered() {
+        return filter != null;
+    }
+
+    /**
+     * @return The text the board is filtered with, null when it isn't filtered
+     */
+    @Nullable
+    public String getFilterInput() {
+        return filterInput;
+    }
+
+    /**
+     * Drops all loaded pages and reloads the count and the visible pages from the database.
+     * Loads which are still running are cancelled
+     */
+    public void reset() {
+        ++generation;
+        for(int i = 0; i < loading.size(); ++i) {
+            // the page is recycled in onCancelled when the task really stopped using it
+            loading.valueAt(i).cancel(false);
+        }
+        loading.clear();
+        for(int i = 0; i < pages.size(); ++i) {
+            recycled.push(pages.valueAt(i));
+        }
+        pages.clear();
+
+        if(usesSnapshot()) {
+            count = snapshot.size();
+            listener.onPageLoaded();
+            return;
+        }
+
+        Preload preload = (filter == null && firstVisible < PAGE_SIZE) ? preloaded.get(board) : null;
+        if(preload != null) {
+            // the board was preloaded, its first page is shown right away and the rest loads as usual
+            preloaded.remove(board);
+            pages.put(0, preload.page);
+            count = preload.count;
+            listener.onPageLoaded();
+        } else {
+            loadPage(firstVisible / PAGE_SIZE, true);
+        }
+        int first = firstWantedPage();
+        int last = lastWantedPage();
+        for(int index = first; index <= last; ++index) {
+            loadPage(index, false);
+        }
+    }
+
+    private int firstWantedPage() {
+        return Math.max(firstVisible / PAGE_SIZE - (scrollingForward ? PREFETCH_BEHIND : PREFETCH_AHEAD), 0);
+    }
+
+    private int lastWantedPage() {
+        int last = lastVisible / PAGE_SIZE + (scrollingForward ? PREFETCH_AHEAD : PREFETCH_BEHIND);
+        int lastPage = (count > 0) ? (count - 1) / PAGE_SIZE : 0;
+        return Math.min(last, lastPage);
+    }
+
+    private void loadPage(int index, boolean withCount) {
+        if(pages.get(index) != null || loading.get(index) != null) return;
+        Page page = recycled.isEmpty() ? new Page() : recycled.pop();
+        LoadPageTask task = new LoadPageTask(index, page, withCount, generation, filter, order, board, false);
+        loading.put(index, task);
+        TaskScheduler.execute(this, TaskScheduler.INTERACTIVE, task);
+    }
+
+    /**
+     * Recycles pages outside of the wanted range, furthest away first, until at most MAX_PAGES are left
+     */
+    private void trimPages(int first, int last) {
+        while(pages.size() > MAX_PAGES) {
+            int furthest = -1;
+            int distance = 0;
+            for(int i = 0; i < pages.size(); ++i) {
+                int index = pages.keyAt(i);
+                int d = (index < first) ? first - index : index - last;
+                if(d > distance) {
+                    distance = d;
+                    furthest = index;
+                }
+            }
+            if(furthest < 0) return;
+            recycled.push(pages.get(furthest));
+            pages.remove(furthest);
+        }
+    }
+
+    private void onPageLoaded(LoadPageTask task, int total) {
+        if(loading.get(task.index) == task) loading.remove(task.index);
+        if(task.generation != generation) {
+            recycled.push(task.page);
+            return;
+        }
+        if(total >= 0) count = total;
+        pages.put(task.index, task.page);
+        trimPages(firstWantedPage(), lastWantedPage());
+        listener.onPageLoaded();
+    }
+
+    private void onPreloaded(LoadPageTask task, int total) {
+        if(preloading.get(task.board) != task || task.generation != preloadGeneration || task.board == board) {
+            recycled.push(task.page);
+            return;
+        }
+        preloading.remove(task.board);
+        preloaded.put(task.board, new Preload(task.page, total));
+        Log.d(TAG, "Preloaded board "+task.board+" with "+total+" sounds");
+    }
+
+    /**
+     * A page of sounds, the sounds array is reused when the page is recycled
+     */
+    private static class Page {
+        final Sound[] sounds = new Sound[PAGE_SIZE];
+        int size;
+    }
+
+    /**
+     * The first page of a board which isn't shown yet
+     */
+    private static class Preload {
+        final Page page;
+        final int count;
+
+        Preload(Page page, int count) {
+            this.page = page;
+            this.count = count;
+        }
+    }
+
+    private class LoadPageTask extends AsyncTask<Void, Void, Integer> {
+
+        final int index;
+        final Page page;
+        final boolean withCount;
+        final int generation;
+        @Nullable
+        final String filter;
+        final int order;
+        final long board;
+        /** Loads the first page of a board which isn't shown */
+        final boolean preload;
+
+        LoadPageTask(int index, Page page, boolean withCount, int generation, @Nullable String filter, int order, long board, boolean preload) {
+            this.index = index;
+            this.page = page;
+            this.withCount = withCount;
+            this.generation = generation;
+            this.filter = filter;
+            this.order = order;
+            this.board = board;
+            this.preload = preload;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            int total = -1;
+            if(withCount) {
+                total = (filter != null) ? soundsDB.countSearchResults(filter, board) : soundsDB.getBoardSoundCount(board);
+            }
+            if(isCancelled()) return total;
+            page.size = (filter != null)
+                    ? soundsDB.searchSounds(filter, board, index * PAGE_SIZE, page.sounds)
+                    : soundsDB.getSoundsPage(board, index * PAGE_SIZE, page.sounds, order);
+            Log.d(TAG, "Loaded page "+index+" of board "+board+" with "+page.size+" sounds");
+            return total;
+        }
+
+        @Override
+        protected void onPostExecute(Integer total) {
+            if(preload) {
+                onPreloaded(this, total);
+            } else {
+                onPageLoaded(this, total);
+            }
+        }
+
+        @Override
+        protected void onCancelled(Integer total) {
+            recycled.push(page);
+        }
+    }
+
+    public interface OnPageLoadedListener {
+        /**
+         * Called on the UI thread when new sounds became available
+         */
+        void onPageLoaded();
+    }
+}
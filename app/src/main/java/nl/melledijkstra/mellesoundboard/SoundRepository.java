@@ -0,0 +1,700 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SoundRepository is the single source of truth for the sounds. It keeps every sound in memory,
+ * indexed by id and by remote id, and writes every change through to the database on a background
+ * thread. After the warm-up reads never touch the database.
+ *
+ * All methods must be called from the main thread. Observers get an immutable snapshot of the
+ * board together with the changes since the previous snapshot; changes made within a short time
+ * are sent as one change set. Sound objects in a snapshot are never modified, an updated sound
+ * replaces the old object in the next snapshot.
+ *
+ * Boards larger than {@link Config#COMPACT_BOARD_THRESHOLD} are kept in a {@link CompactSoundBoard}
+ * instead, which is copied on the first change after it was handed out as a snapshot.
+ *
+ * The board is saved to a snapshot file when the app goes to the background. On the next start
+ * that snapshot is shown right away, the database load which follows is sent as the changes since
+ * the snapshot. Until the database is loaded the repository is only good for showing the board,
+ * changes wait for the load.
+ */
+public class SoundRepository {
+
+    private static final String TAG = SoundRepository.class.getSimpleName();
+
+    /** Changes made within this time are sent to the observers as one change set */
+    private static final long CHANGE_DISPATCH_DELAY_MS = 100;
+
+    private final SoundsDatabaseHelper soundsDB;
+
+    /** The board of the previous run */
+    private final File snapshotFile;
+
+    /** The sounds ordered by id, only modified on the main thread */
+    private final ArrayList<Sound> sounds = new ArrayList<>();
+    private final LongSparseArray<Sound> byId = new LongSparseArray<>();
+    private final LongSparseArray<Sound> byRemoteId = new LongSparseArray<>();
+
+    /** The board when it's too large to keep as Sound objects, null otherwise */
+    @Nullable
+    private CompactSoundBoard compact;
+
+    /** Whether the compact board was handed out as snapshot and has to be copied before changing it */
+    private boolean compactShared;
+
+    /** The last snapshot which was sent to the observers, read by the database thread to compare a reload with */
+    private volatile List<Sound> snapshot = Collections.emptyList();
+
+    /** Whether the sounds of the database are loaded, not just the snapshot file */
+    private boolean warm;
+
+    /** Whether the board changed since it was saved to the snapshot file */
+    private boolean snapshotDirty;
+
+    /** Work which needs a complete cache and was requested before the warm-up finished */
+    private final ArrayList<Runnable> afterWarmUp = new ArrayList<>();
+
+    private final ArrayList<Observer> observers = new ArrayList<>();
+
+    /**
+     * Database reads and writes run on this thread in the order they were requested. It's not a lane of the
+     * {@link TaskScheduler} because {@link #shutdown()} waits until the last writes are done
+     */
+    private final ThreadPoolExecutor dbExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private SoundChangeSet pendingChanges = new SoundChangeSet();
+
+    /** Counts the changes made to the cache, a reload which was read before some of them loads again */
+    private int cacheChanges;
+
+    private final Runnable dispatchChanges = new Runnable() {
+        @Override
+        public void run() {
+            SoundChangeSet changes = pendingChanges;
+            pendingChanges = new SoundChangeSet();
+            if(changes.isEmpty()) return;
+            Log.d(TAG, "Dispatching "+changes);
+            publish(changes);
+        }
+    };
+
+    public SoundRepository(SoundsDatabaseHelper soundsDB, File snapshotFile) {
+        this.soundsDB = soundsDB;
+        this.snapshotFile = snapshotFile;
+        MetricsRegistry.gauge("scheduler.repository.queued", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long read() {
+                return dbExecutor.getQueue().size();
+            }
+        });
+    }
+
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Loads all sounds from the database in the background, observers are notified when done.
+     * This also reloads the cache when it's already warm, observers then get the differences
+     */
+    public void warmUp() {
+        warmUp(null, null);
+    }
+
+    /**
+     * Shows the board of the snapshot file and loads all sounds from the database in the background
+     * @param prepare Runs on the database thread before anything is read, like creating directories
+     * @param withoutSnapshot Runs on the main thread when there is no snapshot to show
+     */
+    public void warmUp(@Nullable final Runnable prepare, @Nullable final Runnable withoutSnapshot) {
+        final boolean first = !warm && snapshot.isEmpty();
+        final int changesAtRead = cacheChanges;
+        dbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(prepare != null) prepare.run();
+                List<Sound> previous = snapshot;
+                if(first) {
+                    final CompactSoundBoard seed = readSnapshot();
+                    if(seed != null) {
+                        previous = seed;
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                seed(seed);
+                            }
+                        });
+                    } else if(withoutSnapshot != null) {
+                        handler.post(withoutSnapshot);
+                    }
+                }
+
+                final CompactSoundBoard board;
+                final ArrayList<Sound> loaded;
+                if(soundsDB.getSoundCount() > Config.COMPACT_BOARD_THRESHOLD) {
+                    board = soundsDB.getCompactBoard();
+                    loaded = new ArrayList<>();
+                } else {
+                    board = null;
+                    loaded = soundsDB.getAllSounds();
+                }
+                // a board which is shown already only gets the differences
+                final SoundChangeSet changes = previous.isEmpty() ? null : diff(previous, (board != null) ? board : loaded);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        install(loaded, board, changes, changesAtRead);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows the board of the previous run until the database is loaded
+     */
+    private void seed(CompactSoundBoard board) {
+        if(warm) return;
+        compact = board;
+        compactShared = false;
+        Log.d(TAG, "Showing snapshot of "+board.size()+" sounds");
+        publish(null);
+        snapshotDirty = false;
+        StartupTimer.mark(StartupTimer.SNAPSHOT_SHOWN);
+    }
+
+    private void install(ArrayList<Sound> loaded, @Nullable CompactSoundBoard board, @Nullable SoundChangeSet changes, int changesAtRead) {
+        sounds.clear();
+        byId.clear();
+        byRemoteId.clear();
+        for(Sound sound : loaded) {
+            index(sound);
+            sounds.add(sound);
+        }
+        compact = board;
+        compactShared = false;
+        warm = true;
+        Log.d(TAG, "Repository warm with "+(compact != null ? compact.size()+" sounds in a compact board" : sounds.size()+" sounds"));
+        StartupTimer.mark(StartupTimer.DATABASE_LOADED);
+        // the pending changes were made to the cache that was just replaced, the diff with the published
+        // snapshot holds them, dispatching them later would send them twice. Changes made after the read
+        // are written after it too, they're in neither, so the board is loaded again
+        handler.removeCallbacks(dispatchChanges);
+        pendingChanges = new SoundChangeSet();
+        boolean missedChanges = cacheChanges != changesAtRead;
+        publish(changes);
+        if(missedChanges) {
+            Log.d(TAG, "The cache changed while it was loaded, loading it again");
+            warmUp();
+        }
+
+        ArrayList<Runnable> waiting = new ArrayList<>(afterWarmUp);
+        afterWarmUp.clear();
+        for(Runnable runnable : waiting) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * @return true if the sounds of the database are loaded, the snapshot of the last run doesn't count
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * @return The current board ordered by id, this list never changes
+     */
+    public List<Sound> getSnapshot() {
+        return snapshot;
+    }
+
+    @Nullable
+    public Sound getById(long id) {
+        if(compact != null) {
+            int position = compact.indexOfId(id);
+            return (position >= 0) ? compact.get(position) : null;
+        }
+        return byId.get(id);
+    }
+
+    /**
+     * @return The sound with this remote id, null when it's unknown. Local sounds have remote id 0 and are never returned
+     */
+    @Nullable
+    public Sound getByRemoteId(long remoteId) {
+        if(compact != null) return compact.getByRemoteId(remoteId);
+        return (remoteId != 0) ? byRemoteId.get(remoteId) : null;
+    }
+
+    /**
+     * Inserts sounds from the server, sounds which are already known by remote id are updated instead.
+     * When the cache isn't warm yet this waits for the warm-up
+     * @param incoming The sounds from the server
+     */
+    public void sync(final List<Sound> incoming) {
+        whenWarm(new Runnable() {
+            @Override
+            public void run() {
+                // the diff looks up every incoming sound in the remote id index instead of walking the board
+                SoundSyncDiff diff = SoundSyncDiff.compute(new SoundSyncDiff.Board() {
+                    @Override
+                    public Sound getByRemoteId(long remoteId) {
+                        return SoundRepository.this.getByRemoteId(remoteId);
+                    }
+                }, incoming);
+                for(Sound updated : diff.updates) {
+                    update(updated);
+                }
+                if(!diff.inserts.isEmpty()) insertAll(diff.inserts);
+            }
+        });
+    }
+
+    /**
+     * Inserts new sounds, they are added to the cache when the database generated their ids
+     * @param newSounds The sounds to insert, these objects are owned by the repository afterwards
+     */
+    public void insertAll(final List<Sound> newSounds) {
+        dbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                soundsDB.createSounds(newSounds);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for(Sound sound : newSounds) {
+                            // new ids are always the highest so this keeps the board ordered
+                            if(compact != null) {
+                                writableCompact().append(sound);
+                            } else {
+                                index(sound);
+                                sounds.add(sound);
+                            }
+                            pendingChanges.addInserted(sound.id);
+                        }
+                        postChanges();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replaces a sound in the cache and writes it to the database
+     * @param sound The updated sound, this object is owned by the repository afterwards
+     */
+    public void update(final Sound sound) {
+        if(!warm) {
+            whenWarm(new Runnable() {
+                @Override
+                public void run() {
+                    update(sound);
+                }
+            });
+            return;
+        }
+        int position = positionOf(sound.id);
+        if(position < 0) {
+            Log.d(TAG, "Can't update unknown sound "+sound);
+            return;
+        }
+        if(compact != null) {
+            writableCompact().replace(position, sound);
+        } else {
+            unindex(sounds.get(position));
+            sounds.set(position, sound);
+            index(sound);
+        }
+        pendingChanges.addChanged(sound.id);
+        postChanges();
+        dbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                soundsDB.updateSound(sound);
+            }
+        });
+    }
+
+    /**
+     * Removes a sound from the cache and the database, the file is not deleted
+     * @param id The id of the sound to remove
+     */
+    public void delete(final long id) {
+        if(!warm) {
+            whenWarm(new Runnable() {
+                @Override
+                public void run() {
+                    delete(id);
+                }
+            });
+            return;
+        }
+        int position = positionOf(id);
+        if(position >= 0) {
+            if(compact != null) {
+                writableCompact().removeAt(position);
+            } else {
+                unindex(sounds.remove(position));
+            }
+            pendingChanges.addRemoved(id);
+            postChanges();
+        }
+        dbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                soundsDB.deleteSound(id);
+            }
+        });
+    }
+
+    /**
+     * Removes all sounds from the cache and the database, observers are notified when the database is empty
+     */
+    public void deleteAll() {
+        compact = null;
+        sounds.clear();
+        byId.clear();
+        byRemoteId.clear();
+        handler.removeCallbacks(dispatchChanges);
+        pendingChanges = new SoundChangeSet();
+        dbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                soundsDB.deleteAllSounds(true);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        publish(null);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Writes the board to the snapshot file in the background if it changed since the last time,
+     * call this when the app goes to the background
+     */
+    public void saveSnapshot() {
+        if(!warm || !snapshotDirty || dbExecutor.isShutdown()) return;
+        snapshotDirty = false;
+        final List<Sound> board = snapshot;
+        dbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeSnapshot(board);
+            }
+        });
+    }
+
+    /**
+     * Reconciles the board with the media directory. The scan runs on the database thread after the pending
+     * writes, sounds for new files are inserted and local sounds of which the file is gone are removed
+     */
+    public void scanMediaDirectory(final MediaScanner scanner) {
+        whenWarm(new Runnable() {
+            @Override
+            public void run() {
+                dbExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final MediaScanner.Result result = scanner.scan();
+                        if(result.isEmpty()) {
+                            scanner.commit(result);
+                            return;
+                        }
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if(!result.added.isEmpty()) insertAll(result.added);
+                                for(long id : result.removed) {
+                                    delete(id);
+                                }
+                                for(long id : result.changed) {
+                                    Sound existing = getById(id);
+                                    if(existing == null) continue;
+                                    // the new file is analyzed again
+                                    Sound sound = new Sound(existing);
+                                    sound.trimStartMs = 0;
+                                    sound.trimEndMs = 0;
+                                    update(sound);
+                                }
+                                postChanges();
+                                // after the inserts are written
+                                dbExecutor.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        scanner.commit(result);
+                                    }
+                                });
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stores the audible part of a sound which was found by the {@link SilenceDetector}
+     */
+    public void setTrim(final long id, final int startMs, final int endMs) {
+        whenWarm(new Runnable() {
+            @Override
+            public void run() {
+                Sound existing = getById(id);
+                if(existing == null || (existing.trimStartMs == startMs && existing.trimEndMs == endMs)) return;
+                Sound sound = new Sound(existing);
+                sound.trimStartMs = startMs;
+                sound.trimEndMs = endMs;
+                update(sound);
+            }
+        });
+    }
+
+    /**
+     * Deletes the files of the least valuable downloads when they take more space than the budget,
+     * the sounds stay on the board marked as evicted
+     */
+    public void enforceStorageBudget(final StorageBudget budget) {
+        whenWarm(new Runnable() {
+            @Override
+            public void run() {
+                dbExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final List<Long> evicted = budget.evict();
+                        if(evicted.isEmpty()) return;
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                for(long id : evicted) {
+                                    Sound existing = getById(id);
+                                    if(existing == null) continue;
+                                    Sound sound = new Sound(existing);
+                                    sound.setLocalFileName(null, false);
+                                    sound.setDownloaded(false);
+                                    sound.setEvicted(true);
+                                    update(sound);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs the runnable on the main thread as soon as the cache is warm
+     */
+    public void whenWarm(Runnable runnable) {
+        if(warm) {
+            runnable.run();
+        } else {
+            afterWarmUp.add(runnable);
+        }
+    }
+
+    /**
+     * Runs the runnable on the main thread when the database work requested so far is done
+     */
+    public void afterPendingWrites(final Runnable runnable) {
+        dbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                handler.post(runnable);
+            }
+        });
+    }
+
+    /**
+     * Stops the database thread after the pending writes are done, waits at most one second
+     */
+    public void shutdown() {
+        handler.removeCallbacks(dispatchChanges);
+        dbExecutor.shutdown();
+        try {
+            dbExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Interrupted while writing the last changes");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Binary search on id, the sounds are ordered by id
+     */
+    private int positionOf(long id) {
+        if(compact != null) return compact.indexOfId(id);
+        int low = 0;
+        int high = sounds.size() - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = sounds.get(mid).id;
+            if(midId < id) {
+                low = mid + 1;
+            } else if(midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private void index(Sound sound) {
+        byId.put(sound.id, sound);
+        // sounds which were not synced with the server have no remote id
+        if(sound.remote_id != 0) byRemoteId.put(sound.remote_id, sound);
+    }
+
+    private void unindex(Sound sound) {
+        byId.remove(sound.id);
+        if(sound.remote_id != 0 && byRemoteId.get(sound.remote_id) == sound) byRemoteId.remove(sound.remote_id);
+    }
+
+    private void postChanges() {
+        ++cacheChanges;
+        handler.removeCallbacks(dispatchChanges);
+        handler.postDelayed(dispatchChanges, CHANGE_DISPATCH_DELAY_MS);
+    }
+
+    private CompactSoundBoard writableCompact() {
+        if(compactShared) {
+            compact = compact.copy();
+            compactShared = false;
+        }
+        return compact;
+    }
+
+    private void publish(@Nullable SoundChangeSet changes) {
+        snapshotDirty = true;
+        if(compact != null) {
+            snapshot = compact;
+            compactShared = true;
+        } else {
+            snapshot = Collections.unmodifiableList(new ArrayList<>(sounds));
+        }
+        for(Observer observer : new ArrayList<>(observers)) {
+            observer.onSoundsChanged(snapshot, changes);
+        }
+    }
+
+    /**
+     * Runs on the database thread
+     * @return The board of the snapshot file or null if there is none (of this version)
+     */
+    @Nullable
+    private CompactSoundBoard readSnapshot() {
+        if(!snapshotFile.isFile()) return null;
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+            try {
+                return CompactSoundBoard.readFrom(input, SoundsDatabaseHelper.DB_VERSION);
+            } finally {
+                input.close();
+            }
+        } catch(IOException e) {
+            Log.d(TAG, "Could not read the board snapshot: "+e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Runs on the database thread, writes to a temporary file first so a crash never leaves half a snapshot
+     */
+    private void writeSnapshot(List<Sound> board) {
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                CompactSoundBoard.of(board).writeTo(output, SoundsDatabaseHelper.DB_VERSION);
+            } finally {
+                output.close();
+            }
+            if(!temp.renameTo(snapshotFile)) throw new IOException("Could not rename "+temp.getName());
+            Log.d(TAG, "Saved snapshot of "+board.size()+" sounds");
+        } catch(IOException e) {
+            Log.d(TAG, "Could not write the board snapshot: "+e.getMessage());
+            temp.delete();
+        }
+    }
+
+    /**
+     * Compares two boards which are ordered by id
+     * @return The changes which turn the previous board into the current one
+     */
+    private static SoundChangeSet diff(List<Sound> previous, List<Sound> current) {
+        SoundChangeSet changes = new SoundChangeSet();
+        int i = 0;
+        int j = 0;
+        while(i < previous.size() || j < current.size()) {
+            Sound before = (i < previous.size()) ? previous.get(i) : null;
+            Sound after = (j < current.size()) ? current.get(j) : null;
+            if(after == null || (before != null && before.id < after.id)) {
+                changes.addRemoved(before.id);
+                ++i;
+            } else if(before == null || before.id > after.id) {
+                changes.addInserted(after.id);
+                ++j;
+            } else {
+                if(!sameContent(before, after)) changes.addChanged(after.id);
+                ++i;
+                ++j;
+            }
+        }
+        return changes;
+    }
+
+    private static boolean sameContent(Sound a, Sound b) {
+        return a.remote_id == b.remote_id
+                && a.updatedAt == b.updatedAt
+                && a.isDownloaded() == b.isDownloaded()
+                && a.isEvicted() == b.isEvicted()
+                && a.trimStartMs == b.trimStartMs
+                && a.trimEndMs == b.trimEndMs
+                && TextUtils.equals(a.name, b.name)
+                && TextUtils.equals(a.getLocalFileName(), b.getLocalFileName())
+                && TextUtils.equals(a.getRemoteFileName(), b.getRemoteFileName())
+                && TextUtils.equals(a.downloadLink, b.downloadLink);
+    }
+
+    public interface Observer {
+        /**
+         * Called on the main thread when the sounds changed
+         * @param snapshot The complete board ordered by id, this list never changes
+         * @param changes The changes since the previous snapshot, null when everything needs to be reloaded
+         */
+        void onSoundsChanged(List<Sound> snapshot, @Nullable SoundChangeSet changes);
+    }
+}
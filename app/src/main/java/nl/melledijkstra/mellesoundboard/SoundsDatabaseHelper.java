@@ -3,14 +3,24 @@ package nl.melledijkstra.mellesoundboard;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * This class has connection to the database and has all the CRUD operations for the database
+ * The connection is kept open for the lifetime of the helper (pages are read from a background
+ * thread while the UI thread writes), call {@link #close()} when the helper is not needed anymore
  * Created by melle on 14-10-2016.
  */
 
@@ -19,23 +29,54 @@ public class SoundsDatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = SoundsDatabaseHelper.class.getSimpleName();
     Context context;
 
+    /** Knows which sound files are present, so loading a sound doesn't touch the filesystem */
+    private final MediaFileIndex fileIndex;
+
     public static final String DB_NAME = "soundsdatabase.db";
-    public static final int DB_VERSION = 5;
+    public static final int DB_VERSION = 11;
+
+    /** Board ordered by id, the order in which sounds were added */
+    public static final int ORDER_DEFAULT = 0;
+    /** Board ordered by play count, most played first */
+    public static final int ORDER_MOST_PLAYED = 1;
+    /** Board ordered by the last time a sound was played, most recent first */
+    public static final int ORDER_RECENTLY_PLAYED = 2;
 
-    public SoundsDatabaseHelper(Context context) {
-        super(context, DB_NAME, null, DB_VERSION);
+    private static final MetricsRegistry.Timer DB_LOAD_BOARD = MetricsRegistry.timer("db.load_board");
+    private static final MetricsRegistry.Timer DB_PAGE = MetricsRegistry.timer("db.page");
+    private static final MetricsRegistry.Timer DB_QUERY = MetricsRegistry.timer("db.query");
+    private static final MetricsRegistry.Timer DB_WRITE = MetricsRegistry.timer("db.write");
+    private static final MetricsRegistry.Counter ROWS_WRITTEN = MetricsRegistry.counter("db.rows_written");
+
+    public SoundsDatabaseHelper(Context context, MediaFileIndex fileIndex) {
+        this(context, fileIndex, DB_NAME);
+    }
+
+    /**
+     * @param name The name of the database file, benchmarks use their own database so the sounds of the user are left alone
+     */
+    public SoundsDatabaseHelper(Context context, MediaFileIndex fileIndex, String name) {
+        super(context, name, null, DB_VERSION);
         this.context = context;
+        this.fileIndex = fileIndex;
     }
 
     public boolean deleteAllSounds(boolean are_you_sure) {
-        if(are_you_sure) {
-            SQLiteDatabase db = getWritableDatabase();
-            db.delete(Sound.TABLE_NAME, "", new String[]{});
-            Log.d(TAG, "All sounds deleted from database");
-            db.close();
-            return true;
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.deleteAllSounds");
+        try {
+            if(are_you_sure) {
+                SQLiteDatabase db = getWritableDatabase();
+                // the boards stay, empty, and the delete trigger has nothing to look up
+                db.delete(Board.SOUNDS_TABLE_NAME, null, null);
+                int deleted = db.delete(Sound.TABLE_NAME, "1", null);
+                ROWS_WRITTEN.add(deleted);
+                Log.d(TAG, "All sounds deleted from database");
+                return true;
+            }
+            return false;
+        } finally {
+            call.end();
         }
-        return false;
     }
 
     @Override
@@ -49,21 +90,135 @@ public class SoundsDatabaseHelper extends SQLiteOpenHelper {
                 + Sound.Columns.DOWNLOAD_LINK + " VARCHAR(255),"
                 + Sound.Columns.DOWNLOADED + " TINYINT(1),"
                 + Sound.Columns.CREATED_AT + " INTEGER,"
-                + Sound.Columns.UPDATED_AT + " INTEGER"
+                + Sound.Columns.UPDATED_AT + " INTEGER,"
+                + Sound.Columns.FILE_MTIME + " INTEGER NOT NULL DEFAULT 0,"
+                + Sound.Columns.FILE_SIZE + " INTEGER NOT NULL DEFAULT 0,"
+                + Sound.Columns.EVICTED + " TINYINT(1) NOT NULL DEFAULT 0,"
+                + Sound.Columns.TRIM_START_MS + " INTEGER NOT NULL DEFAULT 0,"
+                + Sound.Columns.TRIM_END_MS + " INTEGER NOT NULL DEFAULT 0"
+                + ")");
+
+        // Full text search index over the sound names, the triggers keep it in sync with the sound table
+        db.execSQL("CREATE VIRTUAL TABLE " + Sound.SEARCH_TABLE_NAME + " USING fts3("
+                + Sound.SearchColumns.NAME + ","
+                + Sound.SearchColumns.TAGS
+                + ")");
+        db.execSQL("CREATE TRIGGER " + Sound.SEARCH_TABLE_NAME + "_insert AFTER INSERT ON " + Sound.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + Sound.SEARCH_TABLE_NAME + "(docid, " + Sound.SearchColumns.NAME + ", " + Sound.SearchColumns.TAGS + ") "
+                + "VALUES (new." + Sound.Columns.ID + ", new." + Sound.Columns.NAME + ", ''); END");
+        db.execSQL("CREATE TRIGGER " + Sound.SEARCH_TABLE_NAME + "_update AFTER UPDATE OF " + Sound.Columns.NAME + " ON " + Sound.TABLE_NAME + " BEGIN "
+                + "UPDATE " + Sound.SEARCH_TABLE_NAME + " SET " + Sound.SearchColumns.NAME + " = new." + Sound.Columns.NAME
+                + " WHERE docid = old." + Sound.Columns.ID + "; END");
+        db.execSQL("CREATE TRIGGER " + Sound.SEARCH_TABLE_NAME + "_delete AFTER DELETE ON " + Sound.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + Sound.SEARCH_TABLE_NAME + " WHERE docid = old." + Sound.Columns.ID + "; END");
+
+        db.execSQL("CREATE TABLE " + PlayStats.TABLE_NAME + "("
+                + PlayStats.Columns.SOUND_ID + " INTEGER PRIMARY KEY,"
+                + PlayStats.Columns.PLAY_COUNT + " INTEGER NOT NULL DEFAULT 0,"
+                + PlayStats.Columns.LAST_PLAYED_AT + " INTEGER NOT NULL DEFAULT 0,"
+                + PlayStats.Columns.TOTAL_PREPARE_MS + " INTEGER NOT NULL DEFAULT 0"
+                + ")");
+        db.execSQL("CREATE TRIGGER " + PlayStats.TABLE_NAME + "_delete AFTER DELETE ON " + Sound.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + PlayStats.TABLE_NAME + " WHERE " + PlayStats.Columns.SOUND_ID + " = old." + Sound.Columns.ID + "; END");
+
+        createBoardTables(db);
+    }
+
+    /**
+     * The boards and which sounds are on them, the triggers remove the membership of deleted sounds and boards
+     */
+    private void createBoardTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Board.TABLE_NAME + "("
+                + Board.Columns.ID + " INTEGER PRIMARY KEY,"
+                + Board.Columns.NAME + " VARCHAR(255) NOT NULL,"
+                + Board.Columns.POSITION + " INTEGER NOT NULL DEFAULT 0"
                 + ")");
+        db.execSQL("CREATE TABLE " + Board.SOUNDS_TABLE_NAME + "("
+                + Board.SoundColumns.BOARD_ID + " INTEGER NOT NULL,"
+                + Board.SoundColumns.SOUND_ID + " INTEGER NOT NULL,"
+                + "PRIMARY KEY (" + Board.SoundColumns.BOARD_ID + ", " + Board.SoundColumns.SOUND_ID + ")"
+                + ")");
+        // the primary key finds the sounds of a board, this finds the boards of a sound
+        db.execSQL("CREATE INDEX " + Board.SOUNDS_TABLE_NAME + "_sound ON " + Board.SOUNDS_TABLE_NAME + "(" + Board.SoundColumns.SOUND_ID + ")");
+        db.execSQL("CREATE TRIGGER " + Board.SOUNDS_TABLE_NAME + "_sound_delete AFTER DELETE ON " + Sound.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + Board.SOUNDS_TABLE_NAME + " WHERE " + Board.SoundColumns.SOUND_ID + " = old." + Sound.Columns.ID + "; END");
+        db.execSQL("CREATE TRIGGER " + Board.SOUNDS_TABLE_NAME + "_board_delete AFTER DELETE ON " + Board.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + Board.SOUNDS_TABLE_NAME + " WHERE " + Board.SoundColumns.BOARD_ID + " = old." + Board.Columns.ID + "; END");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // on upgrade drop older tables
+        if(oldVersion >= 7) {
+            // from version 7 on the sounds are kept, only the new columns are added
+            if(oldVersion < 8) {
+                db.execSQL("ALTER TABLE " + Sound.TABLE_NAME + " ADD COLUMN " + Sound.Columns.FILE_MTIME + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Sound.TABLE_NAME + " ADD COLUMN " + Sound.Columns.FILE_SIZE + " INTEGER NOT NULL DEFAULT 0");
+            }
+            if(oldVersion < 9) {
+                db.execSQL("ALTER TABLE " + Sound.TABLE_NAME + " ADD COLUMN " + Sound.Columns.EVICTED + " TINYINT(1) NOT NULL DEFAULT 0");
+            }
+            if(oldVersion < 10) {
+                db.execSQL("ALTER TABLE " + Sound.TABLE_NAME + " ADD COLUMN " + Sound.Columns.TRIM_START_MS + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Sound.TABLE_NAME + " ADD COLUMN " + Sound.Columns.TRIM_END_MS + " INTEGER NOT NULL DEFAULT 0");
+            }
+            if(oldVersion < 11) {
+                createBoardTables(db);
+            }
+            return;
+        }
+
+        // older versions drop older tables, the triggers are dropped together with the sound table
         db.execSQL("DROP TABLE IF EXISTS " + Sound.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + Sound.SEARCH_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + PlayStats.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + Board.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + Board.SOUNDS_TABLE_NAME);
+
+        // The sounds are gone so the next sync needs to get everything from the server again
+        // and the media directory needs to be scanned again
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(Config.Preferences.LAST_SYNC_TIME, 0)
+                .remove(Config.Preferences.MEDIA_DIR_MTIME)
+                .apply();
 
         onCreate(db);
     }
 
     public long createSound(Sound sound) {
-        SQLiteDatabase db = getWritableDatabase();
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.createSound");
+        try {
+            long id = getWritableDatabase().insert(Sound.TABLE_NAME, null, soundValues(sound));
+            if(id != -1) ROWS_WRITTEN.inc();
+            return id;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Inserts multiple sounds in one transaction, the generated ids are set on the sounds
+     * @param sounds The sounds to insert
+     */
+    public void createSounds(List<Sound> sounds) {
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.createSounds");
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for(Sound sound : sounds) {
+                    sound.id = db.insert(Sound.TABLE_NAME, null, soundValues(sound));
+                }
+                db.setTransactionSuccessful();
+                ROWS_WRITTEN.add(sounds.size());
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            call.end();
+        }
+    }
 
+    private ContentValues soundValues(Sound sound) {
         ContentValues values = new ContentValues();
         values.put(Sound.Columns.REMOTE_ID, sound.remote_id);
         values.put(Sound.Columns.NAME, sound.name);
@@ -71,94 +226,564 @@ public class SoundsDatabaseHelper extends SQLiteOpenHelper {
         values.put(Sound.Columns.FILE_NAME, sound.getRemoteFileName());
         values.put(Sound.Columns.DOWNLOAD_LINK, sound.downloadLink);
         values.put(Sound.Columns.DOWNLOADED, sound.isDownloaded());
+        values.put(Sound.Columns.EVICTED, sound.isEvicted());
+        values.put(Sound.Columns.TRIM_START_MS, sound.trimStartMs);
+        values.put(Sound.Columns.TRIM_END_MS, sound.trimEndMs);
         values.put(Sound.Columns.CREATED_AT, sound.createdAt);
         values.put(Sound.Columns.UPDATED_AT, sound.updatedAt);
-
-        // insert row
-        long generated_id = db.insert(Sound.TABLE_NAME, null, values);
-        db.close();
-        return generated_id;
+        values.put(Sound.Columns.FILE_MTIME, sound.fileMtime);
+        values.put(Sound.Columns.FILE_SIZE, sound.fileSize);
+        return values;
     }
 
     public ArrayList<Sound> getAllSounds() {
-        SQLiteDatabase db = getReadableDatabase();
-
-        ArrayList<Sound> sounds = new ArrayList<>();
-        Cursor c = db.rawQuery("SELECT * FROM "+Sound.TABLE_NAME, null);
-
-        int count = 0;
-        if(c != null && c.moveToFirst()) {
-            do {
-                Sound sound = fillSound(c);
-                sounds.add(sound);
-                Log.d(TAG, "Sound retrieved from database - "+sound);
-                ++count;
-            } while(c.moveToNext());
-            c.close();
+        Call call = measure(DB_LOAD_BOARD, "SoundsDatabaseHelper.getAllSounds");
+        try {
+            SQLiteDatabase db = getReadableDatabase();
+
+            ArrayList<Sound> sounds = new ArrayList<>();
+            Cursor c = db.rawQuery("SELECT * FROM "+Sound.TABLE_NAME+" ORDER BY "+Sound.Columns.ID, null);
+
+            int count = 0;
+            if(c != null && c.moveToFirst()) {
+                SoundRowMapper mapper = rowMapper(c);
+                do {
+                    sounds.add(mapper.map(null));
+                    ++count;
+                } while(c.moveToNext());
+            }
+            if(c != null) c.close();
+            Log.d(TAG, "Number of sounds loaded from database: "+count);
+
+            return sounds;
+        } finally {
+            call.end();
         }
-        Log.d(TAG, "Number of sounds loaded from database: "+count);
+    }
 
-        db.close();
+    /**
+     * Loads all sounds into a compact board, without creating a Sound object per row
+     */
+    public CompactSoundBoard getCompactBoard() {
+        Call call = measure(DB_LOAD_BOARD, "SoundsDatabaseHelper.getCompactBoard");
+        try {
+            Cursor c = getReadableDatabase().rawQuery("SELECT * FROM "+Sound.TABLE_NAME+" ORDER BY "+Sound.Columns.ID, null);
+            CompactSoundBoard board = new CompactSoundBoard(c.getCount());
+            // one Sound is reused to move every row into the board
+            Sound row = new Sound();
+            SoundRowMapper mapper = rowMapper(c);
+            try {
+                while(c.moveToNext()) {
+                    board.append(mapper.map(row));
+                }
+            } finally {
+                c.close();
+            }
+            Log.d(TAG, "Number of sounds loaded into compact board: "+board.size());
+            return board;
+        } finally {
+            call.end();
+        }
+    }
 
-        return sounds;
+    /**
+     * @return The number of sounds stored in the database
+     */
+    public int getSoundCount() {
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.getSoundCount");
+        try {
+            return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), Sound.TABLE_NAME);
+        } finally {
+            call.end();
+        }
     }
 
-    public Sound getSound(long sound_id) {
-        SQLiteDatabase db = getReadableDatabase();
+    /**
+     * Loads one page of sounds ordered the same way as the soundboard
+     * @param offset The position of the first sound of the page
+     * @param page The array where the loaded sounds are written to, Sound objects which are
+     *             already in the array are reused instead of allocating new ones
+     * @param order One of the ORDER_ constants
+     * @return The number of sounds that were written into page
+     */
+    public int getSoundsPage(int offset, Sound[] page, int order) {
+        return getSoundsPage(Board.ALL_SOUNDS, offset, page, order);
+    }
 
-        Cursor c = db.rawQuery("SELECT * FROM "+Sound.TABLE_NAME+" WHERE "+Sound.Columns.ID+" = "+sound_id, null);
+    /**
+     * Loads one page of the sounds of a board
+     * @param board The id of the board or {@link Board#ALL_SOUNDS}
+     * @see #getSoundsPage(int, Sound[], int)
+     */
+    public int getSoundsPage(long board, int offset, Sound[] page, int order) {
+        Call call = measure(DB_PAGE, "SoundsDatabaseHelper.getSoundsPage");
+        try {
+            String query;
+            if(order == ORDER_DEFAULT && board == Board.ALL_SOUNDS) {
+                query = "SELECT * FROM "+Sound.TABLE_NAME+" ORDER BY "+Sound.Columns.ID;
+            } else if(order == ORDER_DEFAULT) {
+                query = "SELECT s.* FROM "+Sound.TABLE_NAME+" s"+boardJoin(board)+" ORDER BY s."+Sound.Columns.ID;
+            } else {
+                String statsColumn = (order == ORDER_MOST_PLAYED) ? PlayStats.Columns.PLAY_COUNT : PlayStats.Columns.LAST_PLAYED_AT;
+                query = "SELECT s.* FROM "+Sound.TABLE_NAME+" s"+boardJoin(board)
+                        +" LEFT JOIN "+PlayStats.TABLE_NAME+" st ON st."+PlayStats.Columns.SOUND_ID+" = s."+Sound.Columns.ID
+                        +" ORDER BY ifnull(st."+statsColumn+", 0) DESC, s."+Sound.Columns.ID;
+            }
+            Cursor c = getReadableDatabase().rawQuery(query+" LIMIT "+page.length+" OFFSET "+offset, null);
+            int count = 0;
+            SoundRowMapper mapper = rowMapper(c);
+            try {
+                while(count < page.length && c.moveToNext()) {
+                    page[count] = mapper.map(page[count]);
+                    ++count;
+                }
+            } finally {
+                c.close();
+            }
+            return count;
+        } finally {
+            call.end();
+        }
+    }
 
-        Sound sound = null;
-        if(c != null) {
-            c.moveToFirst();
-            sound = fillSound(c);
-            c.close();
+    /**
+     * Adds play statistics to the stored statistics in one transaction
+     * @param deltas The plays since the last time statistics were written, play counts and
+     *               prepare times are added, the last played time is only moved forward
+     */
+    public void addPlayStats(Collection<PlayStats> deltas) {
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.addPlayStats");
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for(PlayStats delta : deltas) {
+                    db.execSQL("INSERT OR IGNORE INTO "+PlayStats.TABLE_NAME+" ("+PlayStats.Columns.SOUND_ID+") VALUES (?)",
+                            new Object[] { delta.soundId });
+                    db.execSQL("UPDATE "+PlayStats.TABLE_NAME+" SET "
+                            +PlayStats.Columns.PLAY_COUNT+" = "+PlayStats.Columns.PLAY_COUNT+" + ?, "
+                            +PlayStats.Columns.LAST_PLAYED_AT+" = max("+PlayStats.Columns.LAST_PLAYED_AT+", ?), "
+                            +PlayStats.Columns.TOTAL_PREPARE_MS+" = "+PlayStats.Columns.TOTAL_PREPARE_MS+" + ?"
+                            +" WHERE "+PlayStats.Columns.SOUND_ID+" = ?",
+                            new Object[] { delta.playCount, delta.lastPlayedAt, delta.totalPrepareMs, delta.soundId });
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Turns user input into a full text search query, every word is matched as prefix
+     * so the results can be refined while typing
+     * @param input The text the user typed
+     * @return The MATCH expression or null if the input contains nothing to search for
+     */
+    @Nullable
+    public static String buildSearchQuery(@Nullable String input) {
+        if(input == null) return null;
+        StringBuilder query = new StringBuilder();
+        for(String word : input.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+")) {
+            if(word.isEmpty()) continue;
+            if(query.length() > 0) query.append(' ');
+            query.append(word).append('*');
         }
+        return (query.length() > 0) ? query.toString() : null;
+    }
+
+    /**
+     * @param matchQuery A query made by {@link #buildSearchQuery(String)}
+     * @return The number of sounds matching the query
+     */
+    public int countSearchResults(String matchQuery) {
+        return countSearchResults(matchQuery, Board.ALL_SOUNDS);
+    }
+
+    /**
+     * @param board The id of the board to search or {@link Board#ALL_SOUNDS}
+     * @see #countSearchResults(String)
+     */
+    public int countSearchResults(String matchQuery, long board) {
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.countSearchResults");
+        try {
+            if(board != Board.ALL_SOUNDS) {
+                return (int) DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT COUNT(*) FROM " + Sound.SEARCH_TABLE_NAME + " f"
+                        + " JOIN " + Board.SOUNDS_TABLE_NAME + " b ON b." + Board.SoundColumns.SOUND_ID + " = f.docid"
+                        + " AND b." + Board.SoundColumns.BOARD_ID + " = " + board
+                        + " WHERE " + Sound.SEARCH_TABLE_NAME + " MATCH ?", new String[] { matchQuery });
+            }
+            return (int) DatabaseUtils.longForQuery(getReadableDatabase(), "SELECT COUNT(*) FROM " + Sound.SEARCH_TABLE_NAME
+                    + " WHERE " + Sound.SEARCH_TABLE_NAME + " MATCH ?", new String[] { matchQuery });
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Loads one page of sounds matching a search query. Sounds where the name starts with the
+     * first searched word are ranked first, then shorter names before longer names
+     * @param matchQuery A query made by {@link #buildSearchQuery(String)}
+     * @param offset The position of the first result of the page
+     * @param page The array where the found sounds are written to, Sound objects which are
+     *             already in the array are reused
+     * @return The number of sounds that were written into page
+     */
+    public int searchSounds(String matchQuery, int offset, Sound[] page) {
+        return searchSounds(matchQuery, Board.ALL_SOUNDS, offset, page);
+    }
+
+    /**
+     * @param board The id of the board to search or {@link Board#ALL_SOUNDS}
+     * @see #searchSounds(String, int, Sound[])
+     */
+    public int searchSounds(String matchQuery, long board, int offset, Sound[] page) {
+        Call call = measure(DB_PAGE, "SoundsDatabaseHelper.searchSounds");
+        try {
+            String firstWord = matchQuery.substring(0, matchQuery.indexOf('*'));
+            Cursor c = getReadableDatabase().rawQuery("SELECT s.* FROM " + Sound.TABLE_NAME + " s"
+                    + " JOIN " + Sound.SEARCH_TABLE_NAME + " f ON f.docid = s." + Sound.Columns.ID
+                    + ((board != Board.ALL_SOUNDS) ? boardJoin(board) : "")
+                    + " WHERE " + Sound.SEARCH_TABLE_NAME + " MATCH ?"
+                    + " ORDER BY (lower(s." + Sound.Columns.NAME + ") LIKE ?) DESC, length(s." + Sound.Columns.NAME + "), s." + Sound.Columns.ID
+                    + " LIMIT " + page.length + " OFFSET " + offset, new String[] { matchQuery, firstWord + "%" });
+            int count = 0;
+            SoundRowMapper mapper = rowMapper(c);
+            try {
+                while(count < page.length && c.moveToNext()) {
+                    page[count] = mapper.map(page[count]);
+                    ++count;
+                }
+            } finally {
+                c.close();
+            }
+            return count;
+        } finally {
+            call.end();
+        }
+    }
+
+    public Sound getSound(long sound_id) {
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.getSound");
+        try {
+            SQLiteDatabase db = getReadableDatabase();
+
+            Cursor c = db.rawQuery("SELECT * FROM "+Sound.TABLE_NAME+" WHERE "+Sound.Columns.ID+" = "+sound_id, null);
 
-        db.close();
-        return sound;
+            Sound sound = null;
+            if(c != null) {
+                if(c.moveToFirst()) sound = rowMapper(c).map(null);
+                c.close();
+            }
+
+            return sound;
+        } finally {
+            call.end();
+        }
     }
 
     public int updateSound(Sound sound) {
-        SQLiteDatabase db = getWritableDatabase();
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.updateSound");
+        try {
+            SQLiteDatabase db = getWritableDatabase();
 
-        ContentValues values = new ContentValues();
-        values.put(Sound.Columns.NAME, sound.name);
-        values.put(Sound.Columns.LOCAL_FILE_NAME, sound.getLocalFileName());
-        values.put(Sound.Columns.UPDATED_AT, sound.createdAt);
+            ContentValues values = new ContentValues();
+            values.put(Sound.Columns.NAME, sound.name);
+            values.put(Sound.Columns.LOCAL_FILE_NAME, sound.getLocalFileName());
+            values.put(Sound.Columns.FILE_NAME, sound.getRemoteFileName());
+            values.put(Sound.Columns.DOWNLOAD_LINK, sound.downloadLink);
+            values.put(Sound.Columns.DOWNLOADED, sound.isDownloaded());
+            values.put(Sound.Columns.EVICTED, sound.isEvicted());
+            values.put(Sound.Columns.TRIM_START_MS, sound.trimStartMs);
+            values.put(Sound.Columns.TRIM_END_MS, sound.trimEndMs);
+            values.put(Sound.Columns.UPDATED_AT, sound.updatedAt);
+            // sounds loaded from the table don't know the watermark of their file, only a new file sets it
+            if(sound.fileMtime != 0) {
+                values.put(Sound.Columns.FILE_MTIME, sound.fileMtime);
+                values.put(Sound.Columns.FILE_SIZE, sound.fileSize);
+            }
 
-        return db.update(Sound.TABLE_NAME, values, Sound.Columns.ID+" = ?", new String[] { String.valueOf(sound.id) });
+            int updated = db.update(Sound.TABLE_NAME, values, Sound.Columns.ID+" = ?", new String[] { String.valueOf(sound.id) });
+            ROWS_WRITTEN.add(updated);
+            return updated;
+        } finally {
+            call.end();
+        }
     }
 
     public boolean deleteSound(long sound_id) {
-        SQLiteDatabase db = getWritableDatabase();
-        boolean result = db.delete(Sound.TABLE_NAME, Sound.Columns.ID+" = ?", new String[] { String.valueOf(sound_id) }) > 0;
-        db.close();
-        return result;
-    }
-
-    private Sound fillSound(Cursor c) {
-        Sound sound = new Sound();
-        sound.id            = c.getLong(c.getColumnIndex(Sound.Columns.ID));
-        sound.remote_id     = c.getLong(c.getColumnIndex(Sound.Columns.REMOTE_ID));
-        sound.name          = c.getString(c.getColumnIndex(Sound.Columns.NAME));
-        sound.setLocalFileName(c.getString(c.getColumnIndex(Sound.Columns.LOCAL_FILE_NAME)));
-        sound.setRemoteFileName(c.getString(c.getColumnIndex(Sound.Columns.FILE_NAME)));
-        sound.setDownloaded(c.getInt(c.getColumnIndex(Sound.Columns.DOWNLOADED)) > 0);
-        sound.downloadLink  = c.getString(c.getColumnIndex(Sound.Columns.DOWNLOAD_LINK));
-        sound.createdAt     = c.getInt(c.getColumnIndex(Sound.Columns.CREATED_AT));
-        sound.updatedAt     = c.getInt(c.getColumnIndex(Sound.Columns.UPDATED_AT));
-        return sound;
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.deleteSound");
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            int deleted = db.delete(Sound.TABLE_NAME, Sound.Columns.ID+" = ?", new String[] { String.valueOf(sound_id) });
+            ROWS_WRITTEN.add(deleted);
+            return deleted > 0;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * @return The stored modified time and size of every sound with a local file, by local file name
+     */
+    public HashMap<String, FileWatermark> getFileWatermarks() {
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.getFileWatermarks");
+        try {
+            Cursor c = getReadableDatabase().rawQuery("SELECT " + Sound.Columns.ID + ", " + Sound.Columns.REMOTE_ID + ", "
+                    + Sound.Columns.LOCAL_FILE_NAME + ", " + Sound.Columns.FILE_MTIME + ", " + Sound.Columns.FILE_SIZE
+                    + " FROM " + Sound.TABLE_NAME + " WHERE " + Sound.Columns.LOCAL_FILE_NAME + " IS NOT NULL", null);
+            HashMap<String, FileWatermark> watermarks = new HashMap<>(c.getCount() * 2);
+            try {
+                while(c.moveToNext()) {
+                    watermarks.put(c.getString(2), new FileWatermark(c.getLong(0), c.getLong(1), c.getLong(3), c.getLong(4)));
+                }
+            } finally {
+                c.close();
+            }
+            return watermarks;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * @return The downloaded sounds from the server with their play statistics, local sounds are never evicted
+     */
+    public ArrayList<StorageBudget.Candidate> getEvictionCandidates() {
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.getEvictionCandidates");
+        try {
+            Cursor c = getReadableDatabase().rawQuery("SELECT s." + Sound.Columns.ID + ", s." + Sound.Columns.LOCAL_FILE_NAME
+                    + ", ifnull(st." + PlayStats.Columns.PLAY_COUNT + ", 0), ifnull(st." + PlayStats.Columns.LAST_PLAYED_AT + ", 0)"
+                    + " FROM " + Sound.TABLE_NAME + " s"
+                    + " LEFT JOIN " + PlayStats.TABLE_NAME + " st ON st." + PlayStats.Columns.SOUND_ID + " = s." + Sound.Columns.ID
+                    + " WHERE s." + Sound.Columns.REMOTE_ID + " != 0 AND s." + Sound.Columns.DOWNLOADED + " = 1"
+                    + " AND s." + Sound.Columns.LOCAL_FILE_NAME + " IS NOT NULL", null);
+            ArrayList<StorageBudget.Candidate> candidates = new ArrayList<>(c.getCount());
+            try {
+                while(c.moveToNext()) {
+                    candidates.add(new StorageBudget.Candidate(c.getLong(0), c.getString(1), c.getInt(2), c.getLong(3)));
+                }
+            } finally {
+                c.close();
+            }
+            return candidates;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Stores the modified time and size of the local file of a sound
+     */
+    public void updateFileWatermark(long soundId, long mtime, long size) {
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.updateFileWatermark");
+        try {
+            ContentValues values = new ContentValues();
+            values.put(Sound.Columns.FILE_MTIME, mtime);
+            values.put(Sound.Columns.FILE_SIZE, size);
+            getWritableDatabase().update(Sound.TABLE_NAME, values, Sound.Columns.ID + " = ?", new String[] { String.valueOf(soundId) });
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * @return A join which keeps the sounds of the board, the sound table is aliased as s
+     */
+    private static String boardJoin(long board) {
+        return " JOIN " + Board.SOUNDS_TABLE_NAME + " b ON b." + Board.SoundColumns.SOUND_ID + " = s." + Sound.Columns.ID
+                + " AND b." + Board.SoundColumns.BOARD_ID + " = " + board;
+    }
+
+    /**
+     * @return The boards in the order of their tabs, with the number of sounds on them
+     */
+    public ArrayList<Board> getBoards() {
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.getBoards");
+        try {
+            Cursor c = getReadableDatabase().rawQuery("SELECT bo." + Board.Columns.ID + ", bo." + Board.Columns.NAME + ", bo." + Board.Columns.POSITION
+                    + ", (SELECT COUNT(*) FROM " + Board.SOUNDS_TABLE_NAME + " b WHERE b." + Board.SoundColumns.BOARD_ID + " = bo." + Board.Columns.ID + ")"
+                    + " FROM " + Board.TABLE_NAME + " bo ORDER BY bo." + Board.Columns.POSITION + ", bo." + Board.Columns.ID, null);
+            ArrayList<Board> boards = new ArrayList<>(c.getCount());
+            try {
+                while(c.moveToNext()) {
+                    Board board = new Board(c.getLong(0), c.getString(1));
+                    board.position = c.getInt(2);
+                    board.soundCount = c.getInt(3);
+                    boards.add(board);
+                }
+            } finally {
+                c.close();
+            }
+            return boards;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Adds a board after the other boards
+     * @return The id of the new board or -1 on failure
+     */
+    public long createBoard(String name) {
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.createBoard");
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            int position = (int) DatabaseUtils.longForQuery(db, "SELECT ifnull(max(" + Board.Columns.POSITION + ") + 1, 0) FROM " + Board.TABLE_NAME, null);
+            ContentValues values = new ContentValues();
+            values.put(Board.Columns.NAME, name);
+            values.put(Board.Columns.POSITION, position);
+            long id = db.insert(Board.TABLE_NAME, null, values);
+            if(id != -1) ROWS_WRITTEN.inc();
+            return id;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Deletes a board, its sounds stay in the library
+     */
+    public boolean deleteBoard(long boardId) {
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.deleteBoard");
+        try {
+            int deleted = getWritableDatabase().delete(Board.TABLE_NAME, Board.Columns.ID + " = ?", new String[] { String.valueOf(boardId) });
+            ROWS_WRITTEN.add(deleted);
+            return deleted > 0;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Puts a sound on a board or takes it off
+     * @return true if the membership changed
+     */
+    public boolean setOnBoard(long boardId, long soundId, boolean onBoard) {
+        Call call = measure(DB_WRITE, "SoundsDatabaseHelper.setOnBoard");
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            int changed;
+            if(onBoard) {
+                // before API 16 an ignored insert returns the rowid of the existing row instead of -1,
+                // changes() tells on every version if a row was added. Trigger writes aren't counted
+                db.execSQL("INSERT OR IGNORE INTO " + Board.SOUNDS_TABLE_NAME + " (" + Board.SoundColumns.BOARD_ID + ", "
+                        + Board.SoundColumns.SOUND_ID + ") VALUES (?, ?)", new Object[] { boardId, soundId });
+                changed = (int) DatabaseUtils.longForQuery(db, "SELECT changes()", null);
+            } else {
+                changed = db.delete(Board.SOUNDS_TABLE_NAME, Board.SoundColumns.BOARD_ID + " = ? AND " + Board.SoundColumns.SOUND_ID + " = ?",
+                        new String[] { String.valueOf(boardId), String.valueOf(soundId) });
+            }
+            ROWS_WRITTEN.add(changed);
+            return changed > 0;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * @return The ids of the boards the sound is on
+     */
+    public HashSet<Long> getBoardsOfSound(long soundId) {
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.getBoardsOfSound");
+        try {
+            Cursor c = getReadableDatabase().rawQuery("SELECT " + Board.SoundColumns.BOARD_ID + " FROM " + Board.SOUNDS_TABLE_NAME
+                    + " WHERE " + Board.SoundColumns.SOUND_ID + " = " + soundId, null);
+            HashSet<Long> boards = new HashSet<>();
+            try {
+                while(c.moveToNext()) {
+                    boards.add(c.getLong(0));
+                }
+            } finally {
+                c.close();
+            }
+            return boards;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * @param board The id of the board or {@link Board#ALL_SOUNDS}
+     * @return The number of sounds on the board
+     */
+    public int getBoardSoundCount(long board) {
+        if(board == Board.ALL_SOUNDS) return getSoundCount();
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.getBoardSoundCount");
+        try {
+            return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), Board.SOUNDS_TABLE_NAME,
+                    Board.SoundColumns.BOARD_ID + " = ?", new String[] { String.valueOf(board) });
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * @return A mapper which fills sounds with the current row of the cursor
+     */
+    private SoundRowMapper rowMapper(Cursor c) {
+        return new SoundRowMapper(new CursorRow(c), fileIndex);
     }
 
     public boolean soundExists(long sound_id) {
-        SQLiteDatabase db = getReadableDatabase();
+        Call call = measure(DB_QUERY, "SoundsDatabaseHelper.soundExists");
+        try {
+            SQLiteDatabase db = getReadableDatabase();
 
-        Cursor c = db.rawQuery("SELECT * FROM "+Sound.TABLE_NAME+" WHERE "+Sound.Columns.ID+" = "+sound_id, null);
-        int count = c.getCount();
-        c.close();
-        db.close();
+            Cursor c = db.rawQuery("SELECT * FROM "+Sound.TABLE_NAME+" WHERE "+Sound.Columns.ID+" = "+sound_id, null);
+            int count = c.getCount();
+            c.close();
+
+            return count > 0;
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Starts measuring a database call, every public method ends it in a finally block
+     * @param site The method, as it's shown in the main thread report
+     */
+    private static Call measure(MetricsRegistry.Timer timer, String site) {
+        return new Call(timer, MainThreadIoMonitor.enter(MainThreadIoMonitor.DISK, site));
+    }
+
+    /**
+     * One database call, its time goes to the timer and to the {@link MainThreadIoMonitor} when it's on the main thread
+     */
+    private static class Call {
+        private final MetricsRegistry.Timer timer;
+        @Nullable
+        private final MainThreadIoMonitor.Probe probe;
+        private final long started = MetricsRegistry.Timer.start();
 
-        return count > 0;
+        Call(MetricsRegistry.Timer timer, @Nullable MainThreadIoMonitor.Probe probe) {
+            this.timer = timer;
+            this.probe = probe;
+        }
+
+        void end() {
+            MainThreadIoMonitor.exit(probe);
+            timer.stop(started);
+        }
+    }
+
+    /**
+     * The local file of a sound as it was when it was stored
+     */
+    public static class FileWatermark {
+        public final long soundId;
+        public final long remoteId;
+        public final long mtime;
+        public final long size;
+
+        FileWatermark(long soundId, long remoteId, long mtime, long size) {
+            this.soundId = soundId;
+            this.remoteId = remoteId;
+            this.mtime = mtime;
+            this.size = size;
+        }
     }
 }
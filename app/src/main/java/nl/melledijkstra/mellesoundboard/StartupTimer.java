@@ -0,0 +1,65 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The StartupTimer measures how long each phase of a cold start takes, from the creation of the
+ * application until the first draw of the board and the phases which finish in the background after it.
+ * Every phase is only recorded the first time it's marked, so reloads later on don't count.
+ */
+public class StartupTimer {
+
+    private static final String TAG = StartupTimer.class.getSimpleName();
+
+    public static final String APPLICATION = "application";
+    public static final String ACTIVITY_CREATE = "activity_create";
+    public static final String SOUND_MANAGER = "sound_manager";
+    public static final String CONTENT_VIEW = "content_view";
+    public static final String SNAPSHOT_SHOWN = "snapshot_shown";
+    public static final String FIRST_DRAW = "first_draw";
+    public static final String DATABASE_LOADED = "database_loaded";
+
+    private static long start = -1;
+
+    /** Milliseconds since the start per phase, in the order they were marked */
+    private static final LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+
+    private StartupTimer() throws Exception {
+        throw new Exception("Don't create a StartupTimer instance, use the static methods!");
+    }
+
+    /**
+     * Starts the timer, call this as early as possible
+     */
+    public static synchronized void start() {
+        if(start >= 0) return;
+        start = SystemClock.elapsedRealtime();
+        phases.clear();
+    }
+
+    /**
+     * Records that a phase is done, can be called from any thread
+     * @param phase The name of the phase, one of the constants of this class
+     */
+    public static synchronized void mark(String phase) {
+        if(start < 0 || phases.containsKey(phase)) return;
+        long now = SystemClock.elapsedRealtime() - start;
+        long previous = 0;
+        for(long time : phases.values()) {
+            previous = time;
+        }
+        phases.put(phase, now);
+        Log.i(TAG, String.format("%s after %d ms (+%d ms)", phase, now, now - previous));
+    }
+
+    /**
+     * @return The time of every phase which was marked, in milliseconds since the start
+     */
+    public static synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+}
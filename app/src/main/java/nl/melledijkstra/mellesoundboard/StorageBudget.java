@@ -0,0 +1,121 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The StorageBudget keeps the downloaded sounds within a number of megabytes. When the downloads take
+ * more space the files of the least valuable sounds are deleted, these sounds stay on the board and are
+ * downloaded again when they're played. The value of a sound grows with every play and halves every
+ * {@link #HALF_LIFE_MS} after it was last played or downloaded, so sounds which are played a lot or
+ * recently stay. Sounds which were imported or found on the device are never evicted.
+ */
+public class StorageBudget {
+
+    private static final String TAG = StorageBudget.class.getSimpleName();
+
+    /** The budgets which can be chosen in megabytes, 0 is unlimited */
+    public static final int[] BUDGETS_MB = new int[] { 50, 100, 200, 500, 0 };
+    public static final int DEFAULT_BUDGET_MB = 200;
+
+    /** Eviction stops at this part of the budget, so not every download evicts a sound */
+    private static final float LOW_WATERMARK = 0.9f;
+
+    private static final long HALF_LIFE_MS = 14L * 24 * 60 * 60 * 1000;
+
+    private static final long MB = 1024 * 1024;
+
+    private final String mediaPath;
+    private final SoundsDatabaseHelper soundsDB;
+    private final MediaFileIndex fileIndex;
+    private final SharedPreferences prefs;
+
+    public StorageBudget(Context context, String mediaPath, SoundsDatabaseHelper soundsDB, MediaFileIndex fileIndex) {
+        this.mediaPath = mediaPath;
+        this.soundsDB = soundsDB;
+        this.fileIndex = fileIndex;
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * @return The budget in megabytes, 0 when unlimited
+     */
+    public int getBudgetMb() {
+        return prefs.getInt(Config.Preferences.STORAGE_BUDGET_MB, DEFAULT_BUDGET_MB);
+    }
+
+    public void setBudgetMb(int budgetMb) {
+        prefs.edit().putInt(Config.Preferences.STORAGE_BUDGET_MB, budgetMb).apply();
+    }
+
+    /**
+     * Deletes the files of the least valuable sounds until the downloads fit in the budget again.
+     * Call this on the database thread, the sounds still need to be marked as evicted
+     * @return The ids of the sounds of which the file was deleted
+     */
+    public List<Long> evict() {
+        ArrayList<Long> evicted = new ArrayList<>();
+        long budget = getBudgetMb() * MB;
+        if(budget <= 0) return evicted;
+
+        ArrayList<Candidate> candidates = soundsDB.getEvictionCandidates();
+        long now = System.currentTimeMillis();
+        long used = 0;
+        for(Candidate candidate : candidates) {
+            File file = new File(mediaPath + candidate.localFileName);
+            candidate.size = file.length();
+            // a sound which was just downloaded is as valuable as one which was just played
+            long lastUsed = Math.max(candidate.lastPlayedAt, file.lastModified());
+            candidate.value = (1 + candidate.playCount) * Math.pow(0.5, (double) Math.max(now - lastUsed, 0) / HALF_LIFE_MS);
+            used += candidate.size;
+        }
+        if(used <= budget) return evicted;
+
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                return Double.compare(a.value, b.value);
+            }
+        });
+        long target = (long) (budget * LOW_WATERMARK);
+        long before = used;
+        for(Candidate candidate : candidates) {
+            if(used <= target) break;
+            File file = new File(mediaPath + candidate.localFileName);
+            if(file.exists() && !file.delete()) continue;
+            fileIndex.remove(candidate.localFileName);
+            used -= candidate.size;
+            evicted.add(candidate.soundId);
+        }
+        Log.d(TAG, String.format("Evicted %d sounds, downloads went from %d KB to %d KB with a budget of %d KB",
+                evicted.size(), before / 1024, used / 1024, budget / 1024));
+        return evicted;
+    }
+
+    /**
+     * A downloaded sound which could be evicted
+     */
+    public static class Candidate {
+        final long soundId;
+        final String localFileName;
+        final int playCount;
+        final long lastPlayedAt;
+        long size;
+        double value;
+
+        Candidate(long soundId, String localFileName, int playCount, long lastPlayedAt) {
+            this.soundId = soundId;
+            this.localFileName = localFileName;
+            this.playCount = playCount;
+            this.lastPlayedAt = lastPlayedAt;
+        }
+    }
+}
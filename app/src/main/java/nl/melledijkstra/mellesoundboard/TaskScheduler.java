@@ -0,0 +1,332 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.os.AsyncTask;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The TaskScheduler runs the background work of the whole app in three lanes, so a slow sync never
+ * waits in front of the download the user is waiting on:
+ * - {@link #INTERACTIVE} for work the user sees right away, like the pages of the board
+ * - {@link #USER} for work the user started, like downloads and imports
+ * - {@link #BACKGROUND} for syncing and everything else nobody is waiting on
+ * Every lane has its own threads with their own priority, so a busy lane can't hold up the others.
+ * Work can be given an owner, {@link #cancelAll(Object)} cancels all unfinished work of that owner when
+ * it's destroyed. The lanes count how long work waited in the queue, see {@link #getReport()}.
+ */
+public class TaskScheduler {
+
+    private static final String TAG = TaskScheduler.class.getSimpleName();
+
+    public static final int INTERACTIVE = 0;
+    public static final int USER = 1;
+    public static final int BACKGROUND = 2;
+
+    private static final Lane[] lanes = new Lane[] {
+            new Lane("interactive", 2, Process.THREAD_PRIORITY_DEFAULT),
+            new Lane("user", 3, Process.THREAD_PRIORITY_BACKGROUND),
+            new Lane("background", 1, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE),
+    };
+
+    static {
+        // the queues are read when the metrics are shown, so queueing work costs nothing extra
+        for(final Lane lane : lanes) {
+            MetricsRegistry.gauge("scheduler." + lane.name + ".queued", new MetricsRegistry.Gauge.Source() {
+                @Override
+                public long read() {
+                    return lane.getStats().queued;
+                }
+            });
+        }
+    }
+
+    /** Unfinished tasks and futures by owner, owners which are gone are forgotten by themselves */
+    private static final WeakHashMap<Object, List<Object>> owned = new WeakHashMap<>();
+
+    private TaskScheduler() throws Exception {
+        throw new Exception("Don't create a TaskScheduler instance, use the static methods!");
+    }
+
+    /**
+     * Runs the task in a lane, call this from the main thread like AsyncTask.execute
+     * @param owner Whose work this is, null when it may never be cancelled
+     * @param lane {@link #INTERACTIVE}, {@link #USER} or {@link #BACKGROUND}
+     */
+    public static <P> void execute(@Nullable Object owner, int lane, AsyncTask<P, ?, ?> task, P... params) {
+        task.executeOnExecutor(getExecutor(lane), params);
+        own(owner, task);
+    }
+
+    /**
+     * Runs the runnable in a lane
+     * @param owner Whose work this is, null when it may never be cancelled
+     * @return The future which can be used to cancel the runnable
+     */
+    public static Future<?> execute(@Nullable Object owner, int lane, Runnable runnable) {
+        FutureTask<Void> future = new FutureTask<>(runnable, null);
+        getExecutor(lane).execute(future);
+        own(owner, future);
+        return future;
+    }
+
+    /**
+     * @return The executor of the lane, for work which manages itself
+     */
+    public static Executor getExecutor(int lane) {
+        return lanes[lane];
+    }
+
+    /**
+     * Makes a queue which runs its work in a lane one after another, for work which shares state like a
+     * decoder. Other work of the lane still runs in between
+     * @param name The name of the queue in the metrics
+     */
+    public static SerialQueue serial(String name, int lane) {
+        return new SerialQueue(name, lanes[lane]);
+    }
+
+    /**
+     * Cancels all unfinished work of the owner, running work is interrupted
+     */
+    public static void cancelAll(Object owner) {
+        List<Object> work;
+        synchronized(owned) {
+            work = owned.remove(owner);
+        }
+        if(work == null) return;
+        for(Object item : work) {
+            if(item instanceof AsyncTask) {
+                ((AsyncTask<?, ?, ?>) item).cancel(true);
+            } else {
+                ((Future<?>) item).cancel(true);
+            }
+        }
+    }
+
+    private static void own(@Nullable Object owner, Object work) {
+        if(owner == null) return;
+        synchronized(owned) {
+            List<Object> items = owned.get(owner);
+            if(items == null) {
+                items = new ArrayList<>();
+                owned.put(owner, items);
+            }
+            // forget what's done so the list doesn't grow
+            Iterator<Object> it = items.iterator();
+            while(it.hasNext()) {
+                if(isDone(it.next())) it.remove();
+            }
+            items.add(work);
+        }
+    }
+
+    private static boolean isDone(Object work) {
+        if(work instanceof AsyncTask) {
+            AsyncTask<?, ?, ?> task = (AsyncTask<?, ?, ?>) work;
+            return task.isCancelled() || task.getStatus() == AsyncTask.Status.FINISHED;
+        }
+        return ((Future<?>) work).isDone();
+    }
+
+    /**
+     * @return The numbers of one lane right now
+     */
+    public static Stats getStats(int lane) {
+        return lanes[lane].getStats();
+    }
+
+    /**
+     * Clears the numbers of all lanes, the queued and running work is kept
+     */
+    public static void resetStats() {
+        for(Lane lane : lanes) {
+            lane.resetStats();
+        }
+    }
+
+    /**
+     * @return One line per lane with its queue and wait times
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder();
+        for(int i = 0; i < lanes.length; ++i) {
+            report.append(getStats(i)).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * The numbers of a lane at one moment
+     */
+    public static class Stats {
+        public final String lane;
+        public final int threads;
+        public final int queued;
+        public final int maxQueued;
+        public final int active;
+        public final long completed;
+        public final long meanWaitMs;
+        public final long maxWaitMs;
+
+        Stats(String lane, int threads, int queued, int maxQueued, int active, long completed, long meanWaitMs, long maxWaitMs) {
+            this.lane = lane;
+            this.threads = threads;
+            this.queued = queued;
+            this.maxQueued = maxQueued;
+            this.active = active;
+            this.completed = completed;
+            this.meanWaitMs = meanWaitMs;
+            this.maxWaitMs = maxWaitMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s threads %d, queued %d (max %d), active %d, done %d, wait mean %d ms, max %d ms",
+                    lane, threads, queued, maxQueued, active, completed, meanWaitMs, maxWaitMs);
+        }
+    }
+
+    /**
+     * Runs work in a lane in the order it was given, only one at a time. The work which waits here isn't
+     * in the queue of the lane yet, so the queue has its own gauge
+     */
+    public static class SerialQueue implements Executor {
+
+        private final Lane lane;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        @Nullable
+        private Runnable active;
+
+        SerialQueue(String name, Lane lane) {
+            this.lane = lane;
+            MetricsRegistry.gauge("scheduler." + name + ".queued", new MetricsRegistry.Gauge.Source() {
+                @Override
+                public long read() {
+                    synchronized(SerialQueue.this) {
+                        return queue.size();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public synchronized void execute(final Runnable runnable) {
+            queue.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } finally {
+                        next();
+                    }
+                }
+            });
+            if(active == null) next();
+        }
+
+        private synchronized void next() {
+            active = queue.poll();
+            if(active != null) lane.execute(active);
+        }
+    }
+
+    /**
+     * A pool with a fixed number of threads which measures how long work waits for a thread
+     */
+    private static class Lane implements Executor {
+
+        private final String name;
+        private final int threads;
+        private final ThreadPoolExecutor executor;
+
+        private final Object statsLock = new Object();
+        private int queued;
+        private int maxQueued;
+        private int active;
+        private long started;
+        private long completed;
+        private long totalWaitMs;
+        private long maxWaitMs;
+
+        Lane(final String name, int threads, final int priority) {
+            this.name = name;
+            this.threads = threads;
+            executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private int count;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(priority);
+                            runnable.run();
+                        }
+                    }, "TaskScheduler-" + name + "-" + (++count));
+                }
+            });
+            // idle lanes don't keep their threads
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(final Runnable runnable) {
+            final long queuedAt = SystemClock.elapsedRealtime();
+            synchronized(statsLock) {
+                maxQueued = Math.max(maxQueued, ++queued);
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long waitMs = SystemClock.elapsedRealtime() - queuedAt;
+                    synchronized(statsLock) {
+                        --queued;
+                        ++active;
+                        ++started;
+                        totalWaitMs += waitMs;
+                        maxWaitMs = Math.max(maxWaitMs, waitMs);
+                    }
+                    try {
+                        runnable.run();
+                    } finally {
+                        synchronized(statsLock) {
+                            --active;
+                            ++completed;
+                        }
+                    }
+                }
+            });
+        }
+
+        Stats getStats() {
+            synchronized(statsLock) {
+                return new Stats(name, threads, queued, maxQueued, active, completed,
+                        (started > 0) ? totalWaitMs / started : 0, maxWaitMs);
+            }
+        }
+
+        void resetStats() {
+            synchronized(statsLock) {
+                maxQueued = queued;
+                started = 0;
+                completed = 0;
+                totalWaitMs = 0;
+                maxWaitMs = 0;
+            }
+        }
+    }
+}
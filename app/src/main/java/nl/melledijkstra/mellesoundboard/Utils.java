@@ -15,26 +15,12 @@ public class Utils {
         throw new Exception("Don't create a Utils instance, this class is only for the helper methods!");
     }
 
-    public static boolean stringContainsItemFromList(String inputString, String[] items) {
-        for (String item : items) {
-            if (inputString.contains(item)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    public static String implode(String seperator, String[] parts) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0;i < parts.length - 1;i++) {
-            // parts.length - 1 to not get seperator on the end
-            if(!parts[i].matches(" *")) { // omit empty strings
-                sb.append(parts[i]);
-                sb.append(seperator);
-            }
-        }
-        sb.append(parts[parts.length - 1].trim());
-        return sb.toString();
+    /**
+     * @return The file name without its extension
+     */
+    public static String stripExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0) ? fileName.substring(0, dot) : fileName;
     }
 
     /**
@@ -0,0 +1,169 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * The Waveform model is the envelope of a sound, the peak and RMS level of a fixed number of buckets.
+ * The levels are normalized to the loudest peak of the sound, so quiet sounds still show their shape,
+ * and stored as one unsigned byte per bucket.
+ */
+public class Waveform {
+
+    /** The number of buckets of every waveform */
+    public static final int BUCKETS = 64;
+
+    private static final int MAGIC = 0x57415645; // WAVE
+    private static final int VERSION = 1;
+
+    private final byte[] peaks;
+    private final byte[] rms;
+
+    private Waveform(byte[] peaks, byte[] rms) {
+        this.peaks = peaks;
+        this.rms = rms;
+    }
+
+    /**
+     * @return The peak level of the bucket between 0 and 1
+     */
+    public float getPeak(int bucket) {
+        return (peaks[bucket] & 0xff) / 255f;
+    }
+
+    /**
+     * @return The RMS level of the bucket between 0 and 1
+     */
+    public float getRms(int bucket) {
+        return (rms[bucket] & 0xff) / 255f;
+    }
+
+    public void writeTo(File file) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeShort(BUCKETS);
+            output.write(peaks);
+            output.write(rms);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * @return The waveform in the file or null if the file has another format
+     */
+    @Nullable
+    public static Waveform readFrom(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(input.readInt() != MAGIC || input.readByte() != VERSION || input.readShort() != BUCKETS) {
+                return null;
+            }
+            byte[] peaks = new byte[BUCKETS];
+            byte[] rms = new byte[BUCKETS];
+            input.readFully(peaks);
+            input.readFully(rms);
+            return new Waveform(peaks, rms);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Collects the decoded samples in small buckets and reduces them to a waveform when the sound is decoded.
+     * When the duration is unknown the buckets are a tenth of a second
+     */
+    public static class Builder implements PcmDecoder.SampleSink {
+
+        private int channels = 1;
+        private long framesPerBucket;
+
+        private float[] peaks = new float[BUCKETS * 4];
+        private float[] meanSquares = new float[BUCKETS * 4];
+        private int buckets;
+
+        private int channel;
+        private long frames;
+        private int peak;
+        private double sumSquares;
+
+        @Override
+        public void onFormat(int sampleRate, int channels, long durationUs) {
+            this.channels = Math.max(channels, 1);
+            if(framesPerBucket > 0) return;
+            long totalFrames = durationUs * sampleRate / 1000000;
+            framesPerBucket = (totalFrames > 0) ? (totalFrames + BUCKETS - 1) / BUCKETS : Math.max(sampleRate / 10, 1);
+        }
+
+        @Override
+        public void onSamples(ShortBuffer samples) {
+            while(samples.hasRemaining()) {
+                int sample = Math.abs((int) samples.get());
+                if(sample > peak) peak = sample;
+                sumSquares += (double) sample * sample;
+                if(++channel == channels) {
+                    channel = 0;
+                    if(++frames == framesPerBucket) commit();
+                }
+            }
+        }
+
+        private void commit() {
+            if(frames == 0) return;
+            if(buckets == peaks.length) {
+                peaks = Arrays.copyOf(peaks, buckets * 2);
+                meanSquares = Arrays.copyOf(meanSquares, buckets * 2);
+            }
+            peaks[buckets] = peak / 32768f;
+            meanSquares[buckets] = (float) (sumSquares / (frames * channels) / (32768.0 * 32768.0));
+            ++buckets;
+            frames = 0;
+            peak = 0;
+            sumSquares = 0;
+        }
+
+        /**
+         * @return The waveform of everything that was decoded, merged into {@link #BUCKETS} buckets
+         */
+        public Waveform build() {
+            commit();
+            float[] mergedPeaks = new float[BUCKETS];
+            float[] mergedRms = new float[BUCKETS];
+            float loudest = 0;
+            for(int i = 0; i < BUCKETS && buckets > 0; ++i) {
+                int from = i * buckets / BUCKETS;
+                int to = Math.max((i + 1) * buckets / BUCKETS, from + 1);
+                float bucketPeak = 0;
+                float bucketSquares = 0;
+                for(int j = from; j < to && j < buckets; ++j) {
+                    bucketPeak = Math.max(bucketPeak, peaks[j]);
+                    bucketSquares += meanSquares[j];
+                }
+                mergedPeaks[i] = bucketPeak;
+                mergedRms[i] = (float) Math.sqrt(bucketSquares / (to - from));
+                loudest = Math.max(loudest, bucketPeak);
+            }
+            byte[] peakLevels = new byte[BUCKETS];
+            byte[] rmsLevels = new byte[BUCKETS];
+            if(loudest > 0) {
+                for(int i = 0; i < BUCKETS; ++i) {
+                    peakLevels[i] = (byte) Math.min(255, Math.round(mergedPeaks[i] / loudest * 255));
+                    rmsLevels[i] = (byte) Math.min(255, Math.round(mergedRms[i] / loudest * 255));
+                }
+            }
+            return new Waveform(peakLevels, rmsLevels);
+        }
+    }
+}
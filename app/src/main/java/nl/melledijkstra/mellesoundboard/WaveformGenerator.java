@@ -0,0 +1,386 @@
+package nl.melledijkstra.mellesoundboard;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.melledijkstra.mellesoundboard.ui.WaveformView;
+
+/**
+ * The WaveformGenerator decodes every downloaded sound once and stores its {@link Waveform} in a
+ * small file named after the id of the sound. The same pass finds the silence at the start and end
+ * of the sound with a {@link SilenceDetector}, sounds which weren't trimmed yet are decoded again. Generating runs in the
+ * background lane of the {@link TaskScheduler}, one sound per turn so a long run doesn't hold up the sync, and pauses
+ * while a sound plays or the board scrolls.
+ * Starting a new run cancels the previous one, sounds which already have a waveform are skipped.
+ *
+ * Waveforms are read back in the interactive lane when a cell is bound and kept in a small memory cache.
+ * All public methods must be called from the main thread.
+ */
+public class WaveformGenerator {
+
+    private static final String TAG = WaveformGenerator.class.getSimpleName();
+
+    private static final String EXTENSION = ".wave";
+
+    /** Waveforms are about 150 bytes, this is plenty for a few screens of cells */
+    private static final int MEMORY_CACHE_SIZE = 512;
+
+    private final File directory;
+
+    /** The waveform files which exist */
+    private final MediaFileIndex index;
+
+    /** Counted down when the index is built */
+    private final CountDownLatch indexed = new CountDownLatch(1);
+
+    /** Sounds which could not be decoded, these are not tried again until the app restarts */
+    private final Set<Long> failed = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final LruCache<Long, Waveform> cache = new LruCache<>(MEMORY_CACHE_SIZE);
+
+    /** The decoder and the waveform files are used by one generate task at a time */
+    private final TaskScheduler.SerialQueue generateQueue = TaskScheduler.serial("waveforms", TaskScheduler.BACKGROUND);
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final PcmDecoder decoder = new PcmDecoder();
+
+    /** Changes when running generations should stop */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final Object pauseLock = new Object();
+    private boolean playing;
+    private boolean scrolling;
+
+    @Nullable
+    private OnWaveformReadyListener listener;
+
+    @Nullable
+    private OnTrimDetectedListener trimListener;
+
+    public WaveformGenerator(Context context) {
+        directory = new File(context.getFilesDir(), "waveforms");
+        index = new MediaFileIndex(directory.getPath() + "/");
+        // the first cells wait for the index, so it's built in the same lane as their reads
+        TaskScheduler.execute(null, TaskScheduler.INTERACTIVE, new Runnable() {
+            @Override
+            public void run() {
+                if(!directory.isDirectory() && !directory.mkdirs()) {
+                    Log.d(TAG, "Could not create "+directory.getPath());
+                }
+                index.rebuild();
+                indexed.countDown();
+            }
+        });
+    }
+
+    public void setOnWaveformReadyListener(@Nullable OnWaveformReadyListener listener) {
+        this.listener = listener;
+    }
+
+    public void setOnTrimDetectedListener(@Nullable OnTrimDetectedListener trimListener) {
+        this.trimListener = trimListener;
+    }
+
+    /**
+     * Generates the missing waveforms of the downloaded sounds in the background, cancels the previous run
+     * @param snapshot The sounds to check, this list must not change
+     */
+    public void generateMissing(final List<Sound> snapshot) {
+        if(!PcmDecoder.isSupported()) return;
+        generateQueue.execute(new GenerateRun(snapshot, cancel()));
+    }
+
+    /**
+     * Generates the waveform of one sound in the background if it's downloaded and has none or wasn't trimmed yet
+     */
+    public void generate(final Sound sound) {
+        if(!PcmDecoder.isSupported()) return;
+        final int current = generation.get();
+        generateQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(awaitIndex()) generateIfMissing(sound, current);
+            }
+        });
+    }
+
+    /**
+     * Removes the waveform of a sound which was deleted, runs after the sound which is being generated
+     */
+    public void delete(final long soundId) {
+        cache.remove(soundId);
+        generateQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                String fileName = fileName(soundId);
+                new File(directory, fileName).delete();
+                index.remove(fileName);
+                failed.remove(soundId);
+            }
+        });
+    }
+
+    /**
+     * Stops generating and removes all waveforms
+     */
+    public void deleteAll() {
+        cancel();
+        cache.evictAll();
+        generateQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+                if(files != null) {
+                    for(File file : files) {
+                        file.delete();
+                    }
+                }
+                index.rebuild();
+                failed.clear();
+            }
+        });
+    }
+
+    /**
+     * Pauses generating while a sound plays, so decoding never competes with playback
+     */
+    public void setPlaying(boolean playing) {
+        synchronized(pauseLock) {
+            this.playing = playing;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Pauses generating while the board scrolls
+     */
+    public void setScrolling(boolean scrolling) {
+        synchronized(pauseLock) {
+            this.scrolling = scrolling;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Shows the waveform of the sound in the view, it's read in the background when it's not cached
+     * @param sound The sound to show, null or a sound without waveform clears the view
+     */
+    public void bind(final WaveformView view, @Nullable Sound sound) {
+        final long soundId = (sound != null && sound.getLocalFileName() != null) ? sound.id : -1;
+        view.setTag(R.id.waveform_sound, soundId);
+        Waveform cached = (soundId >= 0) ? cache.get(soundId) : null;
+        view.setWaveform(cached);
+        if(soundId < 0 || cached != null) return;
+        TaskScheduler.execute(this, TaskScheduler.INTERACTIVE, new Runnable() {
+            @Override
+            public void run() {
+                final Waveform waveform = read(soundId);
+                if(waveform == null) return;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        cache.put(soundId, waveform);
+                        Object boundId = view.getTag(R.id.waveform_sound);
+                        if(boundId != null && (Long) boundId == soundId) view.setWaveform(waveform);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops generating and reading, a generation in progress stops at its next buffer
+     */
+    public void shutdown() {
+        cancel();
+        TaskScheduler.cancelAll(this);
+    }
+
+    /**
+     * Stops the running generation
+     * @return The new generation
+     */
+    private int cancel() {
+        int current = generation.incrementAndGet();
+        synchronized(pauseLock) {
+            pauseLock.notifyAll();
+        }
+        return current;
+    }
+
+    /**
+     * Runs in the generate queue
+     * @return true if a waveform was generated
+     */
+    private boolean generateIfMissing(Sound sound, final int current) {
+        // the local file name is only set when the file is present
+        if(sound.getLocalFileName() == null || failed.contains(sound.id)) return false;
+        String fileName = fileName(sound.id);
+        if(index.contains(fileName) && sound.isTrimmed()) return false;
+
+        final Waveform.Builder builder = new Waveform.Builder();
+        final SilenceDetector silence = new SilenceDetector();
+        try {
+            // one decode feeds both
+            PcmDecoder.SampleSink sink = new PcmDecoder.SampleSink() {
+                @Override
+                public void onFormat(int sampleRate, int channels, long durationUs) {
+                    builder.onFormat(sampleRate, channels, durationUs);
+                    silence.onFormat(sampleRate, channels, durationUs);
+                }
+
+                @Override
+                public void onSamples(ShortBuffer samples) {
+                    int position = samples.position();
+                    builder.onSamples(samples);
+                    samples.position(position);
+                    silence.onSamples(samples);
+                }
+            };
+            boolean complete = decoder.decode(sound.getSoundFile(), sink, new PcmDecoder.Checkpoint() {
+                @Override
+                public boolean shouldStop() {
+                    return waitWhilePaused(current);
+                }
+            });
+            if(!complete) {
+                if(generation.get() == current) failed.add(sound.id);
+                return false;
+            }
+        } catch(IOException | RuntimeException e) {
+            // MediaCodec reports broken or unsupported files with runtime exceptions
+            Log.d(TAG, "Could not decode "+sound.getLocalFileName()+": "+e.getMessage());
+            failed.add(sound.id);
+            return false;
+        }
+
+        final long soundId = sound.id;
+        final int trimStartMs = silence.getTrimStartMs();
+        final int trimEndMs = silence.getTrimEndMs();
+        final Waveform waveform = builder.build();
+        File file = new File(directory, fileName);
+        File temp = new File(directory, fileName + ".tmp");
+        try {
+            waveform.writeTo(temp);
+            if(!temp.renameTo(file)) throw new IOException("Could not rename "+temp.getName());
+            index.add(fileName);
+        } catch(IOException e) {
+            Log.d(TAG, "Could not write waveform of "+sound.name+": "+e.getMessage());
+            temp.delete();
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                cache.put(soundId, waveform);
+                if(listener != null) listener.onWaveformReady(soundId);
+                if(trimListener != null) trimListener.onTrimDetected(soundId, trimStartMs, trimEndMs);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Blocks while generating is paused
+     * @return true if the generation should stop
+     */
+    private boolean waitWhilePaused(int current) {
+        synchronized(pauseLock) {
+            while((playing || scrolling) && generation.get() == current) {
+                try {
+                    pauseLock.wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return true;
+                }
+            }
+        }
+        return generation.get() != current || Thread.currentThread().isInterrupted();
+    }
+
+    @Nullable
+    private Waveform read(long soundId) {
+        if(!awaitIndex()) return null;
+        String fileName = fileName(soundId);
+        if(!index.contains(fileName)) return null;
+        try {
+            return Waveform.readFrom(new File(directory, fileName));
+        } catch(IOException e) {
+            Log.d(TAG, "Could not read waveform "+fileName+": "+e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean awaitIndex() {
+        try {
+            indexed.await();
+            return true;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String fileName(long soundId) {
+        return soundId + EXTENSION;
+    }
+
+    /**
+     * Generates the missing waveforms of a snapshot, queues itself again after every sound
+     */
+    private class GenerateRun implements Runnable {
+        final List<Sound> snapshot;
+        final int current;
+        int next;
+        int generated;
+
+        GenerateRun(List<Sound> snapshot, int current) {
+            this.snapshot = snapshot;
+            this.current = current;
+        }
+
+        @Override
+        public void run() {
+            if(generation.get() != current || !awaitIndex()) return;
+            if(next < snapshot.size()) {
+                if(generateIfMissing(snapshot.get(next), current)) ++generated;
+                ++next;
+            }
+            if(next < snapshot.size()) {
+                generateQueue.execute(this);
+            } else {
+                Log.d(TAG, "Generated "+generated+" waveforms for "+snapshot.size()+" sounds");
+            }
+        }
+    }
+
+    public interface OnWaveformReadyListener {
+        /**
+         * Called on the main thread when a waveform was generated
+         */
+        void onWaveformReady(long soundId);
+    }
+
+    public interface OnTrimDetectedListener {
+        /**
+         * Called on the main thread when the silence of a sound was detected
+         * @param startMs Where playback should start
+         * @param endMs Where playback should stop
+         */
+        void onTrimDetected(long soundId, int startMs, int endMs);
+    }
+}
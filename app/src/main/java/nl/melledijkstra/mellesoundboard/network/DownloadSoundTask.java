@@ -10,6 +10,7 @@ import android.support.annotation.RequiresPermission;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -18,6 +19,8 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.jar.Manifest;
 
+import nl.melledijkstra.mellesoundboard.MainThreadIoMonitor;
+import nl.melledijkstra.mellesoundboard.MetricsRegistry;
 import nl.melledijkstra.mellesoundboard.Sound;
 import nl.melledijkstra.mellesoundboard.SoundManager;
 
@@ -29,6 +32,10 @@ import nl.melledijkstra.mellesoundboard.SoundManager;
 public class DownloadSoundTask extends AsyncTask<Sound, Integer, String> {
 
     private static final String TAG = DownloadSoundTask.class.getSimpleName();
+
+    private static final MetricsRegistry.Timer DOWNLOAD_TIME = MetricsRegistry.timer("download.time");
+    private static final MetricsRegistry.Counter BYTES_DOWNLOADED = MetricsRegistry.counter("download.bytes");
+    private static final MetricsRegistry.Counter DOWNLOAD_FAILURES = MetricsRegistry.counter("download.failures");
     private final Context context;
 
     private downloadTaskListener listener;
@@ -58,6 +65,8 @@ public class DownloadSoundTask extends AsyncTask<Sound, Integer, String> {
         // For writing to file
         OutputStream output = null;
         HttpURLConnection connection = null;
+        long started = MetricsRegistry.Timer.start();
+        MainThreadIoMonitor.Probe probe = MainThreadIoMonitor.enter(MainThreadIoMonitor.NETWORK, "DownloadSoundTask.doInBackground");
         try {
             URL url = new URL(sound.downloadLink);
             connection = (HttpURLConnection) url.openConnection();
@@ -94,14 +103,24 @@ public class DownloadSoundTask extends AsyncTask<Sound, Integer, String> {
                         return null;
                     }
                     total += count;
+                    BYTES_DOWNLOADED.add(count);
                     // publishing the progress...
                     if(soundLength > 0)
                         publishProgress((int) (total * 100 / soundLength));
                     output.write(data, 0, count);
                 }
 
-                sound.setLocalFileName(sound.getRemoteFileName());
+                // closed first so the modified time is final, the media scanner compares it with the stored one
+                output.close();
+                output = null;
+                File file = new File(SoundManager.MEDIA_PATH+sound.getRemoteFileName());
+                sound.fileMtime = file.lastModified();
+                sound.fileSize = file.length();
+
+                // the file was just written so there is no need to check if it exists
+                sound.setLocalFileName(sound.getRemoteFileName(), true);
                 sound.setDownloaded(true);
+                DOWNLOAD_TIME.stop(started);
 
             } else {
                 errorCaught = true;
@@ -114,6 +133,7 @@ public class DownloadSoundTask extends AsyncTask<Sound, Integer, String> {
             errorCaught = true;
             e.printStackTrace();
         } finally {
+            MainThreadIoMonitor.exit(probe);
             try {
                 // Cleanup
                 if(output != null) output.close();
@@ -163,6 +183,7 @@ public class DownloadSoundTask extends AsyncTask<Sound, Integer, String> {
         if(status == 404) {
             listener.onSoundNotFound(sound);
         } else if(status >= 300 || errorCaught) {
+            DOWNLOAD_FAILURES.inc();
             listener.onDownloadFailed(status);
             Log.e(TAG, "Download failed with status: "+status+", url: "+sound.downloadLink);
         } else {
@@ -7,18 +7,19 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 import android.widget.Toast;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.List;
 
 import nl.melledijkstra.mellesoundboard.Config;
+import nl.melledijkstra.mellesoundboard.MainThreadIoMonitor;
+import nl.melledijkstra.mellesoundboard.MetricsRegistry;
 import nl.melledijkstra.mellesoundboard.Sound;
+import nl.melledijkstra.mellesoundboard.SoundJsonParser;
 
 /**
  * This Task makes a request to the server to get Sound Changes
@@ -28,12 +29,20 @@ import nl.melledijkstra.mellesoundboard.Sound;
 public class GetChangesTask extends AsyncTask<Integer, Void, String> {
 
     private static final String TAG = GetChangesTask.class.getSimpleName();
+
+    private static final MetricsRegistry.Timer REQUEST_TIME = MetricsRegistry.timer("sync.request");
+    private static final MetricsRegistry.Timer PARSE_TIME = MetricsRegistry.timer("sync.parse");
+    private static final MetricsRegistry.Counter CHARS_RECEIVED = MetricsRegistry.counter("sync.chars_received");
     private final onChangesListener listener;
 
     private int status;
     private boolean errorCaught;
     private StringBuilder buffer;
 
+    /** The sounds of the response, parsed in the background */
+    @Nullable
+    private List<Sound> sounds;
+
     public GetChangesTask(@Nullable onChangesListener listener) {
         this.listener = listener;
     }
@@ -43,6 +52,8 @@ public class GetChangesTask extends AsyncTask<Integer, Void, String> {
         HttpURLConnection connection = null;
         BufferedReader reader = null;
         int timestamp = timestamps[0];
+        long started = MetricsRegistry.Timer.start();
+        MainThreadIoMonitor.Probe probe = MainThreadIoMonitor.enter(MainThreadIoMonitor.NETWORK, "GetChangesTask.doInBackground");
         try {
             URL url = new URL(Config.getApiUrl()+Sound.MODEL_NAME+"/changes/"+timestamp);
             connection = (HttpURLConnection) url.openConnection();
@@ -67,11 +78,29 @@ public class GetChangesTask extends AsyncTask<Integer, Void, String> {
                 buffer.append(line);
             }
 
-            return buffer.toString();
+            String result = buffer.toString();
+            MainThreadIoMonitor.exit(probe);
+            probe = null;
+            REQUEST_TIME.stop(started);
+            CHARS_RECEIVED.add(result.length());
+            if(status < 300) {
+                long parseStarted = MetricsRegistry.Timer.start();
+                try {
+                    sounds = SoundJsonParser.parseSounds(result);
+                } catch (SoundJsonParser.JsonException e) {
+                    Log.d(TAG, "Could not parse the sounds from: "+result+" - "+e.getMessage());
+                    errorCaught = true;
+                } finally {
+                    PARSE_TIME.stop(parseStarted);
+                }
+            }
+            return result;
         } catch (Exception e) {
             Log.d(TAG,"Something went wrong - "+e.getMessage());
             errorCaught = true;
         } finally {
+            // still set when the request failed
+            MainThreadIoMonitor.exit(probe);
             if (connection != null) {
                 connection.disconnect();
             }
@@ -93,27 +122,21 @@ public class GetChangesTask extends AsyncTask<Integer, Void, String> {
             Log.d(TAG, result);
         if(listener == null)
             return;
-        if(status >= 300 || errorCaught)
+        if(status >= 300 || errorCaught || sounds == null)
         {
             listener.onHttpFailed(status, result);
             Log.e(TAG, "HTTP Connection Fault  " + (buffer != null ? buffer.toString() : ""));
         }
         else
-            try {
-                JSONArray json = new JSONArray(result);
-                listener.onHttpSuccess(json);
-            } catch (JSONException e) {
-                Log.d(TAG, "Could not create JSON from: "+result);
-                e.printStackTrace();
-            }
+            listener.onHttpSuccess(sounds);
     }
 
     public interface onChangesListener {
         /**
          * This runs when the request for new changes completed correctly
-         * @param new_sounds The new sounds which need to be downloaded and stored in database
+         * @param new_sounds The new and changed sounds of the server, with their remote ids
          */
-        void onHttpSuccess(JSONArray new_sounds);
+        void onHttpSuccess(List<Sound> new_sounds);
 
         /**
          * This runs when the request for new changes failed
@@ -1,16 +0,0 @@
-package nl.melledijkstra.mellesoundboard.network;
-
-import android.os.AsyncTask;
-
-/**
- * Created by melle on 10-10-2016.
- */
-
-public class UpdateSoundsTask extends AsyncTask<String, Void, String> {
-
-    @Override
-    protected String doInBackground(String... params) {
-        return null;
-    }
-
-}
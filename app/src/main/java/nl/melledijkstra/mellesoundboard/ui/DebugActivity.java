@@ -0,0 +1,135 @@
+package nl.melledijkstra.mellesoundboard.ui;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import nl.melledijkstra.mellesoundboard.MainThreadIoMonitor;
+import nl.melledijkstra.mellesoundboard.MetricsRegistry;
+import nl.melledijkstra.mellesoundboard.R;
+import nl.melledijkstra.mellesoundboard.StartupTimer;
+import nl.melledijkstra.mellesoundboard.TaskScheduler;
+
+/**
+ * Shows the startup phases, the frame times of the board, the metrics of the MetricsRegistry, the lanes of the
+ * TaskScheduler and the disk work and parsing found on the main thread, only reachable in debug builds. The main
+ * thread report and the metrics can be saved to a file to pull them from the device
+ */
+public class DebugActivity extends AppCompatActivity {
+
+    private static final String TAG = DebugActivity.class.getSimpleName();
+
+    private static final String DUMP_FILE_NAME = "main_thread_io.txt";
+    private static final String METRICS_FILE_NAME = "metrics.json";
+
+    /** The frame report of the board, see FrameMetricsTracker */
+    public static final String EXTRA_FRAME_REPORT = "frame_report";
+
+    private TextView report;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_debug);
+        report = (TextView) findViewById(R.id.debug_report);
+        if(getSupportActionBar() != null) getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showReport();
+    }
+
+    private void showReport() {
+        StringBuilder text = new StringBuilder();
+        text.append(getString(R.string.debug_startup)).append('\n');
+        for(Map.Entry<String, Long> phase : StartupTimer.getPhases().entrySet()) {
+            text.append(String.format("%-16s %6d ms\n", phase.getKey(), phase.getValue()));
+        }
+        String frameReport = getIntent().getStringExtra(EXTRA_FRAME_REPORT);
+        if(frameReport != null) {
+            text.append('\n').append(getString(R.string.debug_frames)).append('\n').append(frameReport);
+        }
+        text.append('\n').append(getString(R.string.debug_metrics)).append('\n');
+        text.append(MetricsRegistry.getReport());
+        text.append('\n').append(getString(R.string.debug_scheduler)).append('\n');
+        text.append(TaskScheduler.getReport());
+        text.append('\n').append(getString(R.string.debug_main_thread_io)).append('\n');
+        text.append(MainThreadIoMonitor.getReport());
+        report.setText(text);
+    }
+
+    /**
+     * @param metrics true to export the metrics as JSON, false for the main thread report
+     */
+    private void saveDump(final boolean metrics) {
+        File dir = getExternalFilesDir(null);
+        final File file = new File(dir != null ? dir : getFilesDir(), metrics ? METRICS_FILE_NAME : DUMP_FILE_NAME);
+        // of course not on the main thread
+        TaskScheduler.execute(null, TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                boolean saved;
+                try {
+                    if(metrics) {
+                        MetricsRegistry.dump(file);
+                    } else {
+                        MainThreadIoMonitor.dump(file);
+                    }
+                    saved = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not write report: "+e.getMessage());
+                    saved = false;
+                }
+                final boolean success = saved;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(DebugActivity.this, success ? getString(R.string.msg_dump_saved, file.getPath())
+                                : getString(R.string.msg_dump_failed), Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_debug, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case android.R.id.home:
+                finish();
+                return true;
+            case R.id.action_refresh:
+                showReport();
+                return true;
+            case R.id.action_reset:
+                MainThreadIoMonitor.reset();
+                TaskScheduler.resetStats();
+                MetricsRegistry.reset();
+                showReport();
+                return true;
+            case R.id.action_save_dump:
+                saveDump(false);
+                return true;
+            case R.id.action_export_metrics:
+                saveDump(true);
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
@@ -2,59 +2,118 @@ package nl.melledijkstra.mellesoundboard.ui;
 
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.TabLayout;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.GridView;
+import android.view.ViewTreeObserver;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import com.ipaulpro.afilechooser.utils.FileUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.List;
 
+import nl.melledijkstra.mellesoundboard.App;
+import nl.melledijkstra.mellesoundboard.Board;
+import nl.melledijkstra.mellesoundboard.BoardStore;
+import nl.melledijkstra.mellesoundboard.BuildConfig;
 import nl.melledijkstra.mellesoundboard.Config;
+import nl.melledijkstra.mellesoundboard.FrameMetricsTracker;
+import nl.melledijkstra.mellesoundboard.ImportSoundsTask;
 import nl.melledijkstra.mellesoundboard.R;
+import nl.melledijkstra.mellesoundboard.Sequence;
+import nl.melledijkstra.mellesoundboard.Sound;
 import nl.melledijkstra.mellesoundboard.SoundBoardAdapter;
+import nl.melledijkstra.mellesoundboard.SoundChangeSet;
 import nl.melledijkstra.mellesoundboard.SoundManager;
-import nl.melledijkstra.mellesoundboard.Utils;
+import nl.melledijkstra.mellesoundboard.SoundsDatabaseHelper;
+import nl.melledijkstra.mellesoundboard.StartupTimer;
+import nl.melledijkstra.mellesoundboard.StorageBudget;
+import nl.melledijkstra.mellesoundboard.StringUtils;
+import nl.melledijkstra.mellesoundboard.WaveformGenerator;
 
-public class MainActivity extends AppCompatActivity implements AdapterView.OnItemClickListener, AdapterView.OnItemLongClickListener, SoundManager.onSoundsArrayUpdateListener {
+public class MainActivity extends AppCompatActivity implements SoundBoardAdapter.OnSoundClickListener, SoundManager.onSoundsArrayUpdateListener {
 
     private static final String TAG = MainActivity.class.getSimpleName();
 
     private static final int CHOOSE_FILE_INTENT = 2323;
+    /** A file is chosen as well, its whole folder is imported */
+    private static final int CHOOSE_FOLDER_INTENT = 2324;
+
+    /** Time to wait after the last keystroke before the board is filtered */
+    private static final long SEARCH_DEBOUNCE_MS = 200;
 //    private static final int REQUEST_EXTERNAL_STORAGE = 54;
 
+    private static final int BOARD_COLUMNS = 3;
+
+    /** Enough recycled cells to lay out a few new rows during a fling without inflating */
+    private static final int RECYCLED_CELLS = BOARD_COLUMNS * 4;
+
+    /** Cells which scrolled just out of view are kept bound, so scrolling back doesn't rebind them */
+    private static final int CACHED_CELLS = BOARD_COLUMNS * 2;
+
+    /** When more sounds changed than this the whole board is rebound instead of every cell on its own */
+    private static final int MAX_SEPARATE_CHANGES = 48;
+
     private SoundManager soundManager;
 
     SoundBoardAdapter adapter;
 
     // Views
+    TabLayout boardTabs;
     SwipeRefreshLayout refresher;
+    RecyclerView soundBoard;
+    GridLayoutManager layoutManager;
     private int lastPosition = -1;
 
+    /** true while the tabs are rebuilt, selecting them then doesn't switch the board */
+    private boolean updatingTabs;
+
+    /** Times the frames while the board is visible, only in debug builds */
+    @Nullable
+    private FrameMetricsTracker frameMetrics;
+
+    /** Handler to debounce the search input */
+    private final Handler searchHandler = new Handler();
+
+    /** The search text which is applied when the user stops typing */
+    private String pendingSearch;
+
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applySearch(pendingSearch);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        // Instantiate soundmanager
-        soundManager = new SoundManager(this, this);
+        StartupTimer.mark(StartupTimer.ACTIVITY_CREATE);
+        // The soundmanager lives in the app, a recreated activity finds it warm
+        soundManager = ((App) getApplication()).getSoundManager();
+        soundManager.attach(this, this);
+        StartupTimer.mark(StartupTimer.SOUND_MANAGER);
 
         setContentView(R.layout.activity_main);
+        StartupTimer.mark(StartupTimer.CONTENT_VIEW);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
@@ -64,25 +123,87 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
             fab.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    Toast.makeText(MainActivity.this, R.string.create_feature_not_available, Toast.LENGTH_SHORT).show();
-                    /*Intent getContentIntent = FileUtils.createGetContentIntent();
-
-                    Intent intent = Intent.createChooser(getContentIntent, "Select a file");
-                    startActivityForResult(intent, CHOOSE_FILE_INTENT);*/
+                    chooseImport();
                 }
             });
         }
 
-        adapter = new SoundBoardAdapter(this, soundManager.getSounds());
+        adapter = new SoundBoardAdapter(this, soundManager.getPager(), soundManager.getCoverLoader(), soundManager.getWaveforms());
+        adapter.setOnSoundClickListener(this);
+
+        // Attach SoundBoardAdapter to the board to fill it when sounds update
+        soundBoard = (RecyclerView) findViewById(R.id.theSoundBoard);
+        if(soundBoard != null) {
+            layoutManager = new GridLayoutManager(this, BOARD_COLUMNS) {
+                @Override
+                protected int getExtraLayoutSpace(RecyclerView.State state) {
+                    // lay out half a screen ahead so covers of the next rows load before they scroll in
+                    return soundBoard.getHeight() / 2;
+                }
+            };
+            soundBoard.setLayoutManager(layoutManager);
+            soundBoard.setHasFixedSize(true);
+            soundBoard.setItemViewCacheSize(CACHED_CELLS);
+            soundBoard.getRecycledViewPool().setMaxRecycledViews(SoundBoardAdapter.VIEW_TYPE_SOUND, RECYCLED_CELLS);
+            // change animations create a second cell, this way changed sounds rebind the cell they have
+            soundBoard.getItemAnimator().setSupportsChangeAnimations(false);
+            soundBoard.setAdapter(adapter);
+            soundBoard.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                    // waveforms are generated when the board stands still
+                    soundManager.getWaveforms().setScrolling(newState != RecyclerView.SCROLL_STATE_IDLE);
+                }
 
-        // Attach SoundBoardAdapter to gridview to fill grid when sounds update
-        GridView gridView = (GridView) findViewById(R.id.theSoundBoard);
-        if(gridView != null) {
-            gridView.setAdapter(adapter);
-            gridView.setOnItemClickListener(this);
-            gridView.setOnItemLongClickListener(this);
+                @Override
+                public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                    int first = layoutManager.findFirstVisibleItemPosition();
+                    if(first == RecyclerView.NO_POSITION) return;
+                    int last = layoutManager.findLastVisibleItemPosition();
+                    soundManager.getPager().onVisibleRangeChanged(first, last - first + 1);
+                }
+            });
         }
 
+        if(BuildConfig.DEBUG && FrameMetricsTracker.isSupported() && soundBoard != null) {
+            frameMetrics = new FrameMetricsTracker(getWindowManager().getDefaultDisplay().getRefreshRate(), new FrameMetricsTracker.StateSource() {
+                @Override
+                public int getFrameState() {
+                    return FrameMetricsTracker.state(soundBoard.getScrollState() != RecyclerView.SCROLL_STATE_IDLE,
+                            soundManager.isSyncing(), soundManager.getActiveDownloads(), soundManager.getCoverLoader().getActiveDecodes());
+                }
+            });
+        }
+
+        soundManager.getWaveforms().setOnWaveformReadyListener(new WaveformGenerator.OnWaveformReadyListener() {
+            @Override
+            public void onWaveformReady(long soundId) {
+                int position = soundManager.getPager().getPosition(soundId);
+                if(position >= 0) adapter.notifyItemChanged(position, SoundBoardAdapter.PAYLOAD_WAVEFORM_READY);
+            }
+        });
+
+        boardTabs = (TabLayout) findViewById(R.id.boardTabs);
+        boardTabs.setOnTabSelectedListener(new TabLayout.OnTabSelectedListener() {
+            @Override
+            public void onTabSelected(TabLayout.Tab tab) {
+                if(updatingTabs) return;
+                soundManager.setBoard((Long) tab.getTag());
+                if(soundBoard != null) soundBoard.scrollToPosition(0);
+                supportInvalidateOptionsMenu();
+            }
+
+            @Override
+            public void onTabUnselected(TabLayout.Tab tab) {}
+
+            @Override
+            public void onTabReselected(TabLayout.Tab tab) {
+                if(soundBoard != null) soundBoard.smoothScrollToPosition(0);
+            }
+        });
+        // the boards are known already when the activity is recreated
+        boardsChanged(soundManager.getBoards().getBoards());
+
         // initiate the refresher
         refresher = (SwipeRefreshLayout) findViewById(R.id.refresher);
         refresher.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
@@ -95,54 +216,131 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
 //        // Check if we can use storage permissions
 //        verifyStoragePermissions(this);
 
-        soundManager.syncWithServer();
+        // The SoundManager starts loading the sounds itself, the board is notified when they are there.
+        // Syncing with the server waits for the first frame so it doesn't delay it, a recreated activity
+        // doesn't sync again
+        if(savedInstanceState != null) return;
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTimer.mark(StartupTimer.FIRST_DRAW);
+                content.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        soundManager.syncWithServer();
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        soundManager.setVisible(true);
+    }
 
-        refreshGridViewWithSounds();
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // the activity comes right back after a rotation
+        if(!isChangingConfigurations()) soundManager.setVisible(false);
     }
 
     @Override
     protected void onResume() {
         super.onResume();
+        if(frameMetrics != null) frameMetrics.start();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
+        soundManager.onPause();
+        if(frameMetrics != null) {
+            frameMetrics.stop();
+            Log.i(TAG, "Frame times while the board was visible:\n"+frameMetrics.getReport());
+        }
+    }
+
+    public SoundManager getSoundManager() {
+        return soundManager;
+    }
+
+    /**
+     * @return The frame times of the board, null in release builds or before API 16
+     */
+    @Nullable
+    public FrameMetricsTracker getFrameMetrics() {
+        return frameMetrics;
+    }
+
+    /**
+     * Lets the user choose how much space the downloaded sounds may take
+     */
+    private void chooseStorageBudget() {
+        final int[] budgets = StorageBudget.BUDGETS_MB;
+        CharSequence[] labels = new CharSequence[budgets.length];
+        int checked = -1;
+        for(int i = 0; i < budgets.length; ++i) {
+            labels[i] = (budgets[i] > 0) ? getString(R.string.storage_budget_mb, budgets[i]) : getString(R.string.storage_budget_unlimited);
+            if(budgets[i] == soundManager.getStorageBudgetMb()) checked = i;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_storage_budget)
+                .setSingleChoiceItems(labels, checked, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        soundManager.setStorageBudgetMb(budgets[which]);
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Asks whether a single file or the whole folder of a file should be imported, then opens the file chooser
+     */
+    private void chooseImport() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.import_title)
+                .setItems(new CharSequence[] { getString(R.string.import_single_file), getString(R.string.import_whole_folder) },
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                Intent getContentIntent = FileUtils.createGetContentIntent();
+                                Intent intent = Intent.createChooser(getContentIntent, "Select a file");
+                                startActivityForResult(intent, (which == 0) ? CHOOSE_FILE_INTENT : CHOOSE_FOLDER_INTENT);
+                            }
+                        })
+                .show();
     }
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         switch (requestCode) {
             case CHOOSE_FILE_INTENT:
-                // TODO:
-                if(resultCode == RESULT_OK) {
-                    final Uri uri = data.getData();
-
+            case CHOOSE_FOLDER_INTENT:
+                if(resultCode == RESULT_OK && data != null) {
                     // Get the File path from the Uri
-                    String path = FileUtils.getPath(this, uri);
-
-                    // Alternatively, use FileUtils.getFile(Context, Uri)
-                    if(path != null && FileUtils.isLocal(path)) {
-                        File file = new File(path);
-                        Toast.makeText(MainActivity.this, "Chosen file: "+file.getName(), Toast.LENGTH_SHORT).show();
-                        // If valid extension then copy the file to application media directory
-                        if(Utils.stringContainsItemFromList(FileUtils.getExtension(file.getName()),SoundManager.allowedExtensions)) {
-                            // copy the file
-                            try {
-                                Log.d(TAG,"Trying to copy "+file.getPath()+" to "+SoundManager.MEDIA_PATH+file.getName());
-                                // verifyStoragePermissions(this);
-                                copy(file,new File(SoundManager.MEDIA_PATH+file.getName()));
-                                refresher.setRefreshing(true);
-                                refreshGridViewWithSounds();
-                            } catch (IOException e) {
-                                Toast.makeText(MainActivity.this, "Could not copy file, try again", Toast.LENGTH_SHORT).show();
-                                e.printStackTrace();
-                            }
-                        } else {
-                            Toast.makeText(MainActivity.this, "This extension is not supported only ("+Utils.implode(", ",SoundManager.allowedExtensions)+")", Toast.LENGTH_SHORT).show();
-                        }
+                    String path = FileUtils.getPath(this, data.getData());
+                    if(path == null || !FileUtils.isLocal(path)) {
+                        Toast.makeText(this, R.string.msg_import_not_local, Toast.LENGTH_SHORT).show();
+                        break;
+                    }
+                    File file = new File(path);
+                    if(requestCode == CHOOSE_FOLDER_INTENT) {
+                        soundManager.importSounds(file.getParentFile());
+                    } else if(ImportSoundsTask.isAllowed(file.getName())) {
+                        soundManager.importSounds(file);
+                    } else {
+                        Toast.makeText(MainActivity.this, "This extension is not supported only ("+StringUtils.implode(", ",SoundManager.allowedExtensions)+")", Toast.LENGTH_SHORT).show();
                     }
                 }
+                break;
         }
     }
 
@@ -169,33 +367,76 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
 
     private void refreshGridViewWithSounds() {
         soundManager.syncLocalSounds();
-        Log.d(TAG, "Number of sounds loaded: "+soundManager.getSounds().size());
+        Log.d(TAG, "Number of sounds on the board: "+soundManager.getPager().getCount());
         if(refresher.isRefreshing()) refresher.setRefreshing(false);
     }
 
-    private void copy(File src, File dst) throws IOException {
-        InputStream in = new FileInputStream(src);
-        // check if folder structure exists if not create
-        if(!dst.getParentFile().isDirectory()) dst.getParentFile().mkdirs();
-        OutputStream out = new FileOutputStream(dst);
-
-        // Transfer bytes from in to out
-        byte[] buf = new byte[1024];
-        int len;
-        while ((len = in.read(buf)) > 0) {
-            out.write(buf, 0, len);
-        }
-        in.close();
-        out.close();
-    }
-
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_debug).setVisible(BuildConfig.DEBUG);
+        // the board keeps its order when the activity is recreated
+        int order = soundManager.getPager().getOrder();
+        menu.findItem(order == SoundsDatabaseHelper.ORDER_MOST_PLAYED ? R.id.action_order_most_played
+                : order == SoundsDatabaseHelper.ORDER_RECENTLY_PLAYED ? R.id.action_order_recently_played
+                : R.id.action_order_default).setChecked(true);
+        menu.findItem(R.id.action_record_sequence).setChecked(soundManager.isRecording());
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        // the search the board is filtered with is shown again, before the listener so it isn't applied twice
+        String filter = soundManager.getPager().getFilterInput();
+        if(filter != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(filter, false);
+            searchView.clearFocus();
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchHandler.removeCallbacks(searchRunnable);
+                applySearch(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Wait until the user stops typing, only the last input gets searched
+                pendingSearch = newText;
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem, new MenuItemCompat.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                searchHandler.removeCallbacks(searchRunnable);
+                applySearch(null);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // the board with all sounds can't be deleted
+        menu.findItem(R.id.action_delete_board).setVisible(soundManager.getPager().getBoard() != Board.ALL_SOUNDS);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    private void applySearch(String query) {
+        soundManager.getPager().setFilter(query);
+        if(soundBoard != null) soundBoard.scrollToPosition(0);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
@@ -204,6 +445,15 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
         int id = item.getItemId();
 
         switch (id) {
+            case R.id.action_order_default:
+            case R.id.action_order_most_played:
+            case R.id.action_order_recently_played:
+                item.setChecked(true);
+                soundManager.setBoardOrder(id == R.id.action_order_most_played ? SoundsDatabaseHelper.ORDER_MOST_PLAYED
+                        : id == R.id.action_order_recently_played ? SoundsDatabaseHelper.ORDER_RECENTLY_PLAYED
+                        : SoundsDatabaseHelper.ORDER_DEFAULT);
+                if(soundBoard != null) soundBoard.scrollToPosition(0);
+                break;
             case R.id.action_sync:
                 Toast.makeText(this, R.string.msg_sync_start, Toast.LENGTH_SHORT).show();
                 soundManager.syncWithServer();
@@ -217,17 +467,137 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
                             public void onClick(DialogInterface dialog, int which) {
                                 soundManager.deleteAllSounds("yesiamsure");
                                 PreferenceManager.getDefaultSharedPreferences(MainActivity.this).edit().putInt(Config.Preferences.LAST_SYNC_TIME, 0).apply();
-                                adapter.notifyDataSetChanged();
                             }
                         }).show();
                 break;
+            case R.id.action_new_board:
+                createBoard();
+                break;
+            case R.id.action_delete_board:
+                deleteBoard();
+                break;
+            case R.id.action_storage_budget:
+                chooseStorageBudget();
+                break;
+            case R.id.action_record_sequence:
+                toggleRecording(item);
+                break;
+            case R.id.action_play_sequence:
+                Sequence sequence = soundManager.getSequence();
+                if(sequence != null) {
+                    soundManager.playSequence(sequence);
+                } else {
+                    Toast.makeText(this, R.string.msg_sequence_empty, Toast.LENGTH_SHORT).show();
+                }
+                break;
+            case R.id.action_debug:
+                Intent debugIntent = new Intent(this, DebugActivity.class);
+                if(frameMetrics != null) debugIntent.putExtra(DebugActivity.EXTRA_FRAME_REPORT, frameMetrics.getReport());
+                startActivity(debugIntent);
+                break;
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Asks for a name and adds a board with that name, its tab shows up when it's stored
+     */
+    private void createBoard() {
+        final EditText input = new EditText(this);
+        input.setHint(R.string.new_board_hint);
+        input.setSingleLine(true);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_new_board)
+                .setView(input)
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String name = input.getText().toString().trim();
+                        if(!name.isEmpty()) soundManager.getBoards().create(name);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Deletes the shown board after asking, the board with all sounds is shown then
+     */
+    private void deleteBoard() {
+        final Board board = soundManager.getBoards().getBoard(soundManager.getPager().getBoard());
+        if(board == null) return;
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.question_delete_board, board.name))
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        soundManager.getBoards().delete(board.id);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Lets the user pick the boards the sound is on
+     */
+    private void chooseBoards(final Sound sound) {
+        final List<Board> boards = soundManager.getBoards().getBoards();
+        if(boards.isEmpty()) {
+            Toast.makeText(this, R.string.msg_no_boards, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        soundManager.getBoards().getBoardsOfSound(sound.id, new BoardStore.BoardsOfSoundCallback() {
+            @Override
+            public void onBoardsOfSound(HashSet<Long> boardIds) {
+                if(isFinishing()) return;
+                CharSequence[] names = new CharSequence[boards.size()];
+                boolean[] checked = new boolean[boards.size()];
+                for(int i = 0; i < boards.size(); ++i) {
+                    names[i] = boards.get(i).name;
+                    checked[i] = boardIds.contains(boards.get(i).id);
+                }
+                new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(getString(R.string.title_boards_of_sound, sound.name))
+                        .setMultiChoiceItems(names, checked, new DialogInterface.OnMultiChoiceClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                                soundManager.getBoards().setOnBoard(boards.get(which).id, sound.id, isChecked);
+                            }
+                        })
+                        .setPositiveButton(android.R.string.ok, null)
+                        .show();
+            }
+        });
+    }
+
+    /**
+     * Starts recording a sequence, or stops and keeps it. While recording the tapped sounds are played
+     * on top of each other and added to the sequence at the time they were tapped
+     */
+    private void toggleRecording(MenuItem item) {
+        if(!soundManager.isRecording()) {
+            soundManager.startRecording();
+            Toast.makeText(this, R.string.msg_sequence_recording, Toast.LENGTH_SHORT).show();
+        } else {
+            Sequence recorded = soundManager.stopRecording();
+            if(recorded != null) {
+                Toast.makeText(this, getString(R.string.msg_sequence_recorded, recorded.getSteps().size()), Toast.LENGTH_SHORT).show();
+            }
+        }
+        item.setChecked(soundManager.isRecording());
+    }
+
     @Override
-    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+    public void onSoundClick(int position) {
+        Sound sound = soundManager.getSound(position);
+        if(soundManager.isRecording() && sound != null && sound.isDownloaded()) {
+            // copied because the pager reuses the sound when its page is recycled
+            soundManager.record(new Sound(sound));
+            return;
+        }
+        // sounds which aren't downloaded yet go the usual way
         if(lastPosition == position && soundManager.isPlaying()) {
             soundManager.stopPlaying();
         } else {
@@ -239,23 +609,60 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        soundManager.destroy();
+        searchHandler.removeCallbacks(searchRunnable);
+        // the soundmanager keeps playing and loading, only this activity lets go of it
+        soundManager.getWaveforms().setOnWaveformReadyListener(null);
+        soundManager.getWaveforms().setScrolling(false);
+        if(isFinishing()) {
+            // the next activity starts with an empty search box and without recording,
+            // a recreated one shows the same search and keeps recording
+            soundManager.getPager().setFilter(null);
+            soundManager.stopRecording();
+        }
+        soundManager.detach(this);
     }
 
     @Override
-    public boolean onItemLongClick(AdapterView<?> parent, View view, final int position, long id) {
-        /*final String name = soundManager.getSound(position).name;
-        new AlertDialog.Builder(this)
-                .setTitle("Delete")
-                .setMessage("Delete "+name+" ?")
-                .setPositiveButton("Yes", new DialogInterface.OnClickListener() {
-                    @Override
-                    public void onClick(DialogInterface dialog, int which) {
-                        soundManager.deleteSound(position);
-                    }
-                }).setNegativeButton("No, keep that shit", null)
-                .show();
-        return true;*/
+    public boolean onSoundLongClick(final int position) {
+        Sound sound = soundManager.getSound(position);
+        // copied because the pager reuses the sound when its page is recycled
+        if(sound != null) chooseBoards(new Sound(sound));
+        return true;
+    }
+
+    @Override
+    public void boardsChanged(List<Board> boards) {
+        if(sameTabs(boards)) {
+            // only a count changed, like after putting a sound on a board
+            for(int i = 0; i < boards.size(); ++i) {
+                Board board = boards.get(i);
+                boardTabs.getTabAt(i + 1).setText(getString(R.string.board_tab, board.name, board.soundCount));
+            }
+            return;
+        }
+        updatingTabs = true;
+        boardTabs.removeAllTabs();
+        long shown = soundManager.getPager().getBoard();
+        boardTabs.addTab(boardTabs.newTab().setText(R.string.board_all_sounds).setTag(Board.ALL_SOUNDS), shown == Board.ALL_SOUNDS);
+        for(Board board : boards) {
+            boardTabs.addTab(boardTabs.newTab().setText(getString(R.string.board_tab, board.name, board.soundCount)).setTag(board.id),
+                    board.id == shown);
+        }
+        updatingTabs = false;
+        // without boards there is only the board with all sounds
+        boardTabs.setVisibility(boards.isEmpty() ? View.GONE : View.VISIBLE);
+        supportInvalidateOptionsMenu();
+    }
+
+    /**
+     * @return true if the tabs show these boards in this order, behind the tab with all sounds
+     */
+    private boolean sameTabs(List<Board> boards) {
+        if(boardTabs.getTabCount() != boards.size() + 1) return false;
+        for(int i = 0; i < boards.size(); ++i) {
+            TabLayout.Tab tab = boardTabs.getTabAt(i + 1);
+            if(tab == null || !Long.valueOf(boards.get(i).id).equals(tab.getTag())) return false;
+        }
         return true;
     }
 
@@ -263,4 +670,24 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
     public void soundsRenewed() {
         adapter.notifyDataSetChanged();
     }
+
+    @Override
+    public void soundsChanged(SoundChangeSet changes) {
+        if(changes.isStructural() || changes.getChanged().size() > MAX_SEPARATE_CHANGES) {
+            // the ids are stable, so the board keeps the cells of the sounds that are still there
+            adapter.notifyDataSetChanged();
+            return;
+        }
+        // only the cells of the sounds that changed are updated, and only the parts that changed
+        for(long id : changes.getChanged()) {
+            int position = soundManager.getPager().getPosition(id);
+            if(position >= 0) adapter.notifyItemChanged(position, SoundBoardAdapter.PAYLOAD_SOUND_CHANGED);
+        }
+    }
+
+    @Override
+    public void allSoundsDeleted() {
+        // the board itself was already renewed when the database was emptied
+        Toast.makeText(this, R.string.msg_all_sounds_deleted, Toast.LENGTH_SHORT).show();
+    }
 }
@@ -0,0 +1,65 @@
+package nl.melledijkstra.mellesoundboard.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.View;
+
+import nl.melledijkstra.mellesoundboard.Waveform;
+
+/**
+ * Custom View. Draws the waveform of a sound as bars around the middle, the light part is the peak
+ * level and the solid part the RMS level. Draws nothing without a waveform
+ */
+public class WaveformView extends View {
+
+    private final Paint peakPaint = new Paint();
+    private final Paint rmsPaint = new Paint();
+
+    @Nullable
+    private Waveform waveform;
+
+    public WaveformView(Context context) {
+        super(context);
+        init();
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public WaveformView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    private void init() {
+        peakPaint.setColor(0x80ffffff);
+        rmsPaint.setColor(0xffffffff);
+    }
+
+    public void setWaveform(@Nullable Waveform waveform) {
+        if(this.waveform == waveform) return;
+        this.waveform = waveform;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if(waveform == null) return;
+        float barWidth = (float) getWidth() / Waveform.BUCKETS;
+        float middle = getHeight() / 2f;
+        for(int i = 0; i < Waveform.BUCKETS; ++i) {
+            float left = i * barWidth;
+            // leave a gap between the bars
+            float right = left + barWidth * 0.75f;
+            float peak = Math.max(waveform.getPeak(i) * middle, 1);
+            float rms = waveform.getRms(i) * middle;
+            canvas.drawRect(left, middle - peak, right, middle + peak, peakPaint);
+            canvas.drawRect(left, middle - rms, right, middle + rms, rmsPaint);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package nl.melledijkstra.mellesoundboard;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import nl.melledijkstra.mellesoundboard.benchmark.BenchmarkReport;
+import nl.melledijkstra.mellesoundboard.benchmark.DatabaseBenchmarks;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs the database benchmarks on the JVM with Robolectric, so they run on any machine without a device.
+ * SQLite is the native library of the host, the numbers are only comparable with other runs on the same
+ * machine. The results are written to build/benchmarks. ./gradlew :app:testDebugUnitTest
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class DatabaseBenchmarkJvmTest {
+
+    private static final int[] CATALOG_SIZES = { 1000, 10000 };
+
+    @Test
+    public void database() throws Exception {
+        final BenchmarkReport report = new BenchmarkReport("database", "robolectric, " + System.getProperty("java.vm.name")
+                + " " + System.getProperty("java.version") + ", " + System.getProperty("os.name"));
+        final DatabaseBenchmarks benchmarks = new DatabaseBenchmarks(RuntimeEnvironment.application);
+        final Exception[] failure = new Exception[1];
+        // off the main thread like on a device, so the main thread monitor stays out of the numbers
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for(int size : CATALOG_SIZES) {
+                        benchmarks.run(size, report);
+                    }
+                } catch(Exception e) {
+                    failure[0] = e;
+                }
+            }
+        }, "DatabaseBenchmark");
+        thread.start();
+        thread.join();
+        if(failure[0] != null) throw failure[0];
+        File results = new File("build/benchmarks/database-robolectric.json");
+        report.writeTo(results);
+        assertFalse("No benchmark results in "+results.getPath(), report.getResults().isEmpty());
+    }
+}
@@ -0,0 +1,129 @@
+package nl.melledijkstra.mellesoundboard;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the MediaScanner leaves downloaded files alone, a download stores the watermark of its file
+ * so the FileObserver report of that file isn't seen as a change made by another app.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MediaScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private SoundsDatabaseHelper soundsDB;
+    private MediaScanner scanner;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("media");
+        String path = directory.getPath() + File.separator;
+        soundsDB = new SoundsDatabaseHelper(RuntimeEnvironment.application, new MediaFileIndex(path));
+        scanner = new MediaScanner(RuntimeEnvironment.application, path, soundsDB);
+    }
+
+    @After
+    public void tearDown() {
+        soundsDB.close();
+    }
+
+    @Test
+    public void downloadIsNotAChange() throws Exception {
+        Sound sound = download(remoteSound());
+        scanner.onFileChanged(sound.getLocalFileName());
+
+        MediaScanner.Result result = scanner.scan();
+        assertTrue(result.changed.isEmpty());
+        assertTrue(result.added.isEmpty());
+        assertTrue(result.removed.isEmpty());
+    }
+
+    @Test
+    public void downloadIsNotAChangeWhenTheDirectoryIsListed() throws Exception {
+        download(remoteSound());
+        scanner.invalidate();
+
+        MediaScanner.Result result = scanner.scan();
+        assertTrue(result.changed.isEmpty());
+        assertTrue(result.added.isEmpty());
+    }
+
+    @Test
+    public void downloadAgainAfterEvictionIsNotAChange() throws Exception {
+        Sound sound = download(remoteSound());
+        assertTrue(new File(directory, sound.getLocalFileName()).delete());
+        sound.setLocalFileName(null, false);
+        sound.setEvicted(true);
+        soundsDB.updateSound(sound);
+
+        // the new file has another size, so only a stored watermark keeps it from being a change
+        download(sound, 2048);
+        scanner.onFileChanged(sound.getLocalFileName());
+        assertTrue(scanner.scan().changed.isEmpty());
+    }
+
+    @Test
+    public void fileChangedByAnotherAppIsAChange() throws Exception {
+        Sound sound = download(remoteSound());
+        write(new File(directory, sound.getLocalFileName()), 4096);
+        scanner.onFileChanged(sound.getLocalFileName());
+
+        MediaScanner.Result result = scanner.scan();
+        assertEquals(Collections.singletonList(sound.id), result.changed);
+    }
+
+    private Sound remoteSound() {
+        Sound sound = new Sound("Airhorn");
+        sound.remote_id = 7;
+        sound.setRemoteFileName("airhorn.mp3");
+        sound.downloadLink = "http://example.com/airhorn.mp3";
+        soundsDB.createSounds(Collections.singletonList(sound));
+        return sound;
+    }
+
+    private Sound download(Sound sound) throws Exception {
+        return download(sound, 1024);
+    }
+
+    /**
+     * Writes the file and stores the sound like the DownloadSoundTask and SoundManager.onDownloadDone do
+     */
+    private Sound download(Sound sound, int size) throws Exception {
+        File file = new File(directory, sound.getRemoteFileName());
+        write(file, size);
+        sound.fileMtime = file.lastModified();
+        sound.fileSize = file.length();
+        sound.setLocalFileName(sound.getRemoteFileName(), true);
+        sound.setDownloaded(true);
+        sound.setEvicted(false);
+        soundsDB.updateSound(sound);
+        return sound;
+    }
+
+    private static void write(File file, int size) throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[size]);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package nl.melledijkstra.mellesoundboard;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import nl.melledijkstra.mellesoundboard.benchmark.SyntheticCatalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives the real SoundManager, SoundRepository and SoundsDatabaseHelper with large synthetic catalogs
+ * and fails when a full sync, a board load, deleting all sounds or an incremental sync takes more time
+ * or keeps more heap than its budget. Runs with the other unit tests, so ./gradlew build fails on a
+ * regression. The time budgets are for a developer machine, slower machines multiply them with
+ * -PperfBudgetScale=2. The heap budgets count what stays reachable after the operation.
+ * -PperfVerbose prints every measurement next to its budget, a failure always says what went over.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SoundManagerRegressionTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private static final Budget FULL_SYNC = new Budget("full sync", 3000, 150, 4 * MB, 1024);
+    private static final Budget BOARD_LOAD = new Budget("board load", 2000, 60, 8 * MB, 1024);
+    private static final Budget DELETE_ALL = new Budget("delete all", 1000, 40, 2 * MB, 0);
+    private static final Budget INCREMENTAL_SYNC = new Budget("incremental sync", 1500, 10, 2 * MB, 64);
+
+    /** The number of changed and the number of new sounds of an incremental sync */
+    private static final int INCREMENTAL_CHANGES = 100;
+
+    /** Nothing in here should take this long, it only keeps a hanging operation from hanging the build */
+    private static final long TIMEOUT_MS = 5 * 60 * 1000;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} sounds")
+    public static Collection<Object[]> catalogSizes() {
+        return Arrays.asList(new Object[][] { { 10000 }, { 100000 } });
+    }
+
+    private final int catalogSize;
+
+    private SoundManager soundManager;
+
+    public SoundManagerRegressionTest(int catalogSize) {
+        this.catalogSize = catalogSize;
+    }
+
+    @Before
+    public void setUp() {
+        // work which is posted from the background is run by settle, like the looper would
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() {
+        if(soundManager != null) soundManager.destroy();
+    }
+
+    @Test
+    public void fullSync() throws Exception {
+        startSoundManager();
+        String json = SyntheticCatalog.json(SyntheticCatalog.sounds(catalogSize));
+
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        // parsed like GetChangesTask does before it reports back
+        soundManager.onHttpSuccess(SoundJsonParser.parseSounds(json));
+        awaitWrites(catalogSize);
+        FULL_SYNC.check(catalogSize, System.nanoTime() - start, usedHeap() - heap);
+    }
+
+    @Test
+    public void boardLoad() throws Exception {
+        storeCatalog();
+
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        startSoundManager();
+        BOARD_LOAD.check(catalogSize, System.nanoTime() - start, usedHeap() - heap);
+        assertEquals(catalogSize, soundManager.getRepository().getSnapshot().size());
+    }
+
+    @Test
+    public void deleteAllSounds() throws Exception {
+        storeCatalog();
+        startSoundManager();
+
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        soundManager.deleteAllSounds("yesiamsure");
+        settle(new Condition() {
+            @Override
+            public boolean isMet() {
+                return soundManager.getRepository().getSnapshot().isEmpty();
+            }
+        });
+        awaitWrites(0);
+        DELETE_ALL.check(catalogSize, System.nanoTime() - start, usedHeap() - heap);
+    }
+
+    @Test
+    public void incrementalSync() throws Exception {
+        List<Sound> catalog = storeCatalog();
+        startSoundManager();
+
+        // some sounds were renamed on the server and some were added
+        ArrayList<Sound> changes = new ArrayList<>();
+        int step = catalogSize / INCREMENTAL_CHANGES;
+        for(int i = step - 1; i < catalogSize; i += step) {
+            Sound changed = new Sound(catalog.get(i));
+            changed.name += " remix";
+            changed.updatedAt += 1;
+            changes.add(changed);
+        }
+        Sound lastChanged = changes.get(changes.size() - 1);
+        changes.addAll(SyntheticCatalog.sounds(catalogSize + INCREMENTAL_CHANGES).subList(catalogSize, catalogSize + INCREMENTAL_CHANGES));
+        String json = SyntheticCatalog.json(changes);
+
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        soundManager.onHttpSuccess(SoundJsonParser.parseSounds(json));
+        awaitWrites(catalogSize + INCREMENTAL_CHANGES);
+        INCREMENTAL_SYNC.check(catalogSize, System.nanoTime() - start, usedHeap() - heap);
+        assertEquals(lastChanged.name, soundManager.getRepository().getByRemoteId(lastChanged.remote_id).name);
+    }
+
+    /**
+     * Stores the catalog straight into the database, like it was synced in an earlier run
+     * @return The stored sounds
+     */
+    private List<Sound> storeCatalog() {
+        List<Sound> catalog = SyntheticCatalog.sounds(catalogSize);
+        SoundsDatabaseHelper db = new SoundsDatabaseHelper(RuntimeEnvironment.application, new MediaFileIndex(SoundManager.MEDIA_PATH));
+        try {
+            db.createSounds(catalog);
+        } finally {
+            db.close();
+        }
+        return catalog;
+    }
+
+    /**
+     * Creates the SoundManager like the App does and waits until the board is loaded from the database
+     */
+    private void startSoundManager() {
+        soundManager = new SoundManager(RuntimeEnvironment.application);
+        settle(new Condition() {
+            @Override
+            public boolean isMet() {
+                return soundManager.getRepository().isWarm();
+            }
+        });
+    }
+
+    /**
+     * Waits until the database work which was requested so far is done and the board has the expected size
+     */
+    private void awaitWrites(final int expectedSize) {
+        final boolean[] written = new boolean[1];
+        soundManager.getRepository().afterPendingWrites(new Runnable() {
+            @Override
+            public void run() {
+                written[0] = true;
+            }
+        });
+        settle(new Condition() {
+            @Override
+            public boolean isMet() {
+                return written[0] && soundManager.getRepository().getSnapshot().size() == expectedSize;
+            }
+        });
+    }
+
+    /**
+     * Runs what was posted to the main thread, including the delayed change sets, until the condition is met
+     */
+    private static void settle(Condition condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while(true) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            if(condition.isMet()) return;
+            if(System.currentTimeMillis() > deadline) fail("Gave up waiting after "+TIMEOUT_MS+" ms");
+            try {
+                Thread.sleep(1);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted while waiting");
+            }
+        }
+    }
+
+    /**
+     * @return The bytes which are still reachable, after collecting the garbage until it stops shrinking
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for(int i = 0; i < 10; ++i) {
+            System.gc();
+            Thread.sleep(20);
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if(now >= used) break;
+            used = now;
+        }
+        return used;
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    /**
+     * The time and retained heap an operation may take, a fixed part plus a part per sound of the catalog
+     */
+    private static class Budget {
+
+        /** Multiplies the time budgets for slower machines, see app/build.gradle */
+        private static final double SCALE = Double.parseDouble(System.getProperty("perf.budgetScale", "1"));
+
+        private static final boolean VERBOSE = Boolean.getBoolean("perf.verbose");
+
+        final String operation;
+        final long baseMs;
+        final long microsPerSound;
+        final long baseBytes;
+        final long bytesPerSound;
+
+        Budget(String operation, long baseMs, long microsPerSound, long baseBytes, long bytesPerSound) {
+            this.operation = operation;
+            this.baseMs = baseMs;
+            this.microsPerSound = microsPerSound;
+            this.baseBytes = baseBytes;
+            this.bytesPerSound = bytesPerSound;
+        }
+
+        void check(int catalogSize, long elapsedNs, long retainedBytes) {
+            long elapsedMs = elapsedNs / 1000000;
+            long maxMs = (long) ((baseMs + microsPerSound * catalogSize / 1000) * SCALE);
+            long maxBytes = baseBytes + bytesPerSound * catalogSize;
+            if(VERBOSE) System.out.println(String.format("%s of %d sounds: %d ms (budget %d ms), retained %d KB (budget %d KB)",
+                    operation, catalogSize, elapsedMs, maxMs, retainedBytes / 1024, maxBytes / 1024));
+            assertTrue(operation+" of "+catalogSize+" sounds took "+elapsedMs+" ms, the budget is "+maxMs+" ms",
+                    elapsedMs <= maxMs);
+            assertTrue(operation+" of "+catalogSize+" sounds kept "+retainedBytes / 1024+" KB, the budget is "+maxBytes / 1024+" KB",
+                    retainedBytes <= maxBytes);
+        }
+    }
+}
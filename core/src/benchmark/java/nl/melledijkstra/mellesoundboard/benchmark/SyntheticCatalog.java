@@ -0,0 +1,151 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import nl.melledijkstra.mellesoundboard.Row;
+import nl.melledijkstra.mellesoundboard.Sound;
+
+/**
+ * Generates catalogs of sounds which look like the ones of the server. The same size always gives the
+ * same catalog, so results of different commits are comparable. Used by the JMH benchmarks of the core
+ * module and by the database benchmarks of the app
+ */
+public class SyntheticCatalog {
+
+    private static final long SEED = 42;
+
+    private static final String[] WORDS = {
+            "air", "horn", "drum", "roll", "sad", "trombone", "applause", "laugh", "track", "cricket",
+            "wow", "bruh", "rimshot", "boing", "fart", "scream", "doh", "yeah", "nope", "victory"
+    };
+
+    public static final String[] EXTENSIONS = { ".mp3", ".wav", ".ogg" };
+
+    /** The columns of the sound table in the order of {@link #rows(List)} */
+    private static final String[] COLUMNS = {
+            Sound.Columns.ID, Sound.Columns.REMOTE_ID, Sound.Columns.NAME, Sound.Columns.LOCAL_FILE_NAME,
+            Sound.Columns.FILE_NAME, Sound.Columns.DOWNLOAD_LINK, Sound.Columns.DOWNLOADED, Sound.Columns.CREATED_AT,
+            Sound.Columns.UPDATED_AT, Sound.Columns.FILE_MTIME, Sound.Columns.FILE_SIZE, Sound.Columns.EVICTED,
+            Sound.Columns.TRIM_START_MS, Sound.Columns.TRIM_END_MS
+    };
+
+    private SyntheticCatalog() throws Exception {
+        throw new Exception("Don't create a SyntheticCatalog instance, use the static methods!");
+    }
+
+    /**
+     * @return Sounds from the server with ids and remote ids 1 to size, about half of them downloaded
+     */
+    public static List<Sound> sounds(int size) {
+        Random random = new Random(SEED);
+        ArrayList<Sound> sounds = new ArrayList<>(size);
+        for(int i = 1; i <= size; ++i) {
+            Sound sound = new Sound(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i);
+            sound.id = i;
+            sound.remote_id = i;
+            String fileName = sound.name.replace(' ', '_') + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            sound.setRemoteFileName(fileName);
+            if(random.nextBoolean()) sound.setLocalFileName(fileName, true);
+            sound.downloadLink = "https://sounds.example.com/api/sounds/" + i + "/download";
+            sound.createdAt = 1476000000 + i;
+            sound.updatedAt = sound.createdAt + random.nextInt(100000);
+            sound.trimEndMs = sound.isDownloaded() ? 500 + random.nextInt(5000) : 0;
+            sounds.add(sound);
+        }
+        return sounds;
+    }
+
+    /**
+     * @return The sounds as the server sends them
+     */
+    public static String json(List<Sound> sounds) {
+        StringBuilder json = new StringBuilder(sounds.size() * 200);
+        json.append('[');
+        for(int i = 0; i < sounds.size(); ++i) {
+            Sound sound = sounds.get(i);
+            if(i > 0) json.append(',');
+            json.append("{\"id\":").append(sound.remote_id)
+                    .append(",\"name\":\"").append(sound.name).append('"')
+                    .append(",\"filename\":\"").append(sound.getRemoteFileName()).append('"')
+                    .append(",\"download_link\":\"").append(sound.downloadLink.replace("/", "\\/")).append('"')
+                    .append(",\"created_at\":").append(sound.createdAt)
+                    .append(",\"updated_at\":").append(sound.updatedAt)
+                    .append(",\"tags\":[\"synthetic\",\"benchmark\"]}");
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * @return The local file names of the downloaded sounds
+     */
+    public static Set<String> files(List<Sound> sounds) {
+        HashSet<String> files = new HashSet<>();
+        for(Sound sound : sounds) {
+            if(sound.getLocalFileName() != null) files.add(sound.getLocalFileName());
+        }
+        return files;
+    }
+
+    /**
+     * @return The sounds as rows of the sound table
+     */
+    public static TableRows rows(List<Sound> sounds) {
+        Object[][] rows = new Object[sounds.size()][];
+        for(int i = 0; i < rows.length; ++i) {
+            Sound sound = sounds.get(i);
+            rows[i] = new Object[] {
+                    sound.id, sound.remote_id, sound.name, sound.getLocalFileName(), sound.getRemoteFileName(),
+                    sound.downloadLink, sound.isDownloaded() ? 1L : 0L, (long) sound.createdAt, (long) sound.updatedAt,
+                    0L, 0L, 0L, (long) sound.trimStartMs, (long) sound.trimEndMs
+            };
+        }
+        return new TableRows(rows);
+    }
+
+    /**
+     * Rows in memory which are read like a cursor, {@link #moveToNext()} moves to the next row
+     */
+    public static class TableRows implements Row {
+
+        private final Object[][] rows;
+        private int position = -1;
+
+        TableRows(Object[][] rows) {
+            this.rows = rows;
+        }
+
+        public boolean moveToNext() {
+            return ++position < rows.length;
+        }
+
+        public void reset() {
+            position = -1;
+        }
+
+        @Override
+        public int getColumnIndex(String column) {
+            return Arrays.asList(COLUMNS).indexOf(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return (Long) rows[position][column];
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) (long) (Long) rows[position][column];
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = rows[position][column];
+            return (value != null) ? value.toString() : null;
+        }
+    }
+}
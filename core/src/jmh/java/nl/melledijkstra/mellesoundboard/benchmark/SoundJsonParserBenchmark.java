@@ -0,0 +1,40 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.melledijkstra.mellesoundboard.Sound;
+import nl.melledijkstra.mellesoundboard.SoundJsonParser;
+
+/**
+ * Parses the changes of the server, like GetChangesTask does after a sync
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SoundJsonParserBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int catalogSize;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        json = SyntheticCatalog.json(SyntheticCatalog.sounds(catalogSize));
+    }
+
+    @Benchmark
+    public List<Sound> parseSounds() throws SoundJsonParser.JsonException {
+        return SoundJsonParser.parseSounds(json);
+    }
+}
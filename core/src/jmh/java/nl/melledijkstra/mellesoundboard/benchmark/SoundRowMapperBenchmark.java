@@ -0,0 +1,66 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import nl.melledijkstra.mellesoundboard.Sound;
+import nl.melledijkstra.mellesoundboard.SoundRowMapper;
+
+/**
+ * Maps the whole sound table, with a new Sound per row like getAllSounds and with one reused
+ * Sound like getCompactBoard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SoundRowMapperBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int catalogSize;
+
+    private SyntheticCatalog.TableRows rows;
+    private SoundRowMapper.FilePresence files;
+
+    @Setup
+    public void setUp() {
+        List<Sound> sounds = SyntheticCatalog.sounds(catalogSize);
+        final Set<String> present = SyntheticCatalog.files(sounds);
+        files = new SoundRowMapper.FilePresence() {
+            @Override
+            public boolean contains(String fileName) {
+                return fileName != null && present.contains(fileName);
+            }
+        };
+        rows = SyntheticCatalog.rows(sounds);
+    }
+
+    @Benchmark
+    public void mapNewSounds(Blackhole blackhole) {
+        rows.reset();
+        SoundRowMapper mapper = new SoundRowMapper(rows, files);
+        while(rows.moveToNext()) {
+            blackhole.consume(mapper.map(null));
+        }
+    }
+
+    @Benchmark
+    public void mapReusedSound(Blackhole blackhole) {
+        rows.reset();
+        SoundRowMapper mapper = new SoundRowMapper(rows, files);
+        Sound row = new Sound();
+        while(rows.moveToNext()) {
+            blackhole.consume(mapper.map(row).id);
+        }
+    }
+}
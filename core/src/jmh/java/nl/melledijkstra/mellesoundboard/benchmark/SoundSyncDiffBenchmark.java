@@ -0,0 +1,68 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.melledijkstra.mellesoundboard.Sound;
+import nl.melledijkstra.mellesoundboard.SoundSyncDiff;
+
+/**
+ * Merges the changes of the server into a board, a usual sync with a hundred changes and
+ * a full sync after the last sync time was reset where every sound comes in again
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SoundSyncDiffBenchmark {
+
+    private static final int SMALL_SYNC = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int catalogSize;
+
+    private SoundSyncDiff.Board board;
+    private List<Sound> smallSync;
+    private List<Sound> fullSync;
+
+    @Setup
+    public void setUp() {
+        board = SoundSyncDiff.of(SyntheticCatalog.sounds(catalogSize));
+        List<Sound> server = SyntheticCatalog.sounds(catalogSize);
+        // every tenth sound changed on the server
+        for(int i = 0; i < server.size(); i += 10) {
+            server.get(i).updatedAt++;
+        }
+        // and new sounds were added
+        for(int i = 1; i <= SMALL_SYNC / 2; ++i) {
+            Sound sound = new Sound("new sound " + i);
+            sound.remote_id = catalogSize + i;
+            server.add(sound);
+        }
+        fullSync = server;
+        smallSync = new ArrayList<>();
+        for(int i = 0; i < SMALL_SYNC / 2; ++i) {
+            smallSync.add(server.get(i * 10));
+        }
+        smallSync.addAll(server.subList(catalogSize, server.size()));
+    }
+
+    @Benchmark
+    public SoundSyncDiff smallSync() {
+        return SoundSyncDiff.compute(board, smallSync);
+    }
+
+    @Benchmark
+    public SoundSyncDiff fullSync() {
+        return SoundSyncDiff.compute(board, fullSync);
+    }
+}
@@ -0,0 +1,53 @@
+package nl.melledijkstra.mellesoundboard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.melledijkstra.mellesoundboard.Sound;
+import nl.melledijkstra.mellesoundboard.StringUtils;
+
+/**
+ * Joins and checks the file names of a whole catalog
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StringUtilsBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int catalogSize;
+
+    private String[] fileNames;
+
+    @Setup
+    public void setUp() {
+        List<Sound> sounds = SyntheticCatalog.sounds(catalogSize);
+        fileNames = new String[sounds.size()];
+        for(int i = 0; i < fileNames.length; ++i) {
+            fileNames[i] = sounds.get(i).getRemoteFileName();
+        }
+    }
+
+    @Benchmark
+    public String implode() {
+        return StringUtils.implode(", ", fileNames);
+    }
+
+    @Benchmark
+    public int containsItemFromList() {
+        int matches = 0;
+        for(String fileName : fileNames) {
+            if(StringUtils.containsItemFromList(fileName, SyntheticCatalog.EXTENSIONS)) ++matches;
+        }
+        return matches;
+    }
+}
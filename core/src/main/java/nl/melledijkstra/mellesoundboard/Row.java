@@ -0,0 +1,19 @@
+package nl.melledijkstra.mellesoundboard;
+
+/**
+ * A Row is one row of a query result, the app reads it from a Cursor. The columns are looked up
+ * by name once and read by index for every row, see {@link SoundRowMapper}
+ */
+public interface Row {
+
+    /**
+     * @return The index of the column or -1 if the row doesn't have it
+     */
+    int getColumnIndex(String column);
+
+    long getLong(int column);
+
+    int getInt(int column);
+
+    String getString(int column);
+}
@@ -0,0 +1,220 @@
+package nl.melledijkstra.mellesoundboard;
+
+import java.io.File;
+
+/**
+ * The Sound model class represents a Sound object which is used on the soundboard.
+ * It lives in the core module so it can be used without Android, like in the benchmarks
+ * Created by melle on 10-7-2016.
+ */
+public class Sound {
+
+    public static final String MODEL_NAME = "sounds";
+    // TABLE NAME
+    public static final String TABLE_NAME = "sound";
+    // FULL TEXT SEARCH TABLE NAME, the docid is the id of the sound
+    public static final String SEARCH_TABLE_NAME = "sound_search";
+    private static final String TAG = Sound.class.getSimpleName();
+
+    /** Where the sound files are stored, set by the app on startup */
+    private static String mediaPath;
+
+    public class Columns {
+        /** The same as BaseColumns._ID */
+        public static final String ID = "_id";
+        public static final String NAME = "name";
+        public static final String FILE_NAME = "remote_file_name";
+        public static final String CREATED_AT = "created_at";
+        public static final String UPDATED_AT = "updated_at";
+        public static final String REMOTE_ID = "remote_id";
+        public static final String LOCAL_FILE_NAME = "local_file_name";
+        public static final String DOWNLOADED = "downloaded";
+        public static final String DOWNLOAD_LINK = "download_link";
+        public static final String FILE_MTIME = "file_mtime";
+        public static final String FILE_SIZE = "file_size";
+        public static final String EVICTED = "evicted";
+        public static final String TRIM_START_MS = "trim_start_ms";
+        public static final String TRIM_END_MS = "trim_end_ms";
+    }
+
+    public class SearchColumns {
+        public static final String NAME = "name";
+        /** Not filled yet, reserved for tags so they can be searched together with the name */
+        public static final String TAGS = "tags";
+    }
+
+    /** The id of the Sound, this represents the id in the database, NOT from remote server! */
+    public long id;
+
+    /**
+     * The remote id is the id stored in the server database
+     * TODO: do we need this info? and does it need to be different from normal id
+     */
+    public long remote_id;
+
+    /** Name of the soundboard effect */
+    public String name;
+
+    /** The url where the sound can be downloaded */
+    public String downloadLink;
+
+    /** Whether the Sound is downloaded */
+    private boolean downloaded;
+
+    /** Whether the file was deleted to stay within the storage budget, it's downloaded again when played */
+    private boolean evicted;
+
+    /** The local sound file */
+    private File soundFile;
+
+    /** The local filename // TODO: remove remote filename if the same filename is used */
+    private String localFileName;
+
+    /** The remote filename */
+    private String remoteFileName;
+
+    /** When the sound was created */
+    public int createdAt;
+
+    /** When the sound was updated */
+    public int updatedAt;
+
+    /**
+     * The last modified time and size of the local file when it was stored, see MediaScanner.
+     * These are only written when the sound is inserted, they aren't loaded with the sound
+     */
+    public long fileMtime;
+    public long fileSize;
+
+    /**
+     * The audible part of the sound in milliseconds, playback skips the silence around it, see SilenceDetector.
+     * The end is 0 while the sound wasn't analyzed yet
+     */
+    public int trimStartMs;
+    public int trimEndMs;
+
+    public Sound(String name) {
+        this.name = name;
+    }
+
+    public Sound() {}
+
+    /**
+     * Creates a detached copy of another sound, used when a sound needs to outlive the page it was loaded in
+     */
+    public Sound(Sound other) {
+        copyFrom(other);
+    }
+
+    /**
+     * Overwrites all data of this sound with the data of another sound
+     */
+    public void copyFrom(Sound other) {
+        this.id = other.id;
+        this.remote_id = other.remote_id;
+        this.name = other.name;
+        this.downloadLink = other.downloadLink;
+        this.downloaded = other.downloaded;
+        this.evicted = other.evicted;
+        this.soundFile = other.soundFile;
+        this.localFileName = other.localFileName;
+        this.remoteFileName = other.remoteFileName;
+        this.createdAt = other.createdAt;
+        this.updatedAt = other.updatedAt;
+        this.fileMtime = other.fileMtime;
+        this.fileSize = other.fileSize;
+        this.trimStartMs = other.trimStartMs;
+        this.trimEndMs = other.trimEndMs;
+    }
+
+    @Override
+    public String toString() {
+        return (this.localFileName != null) ? String.format("Sound{name: %s, localFileName: %s, downloaded: %b, downloadLink: %s }",name,localFileName,downloaded,downloadLink) : String.format("Sound{name: %s, downloaded: %b, downloadLink: %s }",name,downloaded,downloadLink);
+    }
+
+    /**
+     * @param path The directory of the sound files, ending with a slash
+     */
+    public static void setMediaPath(String path) {
+        mediaPath = path;
+    }
+
+    public File getSoundFile() {
+        if(soundFile == null && localFileName != null) {
+            soundFile = new File(mediaPath + localFileName);
+        }
+        return soundFile;
+    }
+
+    /**
+     * The cover has the name of the sound file with a .jpg extension and is stored in SoundManager.COVER_PATH
+     * @return The file name of the cover or null if the sound has no file name yet
+     */
+    public String getCoverFileName() {
+        String fileName = (localFileName != null) ? localFileName : remoteFileName;
+        if(fileName == null) return null;
+        int extension = fileName.lastIndexOf('.');
+        return ((extension > 0) ? fileName.substring(0, extension) : fileName) + ".jpg";
+    }
+
+    public String getRemoteFileName() {
+        return remoteFileName;
+    }
+
+    public void setRemoteFileName(String remoteFileName) {
+        this.remoteFileName = remoteFileName;
+    }
+
+    public boolean isDownloaded() {
+        return downloaded;
+    }
+
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    public void setEvicted(boolean evicted) {
+        this.evicted = evicted;
+    }
+
+    /**
+     * @return true if the silence of the sound was detected
+     */
+    public boolean isTrimmed() {
+        return trimEndMs > 0;
+    }
+
+    public void setDownloaded(boolean downloaded) {
+        this.downloaded = downloaded;
+    }
+
+    public String getLocalFileName() {
+        return localFileName;
+    }
+
+    /**
+     * Sets the local filename when the file is present, sets it to null if the file isn't present
+     * @param localFileName The name of the local filename, may be null
+     * @param present Whether the file exists in the media directory, see MediaFileIndex
+     */
+    public void setLocalFileName(String localFileName, boolean present) {
+        if(present && localFileName != null) {
+            this.localFileName = localFileName;
+            downloaded = true;
+        } else {
+            this.localFileName = null;
+        }
+        // the File object is created when it's needed, see getSoundFile()
+        soundFile = null;
+    }
+
+    /**
+     * Deletes the file associated with this sound object
+     * @return true if this file was deleted, false otherwise (also when file doesn't exists).
+     */
+    public boolean deleteFileIfExists() {
+        File file = getSoundFile();
+        return file != null && file.delete();
+    }
+
+}
@@ -0,0 +1,277 @@
+package nl.melledijkstra.mellesoundboard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SoundJsonParser reads the sounds from the changes the server sends, an array of objects like
+ * {"id": 1, "name": "...", "filename": "...", "download_link": "...", "created_at": 0, "updated_at": 0}.
+ * It reads straight from the string into Sound objects, without building a tree of JSON objects first.
+ * Other fields are skipped, numbers may also be sent as strings.
+ */
+public class SoundJsonParser {
+
+    private static final int ID = 1;
+    private static final int NAME = 1 << 1;
+    private static final int FILE_NAME = 1 << 2;
+    private static final int DOWNLOAD_LINK = 1 << 3;
+    private static final int CREATED_AT = 1 << 4;
+    private static final int UPDATED_AT = 1 << 5;
+    private static final int ALL_FIELDS = (1 << 6) - 1;
+
+    /** Objects and arrays nested deeper than this in skipped fields are refused */
+    private static final int MAX_DEPTH = 64;
+
+    private final String json;
+    private int pos;
+
+    private SoundJsonParser(String json) {
+        this.json = json;
+    }
+
+    /**
+     * @return The sounds in the order of the array, with their remote ids
+     * @throws JsonException When the json isn't valid or a sound misses one of its fields
+     */
+    public static List<Sound> parseSounds(String json) throws JsonException {
+        return new SoundJsonParser(json).readSounds();
+    }
+
+    private List<Sound> readSounds() throws JsonException {
+        ArrayList<Sound> sounds = new ArrayList<>();
+        skipWhitespace();
+        expect('[');
+        skipWhitespace();
+        if(peek() == ']') {
+            ++pos;
+        } else {
+            while(true) {
+                sounds.add(readSound());
+                skipWhitespace();
+                char c = next();
+                if(c == ']') break;
+                if(c != ',') throw error("Expected , or ] after a sound");
+            }
+        }
+        skipWhitespace();
+        if(pos < json.length()) throw error("Unexpected characters after the sounds");
+        return sounds;
+    }
+
+    private Sound readSound() throws JsonException {
+        skipWhitespace();
+        expect('{');
+        Sound sound = new Sound();
+        int found = 0;
+        skipWhitespace();
+        if(peek() == '}') {
+            ++pos;
+        } else {
+            while(true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                switch(key) {
+                    case "id":
+                        sound.remote_id = readLong();
+                        found |= ID;
+                        break;
+                    case "name":
+                        sound.name = readText();
+                        found |= NAME;
+                        break;
+                    case "filename":
+                        sound.setRemoteFileName(readText());
+                        found |= FILE_NAME;
+                        break;
+                    case "download_link":
+                        sound.downloadLink = readText();
+                        found |= DOWNLOAD_LINK;
+                        break;
+                    case "created_at":
+                        sound.createdAt = (int) readLong();
+                        found |= CREATED_AT;
+                        break;
+                    case "updated_at":
+                        sound.updatedAt = (int) readLong();
+                        found |= UPDATED_AT;
+                        break;
+                    default:
+                        skipValue(0);
+                }
+                skipWhitespace();
+                char c = next();
+                if(c == '}') break;
+                if(c != ',') throw error("Expected , or } in a sound");
+            }
+        }
+        if(found != ALL_FIELDS) throw error("A sound misses one of its fields");
+        return sound;
+    }
+
+    /**
+     * Reads a number, or a string with a number in it
+     */
+    private long readLong() throws JsonException {
+        String number = (peek() == '"') ? readString() : readLiteral();
+        try {
+            return Long.parseLong(number);
+        } catch(NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(number);
+            } catch(NumberFormatException e2) {
+                throw error("Expected a number instead of "+number);
+            }
+        }
+    }
+
+    /**
+     * Reads a string, null or another value as text
+     */
+    private String readText() throws JsonException {
+        if(peek() == '"') return readString();
+        String literal = readLiteral();
+        return literal.equals("null") ? null : literal;
+    }
+
+    private String readString() throws JsonException {
+        expect('"');
+        int start = pos;
+        // most strings have no escapes and are cut out as a whole
+        while(pos < json.length()) {
+            char c = json.charAt(pos);
+            if(c == '"') return json.substring(start, pos++);
+            if(c == '\\') break;
+            ++pos;
+        }
+        StringBuilder sb = new StringBuilder(json.length() - start);
+        sb.append(json, start, pos);
+        while(true) {
+            char c = next();
+            if(c == '"') return sb.toString();
+            if(c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char escaped = next();
+            switch(escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(escaped);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if(pos + 4 > json.length()) throw error("Unfinished unicode escape");
+                    try {
+                        sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    } catch(NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw error("Invalid escape \\"+escaped);
+            }
+        }
+    }
+
+    /**
+     * Reads a number, true, false or null
+     */
+    private String readLiteral() throws JsonException {
+        int start = pos;
+        while(pos < json.length()) {
+            char c = json.charAt(pos);
+            if(c == ',' || c == '}' || c == ']' || isWhitespace(c)) break;
+            ++pos;
+        }
+        if(pos == start) throw error("Expected a value");
+        return json.substring(start, pos);
+    }
+
+    private void skipValue(int depth) throws JsonException {
+        if(depth > MAX_DEPTH) throw error("Nested too deep");
+        char c = peek();
+        if(c == '"') {
+            readString();
+        } else if(c == '{' || c == '[') {
+            char close = (c == '{') ? '}' : ']';
+            ++pos;
+            skipWhitespace();
+            if(peek() == close) {
+                ++pos;
+                return;
+            }
+            while(true) {
+                skipWhitespace();
+                if(close == '}') {
+                    readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                }
+                skipValue(depth + 1);
+                skipWhitespace();
+                char next = next();
+                if(next == close) return;
+                if(next != ',') throw error("Expected , or "+close);
+            }
+        } else {
+            readLiteral();
+        }
+    }
+
+    private void skipWhitespace() {
+        while(pos < json.length() && isWhitespace(json.charAt(pos))) {
+            ++pos;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private char peek() throws JsonException {
+        if(pos >= json.length()) throw error("Unexpected end");
+        return json.charAt(pos);
+    }
+
+    private char next() throws JsonException {
+        char c = peek();
+        ++pos;
+        return c;
+    }
+
+    private void expect(char expected) throws JsonException {
+        if(next() != expected) throw error("Expected "+expected);
+    }
+
+    private JsonException error(String message) {
+        return new JsonException(message+" at "+pos);
+    }
+
+    public static class JsonException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public JsonException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package nl.melledijkstra.mellesoundboard;
+
+/**
+ * The SoundRowMapper fills sounds with the rows of a query on the sound table. The column indexes
+ * are looked up when the mapper is created, so mapping a row doesn't search the column names again.
+ * Create one mapper per query, it reads the current row of the {@link Row} it was created with
+ */
+public class SoundRowMapper {
+
+    private final Row row;
+    private final FilePresence files;
+
+    private final int id;
+    private final int remoteId;
+    private final int name;
+    private final int localFileName;
+    private final int remoteFileName;
+    private final int downloaded;
+    private final int evicted;
+    private final int downloadLink;
+    private final int createdAt;
+    private final int updatedAt;
+    private final int trimStartMs;
+    private final int trimEndMs;
+
+    public SoundRowMapper(Row row, FilePresence files) {
+        this.row = row;
+        this.files = files;
+        id = row.getColumnIndex(Sound.Columns.ID);
+        remoteId = row.getColumnIndex(Sound.Columns.REMOTE_ID);
+        name = row.getColumnIndex(Sound.Columns.NAME);
+        localFileName = row.getColumnIndex(Sound.Columns.LOCAL_FILE_NAME);
+        remoteFileName = row.getColumnIndex(Sound.Columns.FILE_NAME);
+        downloaded = row.getColumnIndex(Sound.Columns.DOWNLOADED);
+        evicted = row.getColumnIndex(Sound.Columns.EVICTED);
+        downloadLink = row.getColumnIndex(Sound.Columns.DOWNLOAD_LINK);
+        createdAt = row.getColumnIndex(Sound.Columns.CREATED_AT);
+        updatedAt = row.getColumnIndex(Sound.Columns.UPDATED_AT);
+        trimStartMs = row.getColumnIndex(Sound.Columns.TRIM_START_MS);
+        trimEndMs = row.getColumnIndex(Sound.Columns.TRIM_END_MS);
+    }
+
+    /**
+     * Fills a sound with the current row
+     * @param reuse An existing sound to overwrite, a new Sound is created when null
+     */
+    public Sound map(Sound reuse) {
+        Sound sound = (reuse != null) ? reuse : new Sound();
+        sound.id            = row.getLong(id);
+        sound.remote_id     = row.getLong(remoteId);
+        sound.name          = row.getString(name);
+        String fileName = row.getString(localFileName);
+        sound.setLocalFileName(fileName, files.contains(fileName));
+        sound.setRemoteFileName(row.getString(remoteFileName));
+        sound.setDownloaded(row.getInt(downloaded) > 0);
+        sound.setEvicted(row.getInt(evicted) > 0);
+        sound.downloadLink  = row.getString(downloadLink);
+        sound.createdAt     = row.getInt(createdAt);
+        sound.updatedAt     = row.getInt(updatedAt);
+        sound.trimStartMs   = row.getInt(trimStartMs);
+        sound.trimEndMs     = row.getInt(trimEndMs);
+        return sound;
+    }
+
+    public interface FilePresence {
+        /**
+         * @param fileName The local file name of a sound, may be null
+         * @return true if the file is present in the media directory
+         */
+        boolean contains(String fileName);
+    }
+}
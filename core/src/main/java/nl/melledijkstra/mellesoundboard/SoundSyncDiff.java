@@ -0,0 +1,91 @@
+package nl.melledijkstra.mellesoundboard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The SoundSyncDiff finds what changes when the sounds from the server are merged into the board.
+ * Every incoming sound is looked up in the remote id index of the board, so a sync costs the size of
+ * the changes instead of walking the whole board. Sounds which didn't change on the server aren't updated at all
+ */
+public class SoundSyncDiff {
+
+    /** Sounds which aren't on the board yet, in the order they came in */
+    public final List<Sound> inserts = new ArrayList<>();
+
+    /** Copies of sounds on the board with the data of the server */
+    public final List<Sound> updates = new ArrayList<>();
+
+    private SoundSyncDiff() {}
+
+    /**
+     * @param board The sounds which are stored now
+     * @param incoming The sounds from the server, identified by their remote id
+     */
+    public static SoundSyncDiff compute(Board board, List<Sound> incoming) {
+        SoundSyncDiff diff = new SoundSyncDiff();
+        HashSet<Long> seen = new HashSet<>();
+        for(Sound sound : incoming) {
+            // a sound which is in the response twice is handled once
+            if(!seen.add(sound.remote_id)) continue;
+            Sound existing = board.getByRemoteId(sound.remote_id);
+            if(existing == null) {
+                diff.inserts.add(sound);
+                continue;
+            }
+            if(sameServerData(existing, sound)) continue;
+            Sound updated = new Sound(existing);
+            updated.name = sound.name;
+            updated.setRemoteFileName(sound.getRemoteFileName());
+            updated.downloadLink = sound.downloadLink;
+            updated.updatedAt = sound.updatedAt;
+            diff.updates.add(updated);
+        }
+        return diff;
+    }
+
+    public boolean isEmpty() {
+        return inserts.isEmpty() && updates.isEmpty();
+    }
+
+    private static boolean sameServerData(Sound a, Sound b) {
+        return a.updatedAt == b.updatedAt
+                && equals(a.name, b.name)
+                && equals(a.getRemoteFileName(), b.getRemoteFileName())
+                && equals(a.downloadLink, b.downloadLink);
+    }
+
+    private static boolean equals(String a, String b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    /**
+     * @return A board view of a list of sounds, indexed once by remote id
+     */
+    public static Board of(List<Sound> sounds) {
+        final HashMap<Long, Sound> byRemoteId = new HashMap<>(sounds.size() * 2);
+        for(Sound sound : sounds) {
+            // local sounds have no remote id
+            if(sound.remote_id != 0 && !byRemoteId.containsKey(sound.remote_id)) byRemoteId.put(sound.remote_id, sound);
+        }
+        return new Board() {
+            @Override
+            public Sound getByRemoteId(long remoteId) {
+                return byRemoteId.get(remoteId);
+            }
+        };
+    }
+
+    /**
+     * The stored sounds, looked up by their remote id
+     */
+    public interface Board {
+        /**
+         * @return The stored sound with this remote id, null when it's not on the board. Local sounds have
+         * remote id 0 and are never returned
+         */
+        Sound getByRemoteId(long remoteId);
+    }
+}
@@ -0,0 +1,48 @@
+package nl.melledijkstra.mellesoundboard;
+
+/**
+ * String helpers which don't need Android
+ */
+public class StringUtils {
+
+    private StringUtils() throws Exception {
+        throw new Exception("Don't create a StringUtils instance, this class is only for the helper methods!");
+    }
+
+    public static boolean containsItemFromList(String inputString, String[] items) {
+        for (String item : items) {
+            if (inputString.contains(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Joins the parts with the separator, parts which are empty or only spaces are left out
+     * and the last part is trimmed
+     */
+    public static String implode(String separator, String[] parts) {
+        if(parts.length == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.length - 1; i++) {
+            // parts.length - 1 to not get separator on the end
+            if(!isSpaces(parts[i])) {
+                sb.append(parts[i]);
+                sb.append(separator);
+            }
+        }
+        sb.append(parts[parts.length - 1].trim());
+        return sb.toString();
+    }
+
+    /**
+     * @return true if the string is empty or only has spaces, without a regular expression
+     */
+    private static boolean isSpaces(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) != ' ') return false;
+        }
+        return true;
+    }
+}
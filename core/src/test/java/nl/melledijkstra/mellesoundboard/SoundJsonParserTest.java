@@ -0,0 +1,129 @@
+package nl.melledijkstra.mellesoundboard;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what the SoundJsonParser makes of the changes the server sends, and that it refuses broken input
+ * instead of returning half a sound.
+ */
+public class SoundJsonParserTest {
+
+    private static final String SOUND = "{\"id\": 7, \"name\": \"Airhorn\", \"filename\": \"airhorn.mp3\","
+            + " \"download_link\": \"http://example.com/airhorn.mp3\", \"created_at\": 100, \"updated_at\": 200}";
+
+    @Test
+    public void readsAllFields() throws Exception {
+        List<Sound> sounds = SoundJsonParser.parseSounds("[" + SOUND + "]");
+        assertEquals(1, sounds.size());
+        Sound sound = sounds.get(0);
+        assertEquals(7, sound.remote_id);
+        assertEquals("Airhorn", sound.name);
+        assertEquals("airhorn.mp3", sound.getRemoteFileName());
+        assertEquals("http://example.com/airhorn.mp3", sound.downloadLink);
+        assertEquals(100, sound.createdAt);
+        assertEquals(200, sound.updatedAt);
+    }
+
+    @Test
+    public void keepsTheOrderOfTheArray() throws Exception {
+        List<Sound> sounds = SoundJsonParser.parseSounds("[" + SOUND + ", " + SOUND.replace("\"id\": 7", "\"id\": 3") + "]");
+        assertEquals(2, sounds.size());
+        assertEquals(7, sounds.get(0).remote_id);
+        assertEquals(3, sounds.get(1).remote_id);
+    }
+
+    @Test
+    public void readsAnEmptyArray() throws Exception {
+        assertTrue(SoundJsonParser.parseSounds(" [ ] ").isEmpty());
+    }
+
+    @Test
+    public void readsNumbersSentAsStrings() throws Exception {
+        Sound sound = SoundJsonParser.parseSounds("[" + SOUND.replace("\"id\": 7", "\"id\": \"7\"")
+                .replace("\"updated_at\": 200", "\"updated_at\": 2.0E2") + "]").get(0);
+        assertEquals(7, sound.remote_id);
+        assertEquals(200, sound.updatedAt);
+    }
+
+    @Test
+    public void skipsOtherFields() throws Exception {
+        String json = "[" + SOUND.replace("{", "{\"tags\": [\"loud\", {\"nested\": [1, 2, {}]}], \"rating\": null, ") + "]";
+        assertEquals("Airhorn", SoundJsonParser.parseSounds(json).get(0).name);
+    }
+
+    @Test
+    public void unescapesStrings() throws Exception {
+        String json = "[" + SOUND.replace("\"Airhorn\"", "\"Air\\\"horn\\\\ caf\\u00e9\\n\"") + "]";
+        assertEquals("Air\"horn\\ caf\u00e9\n", SoundJsonParser.parseSounds(json).get(0).name);
+    }
+
+    @Test
+    public void readsNullAsNoText() throws Exception {
+        String json = "[" + SOUND.replace("\"http://example.com/airhorn.mp3\"", "null") + "]";
+        assertNull(SoundJsonParser.parseSounds(json).get(0).downloadLink);
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesASoundWithoutAllFields() throws Exception {
+        SoundJsonParser.parseSounds("[{\"id\": 7, \"name\": \"Airhorn\"}]");
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesAnObjectInsteadOfAnArray() throws Exception {
+        SoundJsonParser.parseSounds(SOUND);
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesAnUnfinishedArray() throws Exception {
+        SoundJsonParser.parseSounds("[" + SOUND);
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesAnUnfinishedString() throws Exception {
+        SoundJsonParser.parseSounds("[{\"name\": \"Airh");
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesCharactersAfterTheArray() throws Exception {
+        SoundJsonParser.parseSounds("[" + SOUND + "] x");
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesATrailingComma() throws Exception {
+        SoundJsonParser.parseSounds("[" + SOUND + ",]");
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesAnInvalidNumber() throws Exception {
+        SoundJsonParser.parseSounds("[" + SOUND.replace("\"id\": 7", "\"id\": seven") + "]");
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesAnInvalidEscape() throws Exception {
+        SoundJsonParser.parseSounds("[" + SOUND.replace("\"Airhorn\"", "\"Air\\xhorn\"") + "]");
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesAnUnfinishedUnicodeEscape() throws Exception {
+        SoundJsonParser.parseSounds("[{\"name\": \"\\u00");
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesSkippedFieldsNestedTooDeep() throws Exception {
+        StringBuilder nested = new StringBuilder();
+        for(int i = 0; i < 100; ++i) nested.append('[');
+        for(int i = 0; i < 100; ++i) nested.append(']');
+        SoundJsonParser.parseSounds("[" + SOUND.replace("{", "{\"deep\": " + nested + ", ") + "]");
+    }
+
+    @Test(expected = SoundJsonParser.JsonException.class)
+    public void refusesEmptyInput() throws Exception {
+        SoundJsonParser.parseSounds("");
+    }
+}
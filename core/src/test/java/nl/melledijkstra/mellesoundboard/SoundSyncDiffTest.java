@@ -0,0 +1,116 @@
+package nl.melledijkstra.mellesoundboard;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which sounds the SoundSyncDiff inserts and updates when the sounds of the server are merged
+ * into the board. The server only sends changes, so sounds it leaves out are never deleted.
+ */
+public class SoundSyncDiffTest {
+
+    @Test
+    public void insertsNewSounds() {
+        Sound added = remote(3, "Drum", 10);
+        SoundSyncDiff diff = SoundSyncDiff.compute(board(stored(1, 1, "Airhorn", 10)), Arrays.asList(added));
+        assertEquals(1, diff.inserts.size());
+        assertSame(added, diff.inserts.get(0));
+        assertTrue(diff.updates.isEmpty());
+    }
+
+    @Test
+    public void updatesChangedSoundsAndKeepsTheirLocalData() {
+        Sound stored = stored(1, 5, "Airhorn", 10);
+        stored.setDownloaded(true);
+        stored.setLocalFileName("airhorn.mp3", true);
+        stored.trimStartMs = 120;
+        SoundSyncDiff diff = SoundSyncDiff.compute(board(stored), Arrays.asList(remote(5, "Airhorn remix", 11)));
+
+        assertTrue(diff.inserts.isEmpty());
+        assertEquals(1, diff.updates.size());
+        Sound updated = diff.updates.get(0);
+        assertEquals(1, updated.id);
+        assertEquals("Airhorn remix", updated.name);
+        assertEquals(11, updated.updatedAt);
+        assertTrue(updated.isDownloaded());
+        assertEquals("airhorn.mp3", updated.getLocalFileName());
+        assertEquals(120, updated.trimStartMs);
+        // the stored sound is copied, not changed
+        assertEquals("Airhorn", stored.name);
+    }
+
+    @Test
+    public void skipsSoundsWhichDidNotChange() {
+        SoundSyncDiff diff = SoundSyncDiff.compute(board(stored(1, 5, "Airhorn", 10)), Arrays.asList(remote(5, "Airhorn", 10)));
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void neverDeletesSoundsLeftOutByTheServer() {
+        List<Sound> sounds = Arrays.asList(stored(1, 5, "Airhorn", 10), stored(2, 6, "Drum", 10), stored(3, 7, "Stinger", 10));
+        SoundSyncDiff diff = SoundSyncDiff.compute(SoundSyncDiff.of(sounds), Arrays.asList(remote(6, "Drum", 11)));
+        assertTrue(diff.inserts.isEmpty());
+        assertEquals(1, diff.updates.size());
+        assertEquals(2, diff.updates.get(0).id);
+        assertEquals("Airhorn", sounds.get(0).name);
+        assertEquals("Stinger", sounds.get(2).name);
+    }
+
+    @Test
+    public void emptyResponseChangesNothing() {
+        assertTrue(SoundSyncDiff.compute(board(stored(1, 5, "Airhorn", 10)), Collections.<Sound>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void insertsASoundWhichIsInTheResponseTwiceOnce() {
+        SoundSyncDiff diff = SoundSyncDiff.compute(board(), Arrays.asList(remote(3, "Drum", 10), remote(3, "Drum", 10)));
+        assertEquals(1, diff.inserts.size());
+    }
+
+    @Test
+    public void localSoundsAreNotMatched() {
+        // imported sounds have no remote id, a sound from the server is never matched with them
+        SoundSyncDiff diff = SoundSyncDiff.compute(board(stored(1, 0, "Recording", 10)), Arrays.asList(remote(5, "Recording", 11)));
+        assertTrue(diff.updates.isEmpty());
+        assertEquals(1, diff.inserts.size());
+    }
+
+    @Test
+    public void insertsInTheOrderOfTheResponse() {
+        SoundSyncDiff diff = SoundSyncDiff.compute(board(stored(1, 5, "Airhorn", 10)),
+                Arrays.asList(remote(9, "C", 1), remote(5, "Airhorn", 11), remote(8, "B", 1)));
+        assertEquals(2, diff.inserts.size());
+        assertEquals(9, diff.inserts.get(0).remote_id);
+        assertEquals(8, diff.inserts.get(1).remote_id);
+        assertEquals(1, diff.updates.size());
+        assertFalse(diff.isEmpty());
+    }
+
+    private static SoundSyncDiff.Board board(Sound... sounds) {
+        return SoundSyncDiff.of(new ArrayList<>(Arrays.asList(sounds)));
+    }
+
+    private static Sound stored(long id, long remoteId, String name, int updatedAt) {
+        Sound sound = remote(remoteId, name, updatedAt);
+        sound.id = id;
+        return sound;
+    }
+
+    private static Sound remote(long remoteId, String name, int updatedAt) {
+        Sound sound = new Sound(name);
+        sound.remote_id = remoteId;
+        sound.setRemoteFileName(name.toLowerCase() + ".mp3");
+        sound.downloadLink = "http://example.com/" + sound.getRemoteFileName();
+        sound.updatedAt = updatedAt;
+        return sound;
+    }
+}